@@ -0,0 +1,264 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The process-wide pool of threads that AI searches run on.
+ * 
+ * <p>This is a singleton. Use getInstance() method to get the instance.</p>
+ * 
+ * <p>A search is cut into short steps, which are queued by owner, usually
+ * the game. A fixed number of workers (system property
+ * connectfour.aiWorkers, by default one per processor) take steps in
+ * turn: steps of the foreground owner first, then those of the owner
+ * that has used the least worker time so far. A step that has more work
+ * to do goes back to the end of its owner's queue, so one deep search
+ * cannot starve the other games.</p>
+ * 
+ * <p>Queue depth and waiting times are kept, to size the pool. With 
+ * system property connectfour.aiStats set to true, they are printed on 
+ * standard error when the program exits.</p>
+ * 
+ * @author Chenyang Tang
+ */
+final class AiScheduler {
+  private static final AiScheduler INSTANCE = new AiScheduler(
+      Integer.getInteger("connectfour.aiWorkers",
+                         Runtime.getRuntime().availableProcessors()));
+  
+  // Owners with queued steps.
+  private final Map<Object, Owner> owners = 
+      new IdentityHashMap<Object, Owner>();
+  private final int workers;
+  private Object foreground;
+  // Worker time of the owner that last ran: the starting point of an owner
+  // that comes back, so that idling earns it no credit.
+  private long clock = 0;
+  private int queueDepth = 0;
+  private long steps = 0;
+  private long totalWaitNanos = 0;
+  private long maxWaitNanos = 0;
+  
+  /**
+   * A piece of work that runs in steps.
+   * 
+   * @author Chenyang Tang
+   */
+  interface Step {
+    /**
+     * Do a short piece of the work.
+     * 
+     * @return true if there is more to do.
+     */
+    boolean step();
+  }
+  
+  /**
+   * The queued steps and used time of one owner.
+   * 
+   * @author Chenyang Tang
+   */
+  private static final class Owner {
+    final ArrayDeque<Step> steps = new ArrayDeque<Step>();
+    final ArrayDeque<Long> queued = new ArrayDeque<Long>();
+    long usedNanos;
+    // Steps of this owner being run.
+    int running;
+  }
+  
+  /**
+   * Get the instance of the scheduler singleton.
+   * 
+   * @return the instance of the scheduler singleton.
+   */
+  static AiScheduler getInstance() {
+    return INSTANCE;
+  }
+  
+  private AiScheduler(int workers) {
+    this.workers = Math.max(1, workers);
+    for (int i = 0; i < this.workers; ++i) {
+      Thread worker = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          work();
+        }
+      }, "connectfour-ai-" + i);
+      worker.setDaemon(true);
+      worker.start();
+    }
+    if (Boolean.getBoolean("connectfour.aiStats")) {
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+        @Override
+        public void run() {
+          System.err.println("AI scheduler: " + AiScheduler.this);
+        }
+      });
+    }
+  }
+  
+  /**
+   * Queue work.
+   * 
+   * @param owner The owner to account the work to, usually the game.
+   * @param step The work.
+   * @throws IllegalArgumentException if an argument is null.
+   */
+  synchronized void submit(Object owner, Step step)
+                                          throws IllegalArgumentException {
+    if (owner == null || step == null) {
+      throw new IllegalArgumentException("Owner and step cannot be null.");
+    }
+    Owner queue = owners.get(owner);
+    if (queue == null) {
+      queue = new Owner();
+      queue.usedNanos = clock;
+      owners.put(owner, queue);
+    }
+    queue.steps.add(step);
+    queue.queued.add(System.nanoTime());
+    ++queueDepth;
+    notify();
+  }
+  
+  /**
+   * Set the owner whose steps run before all others.
+   * 
+   * @param owner The owner, usually the game of the active window,
+   *              or null for none.
+   */
+  synchronized void setForeground(Object owner) {
+    foreground = owner;
+  }
+  
+  /**
+   * Clear the foreground owner if it is the given one.
+   * 
+   * @param owner The owner that is no longer in the foreground.
+   */
+  synchronized void clearForeground(Object owner) {
+    if (foreground == owner) {
+      foreground = null;
+    }
+  }
+  
+  /**
+   * Get the number of worker threads.
+   * 
+   * @return the number of workers.
+   */
+  int getWorkers() {
+    return workers;
+  }
+  
+  /**
+   * Get the number of steps waiting for a worker.
+   * 
+   * @return the queue depth.
+   */
+  synchronized int getQueueDepth() {
+    return queueDepth;
+  }
+  
+  /**
+   * Get the number of steps run so far.
+   * 
+   * @return the number of steps.
+   */
+  synchronized long getSteps() {
+    return steps;
+  }
+  
+  /**
+   * Get the average time steps waited for a worker.
+   * 
+   * @return the average wait in nanoseconds, 0 if no step has run.
+   */
+  synchronized long getAverageWaitNanos() {
+    return steps == 0 ? 0 : totalWaitNanos / steps;
+  }
+  
+  /**
+   * Get the longest time a step waited for a worker.
+   * 
+   * @return the longest wait in nanoseconds.
+   */
+  synchronized long getMaxWaitNanos() {
+    return maxWaitNanos;
+  }
+  
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "%d workers, %d queued, %d steps, wait avg %.2f ms, max %.2f ms",
+        workers, queueDepth, steps, getAverageWaitNanos() / 1e6,
+        maxWaitNanos / 1e6);
+  }
+  
+  private void work() {
+    while (true) {
+      Object owner;
+      Step step;
+      synchronized (this) {
+        while (queueDepth == 0) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        owner = pick();
+        Owner queue = owners.get(owner);
+        step = queue.steps.poll();
+        long wait = System.nanoTime() - queue.queued.poll();
+        ++queue.running;
+        --queueDepth;
+        ++steps;
+        totalWaitNanos += wait;
+        maxWaitNanos = Math.max(maxWaitNanos, wait);
+      }
+      long start = System.nanoTime();
+      boolean more = false;
+      try {
+        more = step.step();
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+      }
+      long used = System.nanoTime() - start;
+      synchronized (this) {
+        Owner queue = owners.get(owner);
+        queue.usedNanos += used;
+        clock = queue.usedNanos;
+        --queue.running;
+        if (more) {
+          queue.steps.add(step);
+          queue.queued.add(System.nanoTime());
+          ++queueDepth;
+          notify();
+        } else if (queue.steps.isEmpty() && queue.running == 0) {
+          owners.remove(owner);
+        }
+      }
+    }
+  }
+  
+  /* The owner to run next. Called with steps queued and the lock held. */
+  private Object pick() {
+    Owner front = foreground == null ? null : owners.get(foreground);
+    if (front != null && !front.steps.isEmpty()) {
+      return foreground;
+    }
+    Object best = null;
+    long bestUsed = Long.MAX_VALUE;
+    for (Map.Entry<Object, Owner> entry : owners.entrySet()) {
+      Owner queue = entry.getValue();
+      if (!queue.steps.isEmpty() && queue.usedNanos < bestUsed) {
+        best = entry.getKey();
+        bestUsed = queue.usedNanos;
+      }
+    }
+    return best;
+  }
+}
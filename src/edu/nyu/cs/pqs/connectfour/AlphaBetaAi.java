@@ -0,0 +1,514 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.AsyncAi;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.Board;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.ColumnScorer;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.NodeCounter;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.SearchProgress;
+
+/**
+ * A depth-limited alpha-beta search AI for the Connect-Four game.
+ * 
+ * <p>Searches a fixed number of moves ahead with negamax and alpha-beta 
+ * pruning on a ScratchBoard, probing a TranspositionTable by canonical 
+ * position key, and scores the positions at the search horizon with an 
+ * Evaluator. Wins are scored WIN minus the number of moves needed to 
+ * reach them, so quicker wins score higher.</p>
+ * 
+ * <p>Every column of the root is searched with a full window, so 
+ * scoreColumns() returns exact scores of all columns, not just the best.
+ * The AI keeps no state between calls and can be shared by threads.</p>
+ * 
+ * <p>decideMoveAsync() deepens iteratively instead: it searches 1, 2, ...
+ * moves ahead on the AiScheduler, one root move per step, keeping the 
+ * table between depths so each one starts from the previous best moves.
+ * Steps are accounted to the AI's owner (see ownedBy()). It stops at the
+ * AI's depth, at a forced result, or when the deadline passes, abandoning
+ * the unfinished depth.</p>
+ * 
+ * <p>An AI with a node budget searches at most that many positions per
+ * move, also deepening iteratively in decideMove(), so its strength is 
+ * the same on any machine.</p>
+ * 
+ * @author Chenyang Tang
+ */
+class AlphaBetaAi implements AsyncAi, ColumnScorer, NodeCounter {
+  /** Score of a won position. */
+  static final int WIN = 100000000;
+  /** Node budget of an AI without one. */
+  static final long UNLIMITED = Long.MAX_VALUE;
+  /** A time limit that never runs out, to add to System.nanoTime(). */
+  static final long NO_DEADLINE = 1L << 62;
+  private static final int TABLE_SIZE_LOG2 = 16;
+  // Nodes searched between checks of the deadline.
+  private static final int CHECK_INTERVAL = 256;
+  
+  private final int depth;
+  private final Evaluator evaluator;
+  private final long nodeBudget;
+  // Owner of the searches on the AiScheduler.
+  private final Object owner;
+  // Positions searched by finished searches.
+  private final AtomicLong nodesSearched = new AtomicLong();
+  
+  /**
+   * Static evaluation of positions at the search horizon.
+   * 
+   * @author Chenyang Tang
+   */
+  interface Evaluator {
+    /**
+     * Evaluates a position.
+     * 
+     * @param board The position.
+     * @param player The player to evaluate for.
+     * @param winNum The winning rule. (Number of consecutive checkers).
+     * @return A score well within (-WIN, WIN), higher is better for player.
+     */
+    int evaluate(Board board, PlayerId player, int winNum);
+  }
+  
+  /**
+   * Construct an AI using the default WindowEvaluator.
+   * 
+   * @param depth Number of moves to search ahead. Must be positive.
+   * @throws IllegalArgumentException if depth is not positive.
+   */
+  AlphaBetaAi(int depth) throws IllegalArgumentException {
+    this(depth, new WindowEvaluator());
+  }
+  
+  /**
+   * Construct an AI.
+   * 
+   * @param depth Number of moves to search ahead. Must be positive.
+   * @param evaluator Evaluator of positions at the search horizon.
+   * @throws IllegalArgumentException if depth is not positive 
+   *                                  or evaluator is null.
+   */
+  AlphaBetaAi(int depth, Evaluator evaluator) 
+                                        throws IllegalArgumentException {
+    this(depth, evaluator, UNLIMITED);
+  }
+  
+  /**
+   * Construct an AI with a node budget.
+   * 
+   * @param depth Most moves to search ahead. Must be positive.
+   * @param evaluator Evaluator of positions at the search horizon.
+   * @param nodeBudget Most positions to search per move. Must be positive.
+   * @throws IllegalArgumentException if depth or nodeBudget is not 
+   *                                  positive or evaluator is null.
+   */
+  AlphaBetaAi(int depth, Evaluator evaluator, long nodeBudget) 
+                                        throws IllegalArgumentException {
+    if (depth < 1) {
+      throw new IllegalArgumentException("Depth must be positive integer.");
+    }
+    if (evaluator == null) {
+      throw new IllegalArgumentException("Evaluator cannot be null.");
+    }
+    if (nodeBudget < 1) {
+      throw new IllegalArgumentException(
+                                  "Node budget must be positive integer.");
+    }
+    this.depth = depth;
+    this.evaluator = evaluator;
+    this.nodeBudget = nodeBudget;
+    owner = this;
+  }
+  
+  private AlphaBetaAi(AlphaBetaAi ai, Object owner) {
+    depth = ai.depth;
+    evaluator = ai.evaluator;
+    nodeBudget = ai.nodeBudget;
+    this.owner = owner;
+  }
+  
+  /**
+   * Get a copy of the AI whose asynchronous searches are accounted to an
+   * owner on the AiScheduler. By default, every AI is its own owner.
+   * 
+   * @param owner The owner, usually the game.
+   * @return the new AI.
+   * @throws IllegalArgumentException if owner is null.
+   */
+  AlphaBetaAi ownedBy(Object owner) throws IllegalArgumentException {
+    if (owner == null) {
+      throw new IllegalArgumentException("Owner cannot be null.");
+    }
+    return new AlphaBetaAi(this, owner);
+  }
+  
+  @Override
+  public int decideMove(Board board, PlayerId player, int winNum) {
+    if (nodeBudget == UNLIMITED) {
+      return bestColumn(scoreColumns(board, player, winNum));
+    }
+    IterativeSearch search = new IterativeSearch(board, player, winNum, 
+        System.nanoTime() + NO_DEADLINE, null, false);
+    while (search.step()) {
+      // Deepen until done.
+    }
+    return search.result.join();
+  }
+  
+  /**
+   * {@inheritDoc}
+   * 
+   * <p>Searches to the full depth, ignoring the node budget.</p>
+   */
+  @Override
+  public int[] scoreColumns(Board board, PlayerId player, int winNum) {
+    Search search = new Search(board, player, winNum, null, 0, UNLIMITED);
+    int[] scores = search.scoreRoot(depth);
+    int best = bestColumn(scores);
+    search.record(best, best == -1 ? 0 : scores[best], depth, false);
+    return scores;
+  }
+  
+  /**
+   * Scores each column to a given depth, unless stopped.
+   * 
+   * <p>Ignores the AI's depth and node budget. The search gives up within
+   * a few hundred positions of stop becoming done.</p>
+   * 
+   * @param board The current game board state.
+   * @param player The player that is playing.
+   * @param winNum The winning rule. (Number of consecutive checkers).
+   * @param depth Number of moves to search ahead. Must be positive.
+   * @param stop Completed or cancelled to abandon the search.
+   * @return the score of each column as scoreColumns() gives it, or null
+   *         if the search was abandoned.
+   */
+  int[] scoreColumns(Board board, PlayerId player, int winNum, int depth,
+                     CompletableFuture<?> stop) {
+    Search search = new Search(board, player, winNum, stop, 
+                               System.nanoTime() + NO_DEADLINE, UNLIMITED);
+    try {
+      int[] scores = search.scoreRoot(depth);
+      int best = bestColumn(scores);
+      search.record(best, best == -1 ? 0 : scores[best], depth, true);
+      return scores;
+    } catch (Abandoned e) {
+      return null;
+    }
+  }
+  
+  /**
+   * {@inheritDoc}
+   * 
+   * <p>Counts the searches that have finished, on any thread.</p>
+   */
+  @Override
+  public long getNodes() {
+    return nodesSearched.get();
+  }
+  
+  @Override
+  public CompletableFuture<Integer> decideMoveAsync(Board board, 
+      PlayerId player, int winNum, long deadline, SearchProgress progress) {
+    IterativeSearch job = new IterativeSearch(
+        board, player, winNum, deadline, progress, true);
+    AiScheduler.getInstance().submit(owner, job);
+    return job.result;
+  }
+  
+  /**
+   * Get the best column from the column scores.
+   * 
+   * @param scores Scores of all columns.
+   * @return the playable column with the highest score, ties broken 
+   *         towards the centre, or -1 if no column is playable.
+   */
+  static int bestColumn(int[] scores) {
+    int best = -1;
+    for (int col : centreFirst(scores.length)) {
+      if (scores[col] != NO_MOVE 
+          && (best == -1 || scores[col] > scores[best])) {
+        best = col;
+      }
+    }
+    return best;
+  }
+  
+  /**
+   * Get the columns of a board ordered from the centre outwards.
+   * 
+   * <p>Central columns take part in more lines, so searching them first 
+   * produces cut-offs sooner.</p>
+   * 
+   * @param columns Number of columns.
+   * @return the columns, centre first.
+   */
+  static int[] centreFirst(int columns) {
+    int[] order = new int[columns];
+    for (int i = 0; i < columns; ++i) {
+      order[i] = columns / 2 + (i % 2 == 0 ? i / 2 : -(i + 1) / 2);
+    }
+    return order;
+  }
+  
+  /**
+   * Thrown through a search to abandon it.
+   * 
+   * @author Chenyang Tang
+   */
+  private static final class Abandoned extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    
+    Abandoned() {
+      super(null, null, false, false);
+    }
+  }
+  
+  private static final Abandoned ABANDONED = new Abandoned();
+  
+  /**
+   * An iterative deepening search for decideMoveAsync(), run one root 
+   * move per step.
+   * 
+   * @author Chenyang Tang
+   */
+  private final class IterativeSearch implements AiScheduler.Step {
+    final CompletableFuture<Integer> result = 
+        new CompletableFuture<Integer>();
+    private final Search search;
+    private final long deadline;
+    private final SearchProgress progress;
+    private final boolean async;
+    // Depths completed.
+    private int searched = 0;
+    private int best = -1;
+    private int bestScore = 0;
+    // Scores of the depth being searched, and the next root move.
+    private final int[] scores;
+    private int nextColumn = 0;
+    
+    IterativeSearch(Board board, PlayerId player, int winNum, 
+                    long deadline, SearchProgress progress, boolean async) {
+      // Copies the board before the caller can change it.
+      search = new Search(board, player, winNum, result, deadline, 
+                          nodeBudget);
+      this.deadline = deadline;
+      this.progress = progress;
+      this.async = async;
+      scores = new int[board.getColumns()];
+    }
+    
+    /* Searches the next root move. Returns false once result is 
+     * complete. */
+    @Override
+    public boolean step() {
+      if (result.isDone()) {
+        return false; // Cancelled.
+      }
+      try {
+        scores[nextColumn] = search.scoreColumn(nextColumn, searched + 1);
+        if (++nextColumn < scores.length) {
+          return true;
+        }
+        nextColumn = 0;
+        ++searched;
+        best = bestColumn(scores);
+        if (best == -1) {
+          finish(-1); // Full board.
+          return false;
+        }
+        bestScore = scores[best];
+        if (progress != null) {
+          progress.progress(best, searched, bestScore);
+        }
+        if (searched >= depth 
+            || Math.abs(bestScore) >= WIN - search.cells - 1
+            || System.nanoTime() - deadline >= 0) {
+          finish(best);
+          return false;
+        }
+        return true;
+      } catch (Abandoned e) {
+        finish(best != -1 ? best : search.firstMove());
+      } catch (RuntimeException e) {
+        result.completeExceptionally(e);
+      }
+      return false;
+    }
+    
+    private void finish(int move) {
+      search.record(move, bestScore, searched, async);
+      result.complete(move);
+    }
+  }
+  
+  /**
+   * The state of one search: board and table.
+   * 
+   * @author Chenyang Tang
+   */
+  private class Search {
+    private final ScratchBoard board;
+    private final int winNum;
+    private final int[] order;
+    private final TranspositionTable table;
+    final int cells;
+    // Abandon the search once future is done or the deadline passes,
+    // unless future is null, or once it has searched nodeBudget nodes.
+    private final CompletableFuture<?> future;
+    private final long deadline;
+    private final long nodeBudget;
+    private long nodes = 0;
+    private int untilCheck = CHECK_INTERVAL;
+    private final int rootMoves;
+    private final FlightEvents.AiSearch event = new FlightEvents.AiSearch();
+    
+    Search(Board position, PlayerId player, int winNum, 
+           CompletableFuture<?> future, long deadline, long nodeBudget) {
+      board = ScratchBoard.copyOf(position, player);
+      this.winNum = winNum;
+      order = centreFirst(board.getColumns());
+      table = new TranspositionTable(TABLE_SIZE_LOG2);
+      cells = board.getColumns() * board.getRows();
+      this.future = future;
+      this.deadline = deadline;
+      this.nodeBudget = nodeBudget;
+      rootMoves = board.getMoveCount();
+      event.begin();
+    }
+    
+    /* Records the search for the flight recorder, if enabled. */
+    void record(int column, int score, int depth, boolean async) {
+      nodesSearched.addAndGet(nodes);
+      event.end();
+      if (event.shouldCommit()) {
+        event.ai = AlphaBetaAi.class.getSimpleName();
+        event.depth = depth;
+        event.nodes = nodes;
+        event.column = column;
+        event.score = score;
+        event.async = async;
+        event.commit();
+      }
+    }
+    
+    /* The playable column of the root closest to the centre. */
+    int firstMove() {
+      // An abandoned search leaves its moves on the board.
+      while (board.getMoveCount() > rootMoves) {
+        board.unplay();
+      }
+      for (int col : order) {
+        if (board.canPlay(col)) {
+          return col;
+        }
+      }
+      return -1;
+    }
+    
+    int[] scoreRoot(int depth) {
+      int[] scores = new int[board.getColumns()];
+      for (int col = 0; col < scores.length; ++col) {
+        scores[col] = scoreColumn(col, depth);
+      }
+      return scores;
+    }
+    
+    int scoreColumn(int col, int depth) {
+      int row = board.getTop(col);
+      if (row == -1) {
+        return NO_MOVE;
+      }
+      if (ConnectFourModel.checkWin(
+              board, col, row, board.getToMove(), winNum)) {
+        return WIN - 1;
+      }
+      board.play(col);
+      int score = -negamax(depth - 1, -WIN, WIN);
+      board.unplay();
+      return score;
+    }
+    
+    private int negamax(int depth, int alpha, int beta) {
+      if (++nodes > nodeBudget) {
+        throw ABANDONED;
+      }
+      if (future != null && --untilCheck == 0) {
+        untilCheck = CHECK_INTERVAL;
+        if (future.isDone() || System.nanoTime() - deadline >= 0) {
+          throw ABANDONED;
+        }
+      }
+      PlayerId player = board.getToMove();
+      boolean canMove = false;
+      // A win on the spot is always best.
+      for (int col : order) {
+        int row = board.getTop(col);
+        if (row != -1) {
+          canMove = true;
+          if (ConnectFourModel.checkWin(board, col, row, player, winNum)) {
+            return WIN - board.getMoveCount() - 1;
+          }
+        }
+      }
+      if (!canMove) {
+        return 0; // Draw.
+      }
+      if (depth == 0) {
+        return evaluator.evaluate(board, player, winNum);
+      }
+      
+      long key = board.getKey();
+      boolean mirrored = board.isMirrored();
+      int ttMove = -1;
+      long entry = table.probe(key);
+      if (entry != TranspositionTable.MISS) {
+        int stored = TranspositionTable.scoreOf(entry);
+        if (TranspositionTable.depthOf(entry) >= depth) {
+          int bound = TranspositionTable.boundOf(entry);
+          if (bound == TranspositionTable.EXACT
+              || (bound == TranspositionTable.LOWER && stored >= beta)
+              || (bound == TranspositionTable.UPPER && stored <= alpha)) {
+            return stored;
+          }
+        }
+        ttMove = TranspositionTable.moveOf(entry);
+        if (ttMove != -1 && mirrored) {
+          ttMove = board.getColumns() - 1 - ttMove;
+        }
+      }
+      
+      int originalAlpha = alpha;
+      int best = -WIN;
+      int bestMove = -1;
+      for (int i = -1; i < order.length; ++i) {
+        int col = i == -1 ? ttMove : order[i];
+        if (col == -1 || (i != -1 && col == ttMove) || !board.canPlay(col)) {
+          continue;
+        }
+        board.play(col);
+        int score = -negamax(depth - 1, -beta, -alpha);
+        board.unplay();
+        if (score > best) {
+          best = score;
+          bestMove = col;
+        }
+        if (best > alpha) {
+          alpha = best;
+        }
+        if (alpha >= beta) {
+          break;
+        }
+      }
+      
+      int bound = best <= originalAlpha ? TranspositionTable.UPPER
+                : best >= beta ? TranspositionTable.LOWER
+                : TranspositionTable.EXACT;
+      table.store(key, best, depth, bound, 
+                  mirrored ? board.getColumns() - 1 - bestMove : bestMove);
+      return best;
+    }
+  }
+}
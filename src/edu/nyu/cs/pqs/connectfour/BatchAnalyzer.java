@@ -0,0 +1,259 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.ColumnScorer;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+
+/**
+ * Offline analysis of a file of positions.
+ * 
+ * <p>Usage: <code>BatchAnalyzer input output [depth] [threads]</code></p>
+ * 
+ * <p>Each input line holds one position: the number of columns, rows and
+ * checkers in a row for winning, then the moves played from the empty
+ * board as comma-separated column numbers (from 0), player 1 first, 
+ * or "-" for the empty board. For example <code>7 6 4 3,3,4</code>. 
+ * Blank lines and lines starting with # are skipped.</p>
+ * 
+ * <p>For each position, one output line is written in input order: the 
+ * input line number, the best column, then the score of every column
+ * for the player to move ("x" for full columns), or the line number 
+ * followed by "error" and a message if the position is invalid.</p>
+ * 
+ * <p>Positions are evaluated with the trained PatternEvaluator weights of
+ * their geometry where SelfPlayTrainer has saved some, and with 
+ * WindowEvaluator otherwise.</p>
+ * 
+ * <p>Positions are scored by a pool of worker threads. At most a few 
+ * positions per worker are in flight at any time; the reader waits for 
+ * the oldest result to be written before reading further, so memory use
+ * does not depend on the size of the input. Throughput is reported on 
+ * standard error.</p>
+ * 
+ * @author Chenyang Tang
+ */
+public class BatchAnalyzer {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int DEFAULT_DEPTH = 6;
+  private static final int IN_FLIGHT_PER_WORKER = 4;
+  private static final long REPORT_INTERVAL_NANOS = 5000000000L;
+  
+  private final ColumnScorer scorer;
+  private final int threads;
+  
+  /**
+   * Construct an analyzer.
+   * 
+   * @param scorer Scorer of positions. Must be safe to share by threads.
+   * @param threads Number of worker threads. Must be positive.
+   * @throws IllegalArgumentException if scorer is null or threads is not 
+   *                                  positive.
+   */
+  BatchAnalyzer(ColumnScorer scorer, int threads) 
+                                          throws IllegalArgumentException {
+    if (scorer == null) {
+      throw new IllegalArgumentException("Scorer cannot be null.");
+    }
+    if (threads < 1) {
+      throw new IllegalArgumentException(
+                              "Number of threads must be positive integer.");
+    }
+    this.scorer = scorer;
+    this.threads = threads;
+  }
+  
+  /**
+   * Starting point.
+   * 
+   * @param args input file, output file, optional search depth and 
+   *             optional number of worker threads.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println(
+          "Usage: BatchAnalyzer input output [depth] [threads]");
+      System.exit(2);
+    }
+    int depth = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_DEPTH;
+    int threads = args.length > 3 ? Integer.parseInt(args[3]) 
+                  : Runtime.getRuntime().availableProcessors();
+    BufferedReader in = new BufferedReader(new InputStreamReader(
+        new FileInputStream(args[0]), UTF8));
+    Writer out = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(args[1]), UTF8));
+    try {
+      new BatchAnalyzer(new AlphaBetaAi(depth, PatternEvaluator.trained()),
+                        threads).analyze(in, out);
+    } finally {
+      in.close();
+      out.close();
+    }
+  }
+  
+  /**
+   * Analyze every position read from in and write the results to out.
+   * 
+   * @param in Reader of positions.
+   * @param out Writer of results.
+   * @return the number of positions analyzed.
+   * @throws IOException if reading or writing fails.
+   */
+  long analyze(BufferedReader in, Writer out) throws IOException {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    Deque<Future<String>> inFlight = new ArrayDeque<Future<String>>();
+    long count = 0;
+    long start = System.nanoTime();
+    long lastReport = start;
+    try {
+      String line;
+      int lineNumber = 0;
+      while ((line = in.readLine()) != null) {
+        ++lineNumber;
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        if (inFlight.size() >= threads * IN_FLIGHT_PER_WORKER) {
+          // Back-pressure: wait for the oldest result.
+          write(inFlight.removeFirst(), out);
+        }
+        inFlight.addLast(pool.submit(new Job(lineNumber, line)));
+        ++count;
+        long now = System.nanoTime();
+        if (now - lastReport > REPORT_INTERVAL_NANOS) {
+          report(count - inFlight.size(), now - start);
+          lastReport = now;
+        }
+      }
+      while (!inFlight.isEmpty()) {
+        write(inFlight.removeFirst(), out);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    out.flush();
+    report(count, System.nanoTime() - start);
+    return count;
+  }
+  
+  private static void write(Future<String> result, Writer out) 
+                                                        throws IOException {
+    try {
+      out.write(result.get());
+      out.write('\n');
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted.", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Analysis failed.", e.getCause());
+    }
+  }
+  
+  private static void report(long done, long nanos) {
+    double seconds = nanos / 1e9;
+    System.err.printf("%d positions in %.1f s (%.1f positions/s)%n", 
+                      done, seconds, seconds > 0 ? done / seconds : 0.0);
+  }
+  
+  /**
+   * Analysis of one input line.
+   * 
+   * @author Chenyang Tang
+   */
+  private class Job implements Callable<String> {
+    private final int lineNumber;
+    private final String line;
+    
+    Job(int lineNumber, String line) {
+      this.lineNumber = lineNumber;
+      this.line = line;
+    }
+    
+    @Override
+    public String call() {
+      StringBuilder result = new StringBuilder();
+      result.append(lineNumber);
+      String[] fields = line.split("\\s+");
+      try {
+        if (fields.length != 4) {
+          throw new IllegalArgumentException("Expected 4 fields.");
+        }
+        int columns = Integer.parseInt(fields[0]);
+        int rows = Integer.parseInt(fields[1]);
+        int winNum = Integer.parseInt(fields[2]);
+        if (columns < 1 || rows < 1 || winNum < 1) {
+          throw new IllegalArgumentException(
+                                "Board settings must be positive integers.");
+        }
+        ScratchBoard board = replay(columns, rows, winNum, fields[3]);
+        int[] scores = scorer.scoreColumns(board, board.getToMove(), winNum);
+        result.append(' ').append(AlphaBetaAi.bestColumn(scores));
+        for (int score : scores) {
+          result.append(' ');
+          if (score == ColumnScorer.NO_MOVE) {
+            result.append('x');
+          } else {
+            result.append(score);
+          }
+        }
+      } catch (IllegalArgumentException e) {
+        // Includes NumberFormatException.
+        result.setLength(0);
+        result.append(lineNumber).append(" error ").append(e.getMessage());
+      }
+      return result.toString();
+    }
+  }
+  
+  /**
+   * Replay a move list from the empty board.
+   * 
+   * @param columns Number of columns.
+   * @param rows Number of rows.
+   * @param winNum Number of checkers in a row for winning.
+   * @param moves Comma-separated columns, or "-" for no moves.
+   * @return the position reached, player 1 having moved first.
+   * @throws IllegalArgumentException if a move is invalid or is played
+   *                                  after the game is over.
+   */
+  static ScratchBoard replay(int columns, int rows, int winNum, String moves)
+                                          throws IllegalArgumentException {
+    ScratchBoard board = new ScratchBoard(columns, rows, PlayerId.PLAYER1);
+    if (moves.equals("-")) {
+      return board;
+    }
+    boolean over = false;
+    for (String move : moves.split(",")) {
+      int col = Integer.parseInt(move);
+      if (col < 0 || col >= columns || !board.canPlay(col)) {
+        throw new IllegalArgumentException("Illegal move " + move + ".");
+      }
+      if (over) {
+        throw new IllegalArgumentException("Moves after the game is over.");
+      }
+      over = ConnectFourModel.checkWin(
+          board, col, board.getTop(col), board.getToMove(), winNum);
+      board.play(col);
+    }
+    if (over) {
+      throw new IllegalArgumentException("The game is over.");
+    }
+    return board;
+  }
+}
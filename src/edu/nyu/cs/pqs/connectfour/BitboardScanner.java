@@ -0,0 +1,280 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.util.Arrays;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.Board;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+
+/**
+ * Bit-parallel win and threat scanning for wide boards.
+ * 
+ * <p>Each row of the board is kept as a bitmask per player, 64 columns to
+ * a long, so one bitwise operation looks at 64 cells at once. Lines are 
+ * found by shifting and ANDing whole rows: for each direction, the 
+ * candidate cells of a row followed by a run of m of the player's checkers
+ * are computed for m = 1, 2, ... until no candidate is left, and likewise
+ * in the opposite direction; a candidate completes a line when the runs 
+ * on its two sides add up to winNum - 1. All candidates of a row are 
+ * tested together in O(directions * winNum * columns / 64) word 
+ * operations, where checkWin() walks the lines of one cell at a time.</p>
+ * 
+ * <p>The gain grows with the width of the board: ScanBenchmark measures 
+ * it against checkWin(). On the standard 7-column board, where a row 
+ * fits in a few bits, checkWin() is as fast or faster.</p>
+ * 
+ * <p>The scanner is updated with set() as checkers are played, and keeps
+ * its work buffers between calls, so scanning does not allocate. It is not
+ * thread safe.</p>
+ * 
+ * @author Chenyang Tang
+ */
+final class BitboardScanner {
+  private static final int[][] DIRECTIONS = { {1, 0}, {0, 1}, {1, 1}, {1, -1} };
+  
+  private final int columns;
+  private final int rows;
+  private final int words;
+  // Mask of the valid columns in the last word of a row.
+  private final long lastWordMask;
+  private final long[][] player1;
+  private final long[][] player2;
+  // Work buffers for the row being scanned: the cells to consider, and 
+  // those of them with runs behind and ahead of them, by run length.
+  private final long[] candidates;
+  private long[][] behind;
+  private long[][] ahead;
+  private final long[][] result;
+  
+  /**
+   * Construct a scanner holding a copy of a board.
+   * 
+   * @param board The board to copy.
+   */
+  BitboardScanner(Board board) {
+    columns = board.getColumns();
+    rows = board.getRows();
+    words = (columns + 63) / 64;
+    lastWordMask = columns % 64 == 0 ? -1L : (1L << (columns % 64)) - 1;
+    player1 = new long[rows][words];
+    player2 = new long[rows][words];
+    result = new long[rows][words];
+    candidates = new long[words];
+    for (int col = 0; col < columns; ++col) {
+      for (int row = 0; row < rows; ++row) {
+        set(col, row, board.get(col, row));
+      }
+    }
+  }
+  
+  /**
+   * Set or delete a checker.
+   * 
+   * @param col The column.
+   * @param row The row.
+   * @param player Which player's checker to set. Null to delete a checker.
+   */
+  void set(int col, int row, PlayerId player) {
+    long bit = 1L << (col & 63);
+    player1[row][col >> 6] &= ~bit;
+    player2[row][col >> 6] &= ~bit;
+    if (player == PlayerId.PLAYER1) {
+      player1[row][col >> 6] |= bit;
+    } else if (player == PlayerId.PLAYER2) {
+      player2[row][col >> 6] |= bit;
+    }
+  }
+  
+  /**
+   * Find the empty cells where a checker of the player would connect
+   * winNum, whether or not they can be played yet.
+   * 
+   * @param player The player.
+   * @param winNum The number of consecutive checkers in a row for winning.
+   * @return per row, the bitmask of such cells (bit c of word c / 64). The
+   *         array is reused by the next call.
+   */
+  long[][] winningCells(PlayerId player, int winNum) {
+    ensureBuffers(winNum);
+    for (int row = 0; row < rows; ++row) {
+      for (int w = 0; w < words; ++w) {
+        candidates[w] = ~(player1[row][w] | player2[row][w]);
+      }
+      candidates[words - 1] &= lastWordMask;
+      scanRow(player, winNum, row, result[row]);
+    }
+    return result;
+  }
+  
+  /**
+   * Find a column where the player wins immediately.
+   * 
+   * @param player The player.
+   * @param winNum The number of consecutive checkers in a row for winning.
+   * @return the leftmost winning column, or -1 if there is none.
+   */
+  int findWinningMove(PlayerId player, int winNum) {
+    ensureBuffers(winNum);
+    int best = -1;
+    for (int row = 0; row < rows; ++row) {
+      if (!playable(row)) {
+        continue;
+      }
+      long[] cells = result[row];
+      scanRow(player, winNum, row, cells);
+      for (int w = 0; w < words; ++w) {
+        if (cells[w] != 0) {
+          int col = w * 64 + Long.numberOfTrailingZeros(cells[w]);
+          if (best == -1 || col < best) {
+            best = col;
+          }
+          break; // Later words only hold larger columns.
+        }
+      }
+    }
+    return best;
+  }
+  
+  /**
+   * Find the columns where the player wins immediately.
+   *
+   * @param player The player.
+   * @param winNum The number of consecutive checkers in a row for winning.
+   * @param found Filled with the first winning columns found, as many as
+   *              it holds, in no particular order.
+   * @return the number of winning columns, which may exceed found.length.
+   */
+  int findWinningMoves(PlayerId player, int winNum, int[] found) {
+    ensureBuffers(winNum);
+    int count = 0;
+    for (int row = 0; row < rows; ++row) {
+      if (!playable(row)) {
+        continue;
+      }
+      long[] cells = result[row];
+      scanRow(player, winNum, row, cells);
+      for (int w = 0; w < words; ++w) {
+        // A column has one playable cell, so no column is counted twice.
+        for (long bits = cells[w]; bits != 0; bits &= bits - 1) {
+          if (count < found.length) {
+            found[count] = w * 64 + Long.numberOfTrailingZeros(bits);
+          }
+          ++count;
+        }
+      }
+    }
+    return count;
+  }
+  
+  /**
+   * Check if the player has connected winNum anywhere on the board.
+   * 
+   * @param player The player.
+   * @param winNum The number of consecutive checkers in a row for winning.
+   * @return true if such a line exists.
+   */
+  boolean hasWin(PlayerId player, int winNum) {
+    long[][] own = player == PlayerId.PLAYER1 ? player1 : player2;
+    ensureBuffers(winNum);
+    for (int row = 0; row < rows; ++row) {
+      for (int[] dir : DIRECTIONS) {
+        // Checkers followed by winNum - 1 more in direction dir.
+        System.arraycopy(own[row], 0, candidates, 0, words);
+        if (runs(own, row, dir[0], dir[1], winNum - 1, ahead) 
+            == winNum - 1) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+  
+  /* Sets the candidates to the playable cells of a row: empty cells right
+   * above a checker or on the floor. Returns false if there are none. */
+  private boolean playable(int row) {
+    for (int w = 0; w < words; ++w) {
+      long support = row == 0 ? -1L
+                     : player1[row - 1][w] | player2[row - 1][w];
+      candidates[w] = support & ~(player1[row][w] | player2[row][w]);
+    }
+    candidates[words - 1] &= lastWordMask;
+    long any = 0L;
+    for (int w = 0; w < words; ++w) {
+      any |= candidates[w];
+    }
+    return any != 0;
+  }
+  
+  /* Sets out to the candidates of the row that would connect winNum. */
+  private void scanRow(PlayerId player, int winNum, int row, long[] out) {
+    long[][] own = player == PlayerId.PLAYER1 ? player1 : player2;
+    Arrays.fill(out, 0L);
+    for (int[] dir : DIRECTIONS) {
+      int back = runs(own, row, -dir[0], -dir[1], winNum - 1, behind);
+      int front = runs(own, row, dir[0], dir[1], winNum - 1, ahead);
+      // Split the other winNum - 1 cells of the line between both sides.
+      for (int b = Math.max(0, winNum - 1 - front); b <= back; ++b) {
+        long[] before = behind[b];
+        long[] after = ahead[winNum - 1 - b];
+        for (int w = 0; w < words; ++w) {
+          out[w] |= before[w] & after[w] & candidates[w];
+        }
+      }
+    }
+  }
+  
+  /* Fills out[m] with the candidates of the row followed by m of the 
+   * player's checkers in direction (dx, dy), for m = 0 .. length, and 
+   * returns the largest m for which some candidate qualifies, or -1 if 
+   * there are no candidates. */
+  private int runs(long[][] own, int row, int dx, int dy, int length, 
+                   long[][] out) {
+    long any = 0L;
+    for (int w = 0; w < words; ++w) {
+      out[0][w] = candidates[w];
+      any |= candidates[w];
+    }
+    if (any == 0) {
+      return -1;
+    }
+    for (int m = 1; m <= length; ++m) {
+      int source = row + m * dy;
+      if (source < 0 || source >= rows) {
+        return m - 1;
+      }
+      shift(own[source], m * dx, out[m]);
+      any = 0L;
+      for (int w = 0; w < words; ++w) {
+        out[m][w] &= out[m - 1][w];
+        any |= out[m][w];
+      }
+      if (any == 0) {
+        return m - 1;
+      }
+    }
+    return length;
+  }
+  
+  /* dst bit c = src bit (c + dx), zero where c + dx is off the board. */
+  private void shift(long[] src, int dx, long[] dst) {
+    int wordShift = Math.floorDiv(dx, 64);
+    int bitShift = Math.floorMod(dx, 64);
+    for (int w = 0; w < words; ++w) {
+      int s = w + wordShift;
+      long low = s >= 0 && s < words ? src[s] : 0L;
+      if (bitShift == 0) {
+        dst[w] = low;
+      } else {
+        long high = s + 1 >= 0 && s + 1 < words ? src[s + 1] : 0L;
+        dst[w] = (low >>> bitShift) | (high << (64 - bitShift));
+      }
+    }
+    dst[words - 1] &= lastWordMask;
+  }
+  
+  private void ensureBuffers(int winNum) {
+    if (behind == null || behind.length < winNum) {
+      behind = new long[winNum][words];
+      ahead = new long[winNum][words];
+    }
+  }
+}
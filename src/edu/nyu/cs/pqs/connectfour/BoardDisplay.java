@@ -4,9 +4,13 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
 import java.awt.GridLayout;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -20,32 +24,85 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
+import javax.swing.JToggleButton;
+import javax.swing.Timer;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.ColumnScorer;
 import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
 
 /**
  * A simple GUI of the Connect-Four game.
  * 
+ * <p>Registers itself with the model through a SwingListenerAdapter, so 
+ * all listener methods run on the event dispatch thread, and moves are
+ * paced to be shown at least MOVE_PACE_MILLIS apart.</p>
+ * 
+ * <p>In hint mode, a HintAnalyzer scores every column while a human is 
+ * to move, and the column buttons are coloured from red (worst) to green
+ * (best), refreshed at most every HINT_REFRESH_MILLIS. The analysis is 
+ * stopped as soon as the board is locked, i.e. on any move or reset.</p>
+ * 
+ * <p>A display can also be built without a window, to render its view
+ * offscreen (see getView()); this works in headless mode, and is how
+ * RenderBenchmark measures the view.</p>
+ * 
  * @author Chenyang Tang
  * @see edu.nyu.cs.pqs.connectfour.ConnectFourModel
  */
 public class BoardDisplay implements ConnectFourListener {
+  // Natural size of the checker images.
+  private static final int MAX_CELL_SIZE = 80;
+  private static final int MIN_CELL_SIZE = 16;
+  private static final int TEXT_WIDTH = 220;
+  // Least time between two moves on screen, so that a quick computer 
+  // reply can be followed by eye.
+  private static final int MOVE_PACE_MILLIS = 300;
+  private static final int HINT_REFRESH_MILLIS = 250;
   private final ConnectFourModel model;
   private final List<List<JLabel> > board;
   private final ImageIcon checker1;
   private final ImageIcon checker2;
+  private final ImageIcon blank;
+  // Null for a display without a window.
   private final JFrame frame;
   private final JPanel panel;
   private final JPanel leftPanel;
   private final JTextArea textArea;
   private final List<JButton> buttons;
-  private boolean isLocked;
+  private final JButton undoButton;
+  private final JButton redoButton;
+  private final JToggleButton hintButton;
+  private final HintAnalyzer hints;
+  private final Timer hintTimer;
+  // Hints last shown, null if none.
+  private HintAnalyzer.Hints shownHints;
+  private Color buttonBackground;
+  private final SwingListenerAdapter events;
   
   public BoardDisplay(ConnectFourModel model) {
+    this(model, cellSize(model.COLUMNS, model.ROWS, 
+                         GraphicsEnvironment.getLocalGraphicsEnvironment()
+                                            .getMaximumWindowBounds()), 
+         true);
+  }
+  
+  /**
+   * Construct a display, in a window or not.
+   * 
+   * @param model The game to display.
+   * @param cellSize Width and height of the checkers in pixels.
+   * @param windowed false to build the view only, e.g. in headless mode;
+   *                 it is then never shown, and the end of a game is not
+   *                 announced.
+   */
+  BoardDisplay(ConnectFourModel model, int cellSize, boolean windowed) {
     this.model = model;
-    model.addListener(this);
-    isLocked = true;
-    checker1 = createImageIcon("/checkers/b.png", "black checker");
-    checker2 = createImageIcon("/checkers/w.png", "white checker");
+    events = new SwingListenerAdapter(this, MOVE_PACE_MILLIS);
+    model.addListener(events);
+    checker1 = IconCache.get("/checkers/b.png", "black checker", cellSize);
+    checker2 = IconCache.get("/checkers/w.png", "white checker", cellSize);
+    // Empty slots show a transparent icon of the same size, so that 
+    // changing icons never changes the layout.
+    blank = IconCache.blank(cellSize);
     board = new ArrayList<List<JLabel> >(
                          Collections.<List<JLabel> >nCopies(model.COLUMNS, null));
     for (int col = 0; col < model.COLUMNS; ++col) {
@@ -56,20 +113,45 @@ public class BoardDisplay implements ConnectFourListener {
       }
     }
     buttons = new ArrayList<JButton>(Collections.<JButton>nCopies(model.COLUMNS, null));
-    frame = new JFrame();
+    frame = windowed ? new JFrame() : null;
     panel = new JPanel();
-    leftPanel = new JPanel();
+    leftPanel = new JPanel() {
+      private static final long serialVersionUID = 1L;
+      
+      @Override
+      public void paint(Graphics graphics) {
+        FlightEvents.Repaint event = new FlightEvents.Repaint();
+        event.begin();
+        super.paint(graphics);
+        event.end();
+        if (event.shouldCommit()) {
+          event.width = getWidth();
+          event.height = getHeight();
+          event.commit();
+        }
+      }
+    };
     textArea = new JTextArea();
+    undoButton = new JButton("Undo");
+    redoButton = new JButton("Redo");
+    hintButton = new JToggleButton("Hints");
+    hints = new HintAnalyzer();
+    hintTimer = new Timer(HINT_REFRESH_MILLIS, new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent event) {
+        showHints(hints.getHints());
+      }
+    });
     initialize();
   }
-
+  
   private void initialize() {
     panel.setLayout(new BorderLayout());
     leftPanel.setBorder(BorderFactory.createLineBorder(Color.BLACK, 5));
     leftPanel.setLayout(new GridLayout(model.ROWS + 1, model.COLUMNS));
     leftPanel.setBackground(Color.GRAY);
-    textArea.setPreferredSize(
-        new Dimension(220, (checker1.getIconHeight() + 5) * (model.ROWS + 1)));
+    textArea.setPreferredSize(new Dimension(
+        TEXT_WIDTH, (checker1.getIconHeight() + 5) * (model.ROWS + 1)));
     textArea.setLineWrap(true);
     textArea.setEditable(false);
     textArea.setBackground(Color.LIGHT_GRAY);
@@ -77,7 +159,7 @@ public class BoardDisplay implements ConnectFourListener {
     for (int row = model.ROWS - 1; row >= 0; --row) {
       for (int col = 0; col < model.COLUMNS; ++col) {
         getLabel(col, row).setHorizontalAlignment(JLabel.CENTER);
-        getLabel(col, row).setVisible(false);
+        getLabel(col, row).setIcon(blank);
         leftPanel.add(getLabel(col, row));
       }
     }
@@ -87,41 +169,187 @@ public class BoardDisplay implements ConnectFourListener {
       buttons.get(i).setFont(new Font("cambria", Font.BOLD, 40));
       buttons.get(i).setFocusable(false);
       buttons.get(i).setToolTipText("Put checker in column " + (i + 1));
+      // Enabled once the model unlocks the board.
+      buttons.get(i).setEnabled(false);
       leftPanel.add(buttons.get(i));
       final int col = i;
       buttons.get(i).addActionListener(new ActionListener() {
         @Override
         public void actionPerformed(ActionEvent event) {
-          if (isLocked == false) {
+          if (!events.isLocked()) {
+            // Free the processor for the reply at once.
+            hints.stop();
             model.clicked(col);
           }
         }
       });
     }
     
+    undoButton.setFocusable(false);
+    undoButton.setToolTipText("Take back the last move");
+    undoButton.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent event) {
+        hints.stop();
+        model.undo();
+      }
+    });
+    redoButton.setFocusable(false);
+    redoButton.setToolTipText("Play again the move taken back");
+    redoButton.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent event) {
+        hints.stop();
+        model.redo();
+      }
+    });
+    hintButton.setFocusable(false);
+    hintButton.setToolTipText("Colour the columns by their analysis");
+    hintButton.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent event) {
+        if (hintButton.isSelected() && !events.isLocked()) {
+          startHints();
+        } else {
+          stopHints();
+        }
+      }
+    });
+    JPanel history = new JPanel(new GridLayout(1, 3));
+    history.add(undoButton);
+    history.add(redoButton);
+    history.add(hintButton);
+    JPanel rightPanel = new JPanel(new BorderLayout());
+    rightPanel.add(new JScrollPane(textArea), BorderLayout.CENTER);
+    rightPanel.add(history, BorderLayout.SOUTH);
+    
     panel.add(leftPanel, BorderLayout.CENTER);
-    panel.add(new JScrollPane(textArea), BorderLayout.EAST);
+    panel.add(rightPanel, BorderLayout.EAST);
+    if (frame == null) {
+      panel.setSize(panel.getPreferredSize());
+      return;
+    }
     frame.getContentPane().add(panel);
     frame.setLocationByPlatform(true);
-    frame.setSize((checker1.getIconWidth() + 5) * model.COLUMNS + 220, 
+    frame.setSize((checker1.getIconWidth() + 5) * model.COLUMNS + TEXT_WIDTH, 
                   (checker1.getIconHeight() + 5) * (model.ROWS + 1));
     frame.setResizable(false);
     frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+    // The computer players of the active window think first.
+    frame.addWindowListener(new WindowAdapter() {
+      @Override
+      public void windowActivated(WindowEvent event) {
+        AiScheduler.getInstance().setForeground(model);
+      }
+      
+      @Override
+      public void windowDeactivated(WindowEvent event) {
+        AiScheduler.getInstance().clearForeground(model);
+      }
+    });
     frame.setVisible(true);
   }
-
+  
   @Override
   public void lockBoard() {
-    isLocked = true;
+    // Clicks are filtered by events.isLocked(); just show the state.
+    setButtonsEnabled(false);
+    stopHints();
   }
-
+  
   @Override
   public void unlockBoard() {
-    isLocked = false;
+    setButtonsEnabled(true);
+    if (hintButton.isSelected()) {
+      startHints();
+    }
   }
-
+  
+  /* Starts analysing the position of the human to move. */
+  private void startHints() {
+    hints.analyze(model.getPosition(), model.getCurrentPlayer(), 
+                  model.getWinNum());
+    hintTimer.start();
+  }
+  
+  private void stopHints() {
+    hints.stop();
+    hintTimer.stop();
+    showHints(null);
+  }
+  
+  /* Colours the column buttons by their scores, red for the worst and 
+   * green for the best; forced wins and losses are pure green and red. */
+  private void showHints(HintAnalyzer.Hints shown) {
+    if (shown == shownHints) {
+      return;
+    }
+    shownHints = shown;
+    if (buttonBackground == null) {
+      buttonBackground = buttons.get(0).getBackground();
+    }
+    int low = Integer.MAX_VALUE;
+    int high = Integer.MIN_VALUE;
+    if (shown != null) {
+      for (int score : shown.scores) {
+        if (score != ColumnScorer.NO_MOVE) {
+          low = Math.min(low, Math.max(score, -shown.decisive));
+          high = Math.max(high, Math.min(score, shown.decisive));
+        }
+      }
+    }
+    for (int col = 0; col < model.COLUMNS; ++col) {
+      JButton button = buttons.get(col);
+      if (shown == null || shown.scores[col] == ColumnScorer.NO_MOVE) {
+        button.setBackground(buttonBackground);
+        button.setToolTipText("Put checker in column " + (col + 1));
+        continue;
+      }
+      int score = shown.scores[col];
+      float goodness = score >= shown.decisive ? 1f
+                       : score <= -shown.decisive ? 0f
+                       : high == low ? 0.5f
+                       : (float) (score - low) / (high - low);
+      button.setBackground(new Color(1f - goodness, goodness, 0f));
+      button.setToolTipText("Put checker in column " + (col + 1)
+          + (score >= shown.decisive ? " (wins)" 
+             : score <= -shown.decisive ? " (loses)" : "")
+          + ", searched " + shown.depth + " moves ahead");
+    }
+  }
+  
+  private void setButtonsEnabled(boolean enabled) {
+    for (JButton button : buttons) {
+      button.setEnabled(enabled);
+    }
+  }
+  
+  /**
+   * Get the view of the board, for rendering it offscreen.
+   * 
+   * @return the component holding the whole display.
+   */
+  JPanel getView() {
+    return panel;
+  }
+  
+  /**
+   * Stop the display's hint analysis and close its window, if any.
+   */
+  void dispose() {
+    hintTimer.stop();
+    hints.shutdown();
+    DropAnimator.getInstance().cancel(this);
+    if (frame != null) {
+      frame.dispose();
+    }
+  }
+  
   @Override
   public void gameDraw() {
+    if (frame == null) {
+      return;
+    }
     int option = JOptionPane.showConfirmDialog(
             frame.getContentPane(),
             "Draw game! Do you want to play again?\n"
@@ -137,9 +365,12 @@ public class BoardDisplay implements ConnectFourListener {
       frame.dispatchEvent(new WindowEvent(frame, WindowEvent.WINDOW_CLOSING));
     }
   }
-
+  
   @Override
   public void gameWon(PlayerId player) {
+    if (frame == null) {
+      return;
+    }
     int option = JOptionPane.showConfirmDialog(
             frame.getContentPane(),
             player.toString() + " win! Do you want to play again?\n"
@@ -155,7 +386,7 @@ public class BoardDisplay implements ConnectFourListener {
       frame.dispatchEvent(new WindowEvent(frame, WindowEvent.WINDOW_CLOSING));
     }
   }
-
+  
   @Override
   public void boardUpdate(int col, int row, PlayerId player) {
     putNewChecker(col, row, player);
@@ -163,52 +394,69 @@ public class BoardDisplay implements ConnectFourListener {
         "  Player " + player.toString() 
         + "     at     row " + row + " , column " + col + "\n");
   }
-
+  
+  @Override
+  public void checkerRemoved(int col, int row) {
+    // Land a checker still dropping there before taking it away.
+    DropAnimator.getInstance().finish(this);
+    getLabel(col, row).setIcon(blank);
+    textArea.append(
+        "  Taken back       row " + row + " , column " + col + "\n");
+  }
+  
   @Override
   public void gameReset() {
+    stopHints();
+    DropAnimator.getInstance().cancel(this);
     for (int row = model.ROWS - 1; row >= 0; --row) {
       for (int col = 0; col < model.COLUMNS; ++col) {
-        getLabel(col, row).setIcon(null);
-        getLabel(col, row).setVisible(false);
+        getLabel(col, row).setIcon(blank);
       }
     }
     textArea.setText("");
   }
   
-  private JLabel getLabel(int col, int row) {
+  /**
+   * Get the label showing a slot of the board.
+   * 
+   * @param col The column.
+   * @param row The row.
+   * @return the label.
+   */
+  JLabel getLabel(int col, int row) {
     return board.get(col).get(row);
   }
   
   private void putNewChecker(int col, int row, PlayerId player) {
     switch (player) {
       case PLAYER1:
-        getLabel(col, row).setIcon(checker1);
+        appearAnimation(checker1, col, row);
         break;
       case PLAYER2:
-        getLabel(col, row).setIcon(checker2);
+        appearAnimation(checker2, col, row);
         break;
       default:
         throw new IllegalArgumentException("invalid player.");
     }
-    appearAnimation(getLabel(col, row), col, row);
   }
   
-  private void appearAnimation(JLabel label, int col, int row) {
-    // Implement more complex animation here.
-    // For now the checker just simply appears.
-    label.setVisible(true);
+  private void appearAnimation(ImageIcon checker, int col, int row) {
+    // The checker drops from the top of the column.
+    DropAnimator.getInstance().drop(this, board.get(col), row, checker, blank);
   }
   
-  /* Copied from Oracle Java tutorial.
-   * https://docs.oracle.com/javase/tutorial/uiswing/components/icon.html
+  /**
+   * Get the size of the checkers: their natural size, shrunk if needed so
+   * that large boards still fit on the screen.
+   * 
+   * @param columns Number of columns.
+   * @param rows Number of rows.
+   * @param screen The usable area of the screen.
+   * @return the width and height of a checker in pixels.
    */
-  protected ImageIcon createImageIcon(String path, String description) {
-      java.net.URL imgURL = getClass().getResource(path);
-      if (imgURL != null) {
-        return new ImageIcon(imgURL, description);
-      } else {
-        System.err.println("Couldn't find file: " + path);
-        return null;
-      }
+  static int cellSize(int columns, int rows, Rectangle screen) {
+    int size = Math.min((screen.width - TEXT_WIDTH) / columns, 
+                        screen.height / (rows + 1)) - 5;
+    return Math.max(MIN_CELL_SIZE, Math.min(MAX_CELL_SIZE, size));
   }
 }
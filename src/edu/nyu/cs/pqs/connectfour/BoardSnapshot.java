@@ -0,0 +1,107 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.Board;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+
+/**
+ * An immutable copy of a game board.
+ * 
+ * <p>Obtained from BoardState.snapshot(). The slots are kept in a compact
+ * primitive array, so taking a snapshot costs one array copy, and since 
+ * the snapshot never changes afterwards it can be read from any number 
+ * of threads without locking while the game goes on.</p>
+ * 
+ * <p>Searches that need to play moves should call scratch() to get their
+ * own mutable ScratchBoard.</p>
+ * 
+ * @author Chenyang Tang
+ * @see edu.nyu.cs.pqs.connectfour.ScratchBoard
+ */
+final class BoardSnapshot implements Board {
+  private static final PlayerId[] PLAYERS = 
+      { null, PlayerId.PLAYER1, PlayerId.PLAYER2 };
+  
+  private final int columns;
+  private final int rows;
+  // Slot states indexed by (col * rows + row), see encode().
+  private final byte[] cells;
+  private final int[] heights;
+  private final long hash;
+  private final long mirrorHash;
+  
+  /* The arrays are owned by the snapshot from now on. */
+  BoardSnapshot(int columns, int rows, byte[] cells, int[] heights, 
+                long hash, long mirrorHash) {
+    this.columns = columns;
+    this.rows = rows;
+    this.cells = cells;
+    this.heights = heights;
+    this.hash = hash;
+    this.mirrorHash = mirrorHash;
+  }
+  
+  /**
+   * Get a mutable copy of the board for searching.
+   * 
+   * @param toMove The player to move in the copy.
+   * @return a new ScratchBoard with the same checkers.
+   */
+  ScratchBoard scratch(PlayerId toMove) {
+    return new ScratchBoard(columns, rows, cells, heights, 
+                            hash, mirrorHash, toMove);
+  }
+  
+  @Override
+  public PlayerId get(int col, int row) {
+    return decode(cells[col * rows + row]);
+  }
+  
+  @Override
+  public byte cell(int cell) {
+    return cells[cell];
+  }
+  
+  @Override
+  public int getTop(int col) {
+    return heights[col] == rows ? -1 : heights[col];
+  }
+  
+  @Override
+  public int getRows() {
+    return rows;
+  }
+  
+  @Override
+  public int getColumns() {
+    return columns;
+  }
+  
+  /**
+   * Get the canonical key of the position, shared with its mirror image.
+   * 
+   * @return the canonical Zobrist key of the board.
+   */
+  long getKey() {
+    return PositionKeys.canonical(hash, mirrorHash);
+  }
+  
+  /**
+   * Encode the state of a slot.
+   * 
+   * @param player The owner of the checker, or null for an empty slot.
+   * @return 0 for empty, 1 for PLAYER1 and 2 for PLAYER2.
+   */
+  static byte encode(PlayerId player) {
+    return player == null ? 0 : (byte) (player.ordinal() + 1);
+  }
+  
+  /**
+   * Decode the state of a slot.
+   * 
+   * @param cell The encoded state.
+   * @return the owner of the checker, or null for an empty slot.
+   */
+  static PlayerId decode(byte cell) {
+    return PLAYERS[cell];
+  }
+}
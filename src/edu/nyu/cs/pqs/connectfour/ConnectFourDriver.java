@@ -1,10 +1,29 @@
 package edu.nyu.cs.pqs.connectfour;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
 /**
  * Starting class of the Connect-Four game.
  * 
- * <p>Brings up a menu to set game parameters. See related classes for details.
- * </p>
+ * <p>Without arguments, brings up a menu to set game parameters. 
+ * See related classes for details.</p>
+ * 
+ * <p>With a command name as first argument, runs the command-line tool of
+ * that name with the remaining arguments instead:<br>
+ * <code>batch</code> - BatchAnalyzer<br>
+ * <code>perft</code> - Perft<br>
+ * <code>train</code> - SelfPlayTrainer<br>
+ * <code>solve</code> - PerfectSolver<br>
+ * <code>book</code> - OpeningBook, the generator<br>
+ * <code>stats</code> - StatsDatabase<br>
+ * <code>suite</code> - SuiteRunner<br>
+ * Tools never touch AWT or Swing, so they start fast and work on 
+ * machines without a display.</p>
+ * 
+ * <p>Option <code>--timing</code> (before any command) prints the time 
+ * from JVM start until the menu is shown or the tool starts running.</p>
  * 
  * @author Chenyang Tang
  * @see edu.nyu.cs.pqs.connectfour.ConnectFourModel
@@ -14,10 +33,64 @@ public class ConnectFourDriver {
   /**
    * Starting point.
    * 
-   * @param args Not useful.
+   * @param args Optional --timing, then optional command and its arguments.
+   * @throws IOException if a tool fails to read or write its files.
+   * @throws InterruptedException if a tool is interrupted while waiting
+   *                              for its worker threads.
    */
-  public static void main(String[] args) {
-    Menu.getInstance();
+  public static void main(String[] args)
+                                  throws IOException, InterruptedException {
+    boolean timing = args.length > 0 && args[0].equals("--timing");
+    if (timing) {
+      args = Arrays.copyOfRange(args, 1, args.length);
+    }
+    if (args.length == 0) {
+      if (Boolean.getBoolean("java.awt.headless")) {
+        System.err.println("No display: give a command (batch, perft, "
+                           + "train, solve, book, stats or suite).");
+        System.exit(2);
+      }
+      GuiLauncher.launch(timing);
+      return;
+    }
+    String[] toolArgs = Arrays.copyOfRange(args, 1, args.length);
+    if (args[0].equals("batch")) {
+      printStartup(timing, "batch");
+      BatchAnalyzer.main(toolArgs);
+    } else if (args[0].equals("perft")) {
+      printStartup(timing, "perft");
+      Perft.main(toolArgs);
+    } else if (args[0].equals("train")) {
+      printStartup(timing, "train");
+      SelfPlayTrainer.main(toolArgs);
+    } else if (args[0].equals("solve")) {
+      printStartup(timing, "solve");
+      PerfectSolver.main(toolArgs);
+    } else if (args[0].equals("book")) {
+      printStartup(timing, "book");
+      OpeningBook.main(toolArgs);
+    } else if (args[0].equals("stats")) {
+      printStartup(timing, "stats");
+      StatsDatabase.main(toolArgs);
+    } else if (args[0].equals("suite")) {
+      printStartup(timing, "suite");
+      SuiteRunner.main(toolArgs);
+    } else {
+      System.err.println("Unknown command: " + args[0]);
+      System.exit(2);
+    }
+  }
+  
+  /**
+   * Print the time elapsed since the JVM started, if asked to.
+   * 
+   * @param timing Whether to print.
+   * @param what What has just started.
+   */
+  static void printStartup(boolean timing, String what) {
+    if (timing) {
+      System.err.println("Startup (" + what + "): " 
+          + ManagementFactory.getRuntimeMXBean().getUptime() + " ms");
+    }
   }
-
 }
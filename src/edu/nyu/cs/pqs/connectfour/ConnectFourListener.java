@@ -18,6 +18,14 @@ interface ConnectFourListener {
    */
   void boardUpdate(int col, int row, PlayerId player);
   
+  /**
+   * Clear the board at position (col, row), when a move is taken back.
+   * 
+   * @param col The column position to clear.
+   * @param row The row position to clear.
+   */
+  void checkerRemoved(int col, int row);
+  
   /**
    * Lock the board so that it no longer responds to clicks.
    * 
@@ -1,8 +1,15 @@
 package edu.nyu.cs.pqs.connectfour;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * The model of the Connect-Four game.
@@ -17,6 +24,12 @@ import java.util.List;
  * @see edu.nyu.cs.pqs.connectfour.ConnectFourModel.Builder
  */
 class ConnectFourModel {
+  // Longest a computer player may think about a move, however large its
+  // node budget: a safety net for very slow machines and huge boards.
+  private static final long MOVE_TIME_LIMIT_NANOS = 
+      TimeUnit.SECONDS.toNanos(10);
+  // An AI still silent this long after its deadline has abandoned the move.
+  private static final long ABANDONED_NANOS = TimeUnit.SECONDS.toNanos(5);
   final int COLUMNS;
   final int ROWS;
   private final int WINNUM;
@@ -26,7 +39,20 @@ class ConnectFourModel {
   private Player player2;
   private PlayerId currentPlayer;
   private final List<ConnectFourListener> listeners;
-
+  private final boolean pondering;
+  private final Difficulty difficulty;
+  // Longest a computer player may think; unlimited in a seeded game.
+  private final long moveTimeLimit;
+  // Splits off the random stream of each game.
+  private final SplittableRandom seeds;
+  private SplittableRandom random;
+  private int lastMove = -1;
+  // Incremented on every move and reset, so that a computer move computed
+  // for an earlier position is recognised as stale.
+  private long turn = 0;
+  // Set when a move wins or draws, cleared when it is taken back.
+  private boolean gameOver = false;
+  
   /**
    * Builder Class for ConnectFourModel. 
    * 
@@ -35,14 +61,20 @@ class ConnectFourModel {
    * PlayerType.COMPUTER for computer AI. Number of columns, number of rows,
    * the player to play first, and number of checkers in a row for winning
    * can be set optionally, using setColumns(), setRows(), setFirstPlayer()
-   * and setWinNum(). After setting all values, use build() to build and 
+   * and setWinNum(). Computer players can be made to think on the human
+   * opponent's time with setPondering(), and their strength is set with
+   * setDifficulty(). A seed set with setSeed() makes the game 
+   * reproducible. After setting all values, use build() to build and 
    * return the ConnectFourModel object. </p>
    *  
    * <p>The default settings are:<br>
    * Number of columns: 7<br>
    * Number of rows: 6<br>
    * Number of checkers in a row for winning: 4<br>
-   * Player1 first.</p>
+   * Player1 first.<br>
+   * No pondering.<br>
+   * Difficulty MEDIUM.<br>
+   * Not seeded.</p>
    * 
    * @author Chenyang Tang
    */
@@ -52,6 +84,9 @@ class ConnectFourModel {
     private int rows = 6;
     private int winNum = 4;
     private PlayerId firstPlayer = PlayerId.PLAYER1;
+    private boolean pondering = false;
+    private Difficulty difficulty = Difficulty.MEDIUM;
+    private Long seed = null;
     
     private PlayerType player1;
     private PlayerType player2;
@@ -136,6 +171,55 @@ class ConnectFourModel {
       return this;
     }
     
+    /**
+     * Set whether computer players ponder.
+     * 
+     * <p>A pondering computer player precomputes its replies to the likely 
+     * moves of a human opponent while the human is thinking, and answers
+     * at once if the human plays one of them.</p>
+     * 
+     * @param pondering true to enable pondering.
+     * @return the builder object after modification.
+     */
+    public Builder setPondering(boolean pondering) {
+      this.pondering = pondering;
+      return this;
+    }
+    
+    /**
+     * Set the strength of computer players.
+     * 
+     * @param difficulty The difficulty level.
+     * @return the builder object after modification.
+     * @throws IllegalArgumentException if argument is null.
+     */
+    public Builder setDifficulty(Difficulty difficulty) 
+                                        throws IllegalArgumentException {
+      if (difficulty == null) {
+        throw new IllegalArgumentException("Invalid difficulty.");
+      }
+      this.difficulty = difficulty;
+      return this;
+    }
+    
+    /**
+     * Seed the game, making it reproducible.
+     * 
+     * <p>The random stream of each game (see getRandom()) is then split
+     * from the seed in the order the games are played, and computer 
+     * players search as many positions as their difficulty allows with no
+     * time limit, so their moves do not depend on the speed or load of the
+     * machine. The same seed and the same moves from humans replay the 
+     * same games.</p>
+     * 
+     * @param seed The seed.
+     * @return the builder object after modification.
+     */
+    public Builder setSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+    
     /**
      * Build a new ConnectFourModel from the builder.
      * 
@@ -152,6 +236,16 @@ class ConnectFourModel {
     WINNUM = builder.winNum;
     firstPlayer = builder.firstPlayer;
     currentPlayer = firstPlayer;
+    pondering = builder.pondering;
+    difficulty = builder.difficulty;
+    if (builder.seed == null) {
+      moveTimeLimit = MOVE_TIME_LIMIT_NANOS;
+      seeds = new SplittableRandom();
+    } else {
+      moveTimeLimit = AlphaBetaAi.NO_DEADLINE;
+      seeds = new SplittableRandom(builder.seed);
+    }
+    random = seeds.split();
     board = new BoardState();
     listeners = new ArrayList<ConnectFourListener>();
     switch (builder.player1) {
@@ -205,28 +299,238 @@ class ConnectFourModel {
       // Wait for another click.
       fireUnlockBoard();
     } else {
-      board.set(col, pos, currentPlayer);
+      FlightEvents.Move event = new FlightEvents.Move();
+      event.begin();
+      board.play(col, currentPlayer);
+      lastMove = col;
+      ++turn;
       fireBoardUpdate(col, pos, currentPlayer);
-      if (!checkGameEnd(col, pos, currentPlayer)) {
+      long checkStart = System.nanoTime();
+      GameEnd end = checkGameEnd(col, pos, currentPlayer);
+      boolean gameEnded = end != GameEnd.NONE;
+      event.end();
+      if (event.shouldCommit()) {
+        event.column = col;
+        event.row = pos;
+        event.player = currentPlayer.toString();
+        event.result = end == GameEnd.WIN ? "win" 
+                       : end == GameEnd.DRAW ? "draw" : "";
+        event.checkTime = System.nanoTime() - checkStart;
+        event.commit();
+      }
+      gameOver = gameEnded;
+      if (!gameEnded) {
         currentPlayer = currentPlayer.otherPlayer(); // Change player.
-        switch (currentPlayer) {
-          case PLAYER1:
-            player1.act();
-            break;
-          case PLAYER2:
-            player2.act();
-            break;
-          default:
-            throw new NullPointerException("currentPlayer null.");
-        }
+        playerOf(currentPlayer).act();
+      }
+    }
+  }
+  
+  /**
+   * Takes back the last move.
+   * 
+   * <p>In a game against the computer, the computer's reply is taken 
+   * back too, so that it is a human's turn again. Listeners are told of 
+   * each checker removed with checkerRemoved(). Moves taken back can be
+   * played again with redo() until a different move is played.</p>
+   * 
+   * @return false if there was no move to take back.
+   */
+  public synchronized boolean undo() {
+    if (board.getMoveCount() == 0) {
+      return false;
+    }
+    fireLockBoard();
+    stopPondering(player1);
+    stopPondering(player2);
+    do {
+      // The player of the move taken back is to move again.
+      if (!gameOver) {
+        currentPlayer = currentPlayer.otherPlayer();
+      }
+      gameOver = false;
+      int col = board.unplay();
+      fireCheckerRemoved(col, board.getTop(col));
+    } while (board.getMoveCount() > 0 && waitsForHuman());
+    lastMove = board.getLastColumn();
+    // Any computer move being computed is now stale.
+    ++turn;
+    playerOf(currentPlayer).act();
+    return true;
+  }
+  
+  /**
+   * Plays again the last move taken back with undo().
+   * 
+   * <p>In a game against the computer, the computer's reply that was 
+   * taken back with it is played again too.</p>
+   * 
+   * @return false if there was no move to play again.
+   */
+  public synchronized boolean redo() {
+    if (board.getRedoColumn() == -1) {
+      return false;
+    }
+    stopPondering(player1);
+    stopPondering(player2);
+    do {
+      // Plays it like a click, which keeps the rest of the redo moves.
+      clicked(board.getRedoColumn());
+    } while (!gameOver && board.getRedoColumn() != -1 && waitsForHuman());
+    return true;
+  }
+  
+  /* True if the player to move is a computer and a human is playing. */
+  private boolean waitsForHuman() {
+    return playerOf(currentPlayer) instanceof ComputerPlayer
+           && (player1 instanceof HumanPlayer 
+               || player2 instanceof HumanPlayer);
+  }
+  
+  private Player playerOf(PlayerId id) {
+    switch (id) {
+      case PLAYER1:
+        return player1;
+      case PLAYER2:
+        return player2;
+      default:
+        throw new NullPointerException("currentPlayer null.");
+    }
+  }
+  
+  /**
+   * Get a copy of the board, e.g. to analyse it on another thread.
+   * 
+   * @return an immutable snapshot of the current position.
+   */
+  synchronized BoardSnapshot getPosition() {
+    return board.snapshot();
+  }
+  
+  /**
+   * Get the player to move, or the winner once the game is won.
+   * 
+   * @return the current player.
+   */
+  synchronized PlayerId getCurrentPlayer() {
+    return currentPlayer;
+  }
+  
+  /**
+   * Get the random stream of the current game.
+   * 
+   * <p>For whatever drives the game with random choices, e.g. random
+   * openings or SimpleAi players. Each reset() starts a new stream, split
+   * from the seed of a seeded game. The stream is not thread safe: it 
+   * belongs to the thread playing the game.</p>
+   * 
+   * @return the random stream.
+   */
+  synchronized SplittableRandom getRandom() {
+    return random;
+  }
+  
+  /**
+   * Get the winning rule.
+   * 
+   * @return the number of consecutive checkers in a row for winning.
+   */
+  int getWinNum() {
+    return WINNUM;
+  }
+  
+  /**
+   * Get the player who moves first in each game.
+   * 
+   * @return the first player.
+   */
+  PlayerId getFirstPlayer() {
+    return firstPlayer;
+  }
+  
+  /**
+   * Get the type of a player.
+   * 
+   * @param player The player.
+   * @return HUMAN or COMPUTER.
+   */
+  PlayerType getPlayerType(PlayerId player) {
+    return playerOf(player) instanceof ComputerPlayer 
+           ? PlayerType.COMPUTER : PlayerType.HUMAN;
+  }
+  
+  /**
+   * Get the strength of computer players.
+   * 
+   * @return the difficulty.
+   */
+  Difficulty getDifficulty() {
+    return difficulty;
+  }
+  
+  /**
+   * Tell if computer players ponder.
+   * 
+   * @return true if they do.
+   */
+  boolean isPondering() {
+    return pondering;
+  }
+  
+  /**
+   * Copy the moves of the current game.
+   * 
+   * <p>Moves taken back are not included. Never allocates.</p>
+   * 
+   * @param into Receives the columns played, in order. Must hold 
+   *             columns * rows moves.
+   * @return the number of moves.
+   */
+  synchronized int getMoves(int[] into) {
+    int count = board.getMoveCount();
+    board.copyMoves(into);
+    return count;
+  }
+  
+  /**
+   * Play moves without letting the players act, e.g. to restore a game.
+   * 
+   * <p>Listeners are told of each checker and of the end of the game as
+   * for clicks. Call start() afterwards to let the player to move 
+   * act.</p>
+   * 
+   * @param moves The columns to play, in order.
+   * @param count Number of moves to play.
+   * @throws IllegalArgumentException if a move is not valid or the game
+   *                                  is over before it.
+   */
+  synchronized void replay(int[] moves, int count) 
+                                          throws IllegalArgumentException {
+    for (int i = 0; i < count; ++i) {
+      int col = moves[i];
+      if (gameOver || col < 0 || col >= COLUMNS || board.getTop(col) == -1) {
+        throw new IllegalArgumentException("Illegal move " + col + ".");
+      }
+      int row = board.play(col, currentPlayer);
+      lastMove = col;
+      ++turn;
+      fireBoardUpdate(col, row, currentPlayer);
+      gameOver = checkGameEnd(col, row, currentPlayer) != GameEnd.NONE;
+      if (!gameOver) {
+        currentPlayer = currentPlayer.otherPlayer();
       }
     }
   }
   
   /**
    * Starts the game.
+   * 
+   * <p>Does nothing if the game is already over.</p>
    */
-  public void start() {
+  public synchronized void start() {
+    if (gameOver) {
+      return;
+    }
     switch (currentPlayer) {
       case PLAYER1:
         player1.act();
@@ -242,24 +546,90 @@ class ConnectFourModel {
   /**
    * Resets the game.
    */
-  public void reset() {
+  public synchronized void reset() {
     fireLockBoard();
-    for (int x = 0; x < COLUMNS; ++x) {
-      for (int y = 0; y < ROWS; ++y) {
-        board.set(x, y, null);
-      }
-    }
+    stopPondering(player1);
+    stopPondering(player2);
+    board.clear();
+    random = seeds.split();
     currentPlayer = firstPlayer;
+    lastMove = -1;
+    gameOver = false;
+    ++turn;
     fireGameReset();
     start();
   }
-
+  
+  /* Plays a move computed by a computer player for the given turn, 
+   * unless the game has moved on (e.g. was reset) in the meantime. */
+  private synchronized void computerMoved(int col, long forTurn) {
+    if (turn == forTurn) {
+      clicked(col);
+    }
+  }
+  
+  /**
+   * Read-only view of a game board.
+   * 
+   * <p>Implemented by the live BoardState of a game, by its immutable 
+   * BoardSnapshot copies, and by the ScratchBoard searches play on.</p>
+   * 
+   * @author Chenyang Tang
+   */
+  interface Board {
+    /**
+     * Get state of a position on the board.
+     * 
+     * @param col The number of column to be get.
+     * @param row The number of row to be get.
+     * @return The state of the slot, represented by the PlayerId of
+     *         the checker, or null if the slot is empty.
+     */
+    PlayerId get(int col, int row);
+    
+    /**
+     * Get state of a position on the board by slot index.
+     * 
+     * @param cell The slot index, (col * getRows() + row).
+     * @return The state of the slot, encoded by BoardSnapshot.encode().
+     */
+    byte cell(int cell);
+    
+    /**
+     * Get the position of the next available empty slot in a column.
+     * Return -1 if the column is full.
+     * 
+     * @param col the column to check.
+     * @return The position of the next empty slot.
+     *         -1 if the column is full.
+     */
+    int getTop(int col);
+    
+    /**
+     * Get the number of rows in the board.
+     * 
+     * @return the number of rows.
+     */
+    int getRows();
+    
+    /**
+     * Get the number of columns in the board.
+     * 
+     * @return the number of columns.
+     */
+    int getColumns();
+  }
+  
   /**
    * Interface for a Connect-Four game AI.
    * 
    * <p>Tell it the state of the gameboard, which player he is to play,
    * and the rule to win, then it should return a column to put checker in.</p>
    * 
+   * <p>Computer players hand it an immutable snapshot of the game board, 
+   * so it may run on any thread. To explore moves, it should search on a 
+   * ScratchBoard rather than the board it is given.</p>
+   * 
    * @author Chenyang Tang
    */
   public interface ConnectFourAi {
@@ -271,7 +641,85 @@ class ConnectFourModel {
      * @param winNum The winning rule. (Number of consecutive checkers).
      * @return The column to put new checker in.
      */
-    int decideMove(BoardState board, PlayerId player, int winNum);
+    int decideMove(Board board, PlayerId player, int winNum);
+  }
+  
+  /**
+   * Interface for an AI that thinks in the background.
+   * 
+   * <p>decideMoveAsync() returns at once. The AI searches on its own 
+   * threads, reports each better answer as it finds it, and answers with 
+   * the best move found so far when the deadline passes, so it always 
+   * answers in time. Cancelling the future stops the search.</p>
+   * 
+   * @author Chenyang Tang
+   */
+  public interface AsyncAi extends ConnectFourAi {
+    /**
+     * Starts deciding which column to put checker in.
+     * 
+     * @param board The current game board state. Copied before returning.
+     * @param player The player that is playing.
+     * @param winNum The winning rule. (Number of consecutive checkers).
+     * @param deadline System.nanoTime() by which to answer.
+     * @param progress Told of the progress of the search, or null.
+     * @return The future column to put new checker in.
+     */
+    CompletableFuture<Integer> decideMoveAsync(Board board, PlayerId player,
+        int winNum, long deadline, SearchProgress progress);
+  }
+  
+  /**
+   * Listener of the progress of an AsyncAi.
+   * 
+   * @author Chenyang Tang
+   */
+  public interface SearchProgress {
+    /**
+     * Called on the search thread each time a search depth is complete.
+     * 
+     * @param move The best move found so far.
+     * @param depth The number of moves searched ahead.
+     * @param score The score of move, higher is better for the player.
+     */
+    void progress(int move, int depth, int score);
+  }
+  
+  /**
+   * Interface for an AI that can score every move of a position.
+   * 
+   * <p>Scores are from the point of view of the player to move: higher is
+   * better for him. Full columns score NO_MOVE.</p>
+   * 
+   * @author Chenyang Tang
+   */
+  public interface ColumnScorer {
+    /** Score of a column that cannot be played. */
+    int NO_MOVE = Integer.MIN_VALUE;
+    
+    /**
+     * Scores each column of the board.
+     * 
+     * @param board The current game board state.
+     * @param player The player that is playing.
+     * @param winNum The winning rule. (Number of consecutive checkers).
+     * @return The score of putting a checker in each column.
+     */
+    int[] scoreColumns(Board board, PlayerId player, int winNum);
+  }
+  
+  /**
+   * Interface for an AI that counts the positions it searches.
+   * 
+   * @author Chenyang Tang
+   */
+  public interface NodeCounter {
+    /**
+     * Get the number of positions searched so far.
+     * 
+     * @return the number of positions searched since the AI was made.
+     */
+    long getNodes();
   }
   
   /**
@@ -295,31 +743,201 @@ class ConnectFourModel {
     @Override
     public void act() {
       fireUnlockBoard();
+      // Let a computer opponent think on our time.
+      Player opponent = currentPlayer == PlayerId.PLAYER1 ? player2 : player1;
+      if (pondering && opponent instanceof ComputerPlayer) {
+        ((ComputerPlayer) opponent).ponder();
+      }
       // Waits for a click on the GUI for further action.
     }
   }
   
+  private void stopPondering(Player player) {
+    if (player instanceof ComputerPlayer) {
+      ((ComputerPlayer) player).stopPondering();
+    }
+  }
+  
   /**
-   * A computer player makes a move using algorithm in a ConnectFourAi object.
+   * A computer player makes a move using algorithm in an AsyncAi object.
+   * 
+   * <p>The AI searches as many positions as the difficulty allows and the
+   * move is played as soon as it is found; any pacing for the eye is up
+   * to the view.</p>
+   * 
+   * <p>If the AI fails, answers a column that cannot be played, or has
+   * not answered well after its deadline, SimpleAi's move is played
+   * instead, so the game never stalls on a locked board.</p>
    * 
    * @author Chenyang Tang
    */
   class ComputerPlayer implements Player {
-    private ConnectFourAi ai = SimpleAi.getInstance();
+    private AsyncAi ai = new AlphaBetaAi(
+        COLUMNS * ROWS, PatternEvaluator.trained(), difficulty.nodes)
+        .ownedBy(ConnectFourModel.this);
+    // Replies prepared on the opponent's time, or null if not pondering.
+    private Ponder ponder;
     
     @Override
     public void act() {
-      // Spawn a new thread for the computer to "think". 
-      // (This is to prevent the potentially slow AI thinking process
-      // from freezing the GUI, which could happen if it shares the 
-      // same thread with the GUI.)
-      new Thread() {
+      final long forTurn = turn;
+      final PlayerId player = currentPlayer;
+      // Called with the model locked, so the snapshot is consistent.
+      final BoardSnapshot position = board.snapshot();
+      final long deadline = System.nanoTime() + moveTimeLimit;
+      CompletableFuture<Integer> reply = ponder == null 
+          ? CompletableFuture.completedFuture(-1) 
+          : ponder.takeReply(lastMove);
+      ponder = null;
+      // The AI thinks on its own threads, so the GUI never waits for it.
+      CompletableFuture<Integer> move = reply.thenCompose(
+          new Function<Integer, CompletionStage<Integer>>() {
+        @Override
+        public CompletionStage<Integer> apply(Integer pondered) {
+          return pondered != -1 ? CompletableFuture.completedFuture(pondered)
+              : ai.decideMoveAsync(position, player, WINNUM, deadline, null);
+        }
+      });
+      if (moveTimeLimit != AlphaBetaAi.NO_DEADLINE) {
+        move.completeOnTimeout(-1, moveTimeLimit + ABANDONED_NANOS, 
+                               TimeUnit.NANOSECONDS);
+      }
+      move.whenComplete(new BiConsumer<Integer, Throwable>() {
         @Override
-        public void run() {
+        public void accept(Integer col, Throwable error) {
+          if (error != null || col == null || col < 0 || col >= COLUMNS
+              || position.getTop(col) == -1) {
+            System.err.println("Computer player failed to move ("
+                + (error != null ? error : "column " + col) 
+                + "), playing a simple move instead.");
+            col = SimpleAi.getInstance().decideMove(position, player, WINNUM);
+          }
           // Simulate a click on the board.
-          clicked(ai.decideMove(board, currentPlayer, WINNUM));
+          computerMoved(col, forTurn);
         }
-      }.start();
+      });
+    }
+    
+    /* Start precomputing replies. Called on the opponent's turn. */
+    void ponder() {
+      stopPondering();
+      ponder = new Ponder(ai, board.snapshot().scratch(currentPlayer), 
+                          currentPlayer.otherPlayer());
+      ponder.start();
+    }
+    
+    /* Discard precomputed replies. */
+    void stopPondering() {
+      if (ponder != null) {
+        ponder.cancel();
+        ponder = null;
+      }
+    }
+  }
+  
+  /**
+   * Background thread computing the replies of a computer player to each 
+   * possible move of its opponent, while the opponent is thinking.
+   * 
+   * <p>Replies are searched on a private copy of the board, columns closest
+   * to the centre first, each with the node budget of a move. Once the 
+   * opponent's move is known, the reply to it is kept (still being 
+   * searched, perhaps) and the searches of every other reply are 
+   * abandoned.</p>
+   * 
+   * @author Chenyang Tang
+   */
+  class Ponder extends Thread {
+    private final AsyncAi ai;
+    private final ScratchBoard position;
+    private final PlayerId player;
+    // Reply to each opponent move, null if its search has not started.
+    private final List<CompletableFuture<Integer>> replies;
+    private int chosen = -1;
+    private boolean cancelled = false;
+    
+    /**
+     * Construct a pondering thread.
+     * 
+     * @param ai The AI to compute replies with.
+     * @param position A private copy of the board, opponent to move.
+     * @param player The player the replies are computed for.
+     */
+    Ponder(AsyncAi ai, ScratchBoard position, PlayerId player) {
+      this.ai = ai;
+      this.position = position;
+      this.player = player;
+      replies = new ArrayList<CompletableFuture<Integer>>();
+      for (int col = 0; col < COLUMNS; ++col) {
+        replies.add(null);
+      }
+      setDaemon(true);
+    }
+    
+    @Override
+    public void run() {
+      PlayerId opponent = player.otherPlayer();
+      for (int col : AlphaBetaAi.centreFirst(COLUMNS)) {
+        int row = position.getTop(col);
+        if (row == -1) {
+          continue;
+        }
+        CompletableFuture<Integer> reply;
+        if (checkWin(position, col, row, opponent, WINNUM)) {
+          reply = CompletableFuture.completedFuture(-1);
+        } else {
+          position.play(col);
+          reply = ai.decideMoveAsync(position, player, WINNUM, 
+                                     System.nanoTime() + moveTimeLimit, null);
+          position.unplay();
+        }
+        synchronized (this) {
+          if (cancelled || chosen != -1) {
+            reply.cancel(false);
+            break;
+          }
+          replies.set(col, reply);
+        }
+        try {
+          reply.join();
+        } catch (CancellationException e) {
+          break;
+        } catch (CompletionException e) {
+          break;
+        }
+      }
+    }
+    
+    /**
+     * Get the reply to the opponent's move and stop pondering the others.
+     * 
+     * @param col The column the opponent played.
+     * @return the future precomputed reply, -1 if it was not computed.
+     */
+    synchronized CompletableFuture<Integer> takeReply(int col) {
+      chosen = col;
+      CompletableFuture<Integer> kept = CompletableFuture.completedFuture(-1);
+      for (int i = 0; i < COLUMNS; ++i) {
+        CompletableFuture<Integer> reply = replies.get(i);
+        if (i == col && reply != null && !reply.isCancelled()) {
+          kept = reply;
+        } else if (reply != null) {
+          reply.cancel(false);
+        }
+      }
+      return kept;
+    }
+    
+    /**
+     * Abandon pondering.
+     */
+    synchronized void cancel() {
+      cancelled = true;
+      for (CompletableFuture<Integer> reply : replies) {
+        if (reply != null) {
+          reply.cancel(false);
+        }
+      }
     }
   }
   
@@ -328,21 +946,138 @@ class ConnectFourModel {
    * 
    * <p>Constructor takes no argument and returns a new empty board.</p>
    * 
+   * <p>The board belongs to the game and changes as it goes on; use 
+   * snapshot() to get an immutable copy for other threads.</p>
+   * 
    * @author Chenyang Tang
    */
-  class BoardState {
-    private final List<List<PlayerId> > board;
-
+  class BoardState implements Board {
+    // Slot states indexed by (col * ROWS + row), 
+    // encoded by BoardSnapshot.encode().
+    private final byte[] cells;
+    // Number of checkers in each column.
+    private final int[] heights;
+    // The WINNUM-length windows of the board, shared by the geometry.
+    private final LineGeometry lines;
+    // Number of checkers of each player inside every window.
+    private final int[] windowCount1;
+    private final int[] windowCount2;
+    // Number of windows that do not yet hold checkers of both players,
+    // i.e. windows in which some player can still connect.
+    private int openWindows;
+    // Zobrist hashes of the board and of its horizontal mirror.
+    private final PositionKeys keys;
+    private long hash;
+    private long mirrorHash;
+    // Columns played, in order. Those from moveCount to redoCount were
+    // taken back and can be played again.
+    private final int[] moves;
+    private int moveCount = 0;
+    private int redoCount = 0;
+    
     BoardState() {
-      // Initialize board.
-      // PlayerId denotes which checkers on the board.
-      // null denotes empty slots.
-      board = new ArrayList<List<PlayerId> >(
-                            Collections.<List<PlayerId> >nCopies(COLUMNS, null));
-      for (int col = 0; col < COLUMNS; ++col) {
-        board.set(col, new ArrayList<PlayerId>(
-                              Collections.<PlayerId>nCopies(ROWS, null)));
+      // Initialize board. All slots are empty.
+      cells = new byte[COLUMNS * ROWS];
+      heights = new int[COLUMNS];
+      lines = LineGeometry.forGeometry(COLUMNS, ROWS, WINNUM);
+      openWindows = lines.lineCount;
+      windowCount1 = new int[openWindows];
+      windowCount2 = new int[openWindows];
+      keys = PositionKeys.forGeometry(COLUMNS, ROWS);
+      moves = new int[COLUMNS * ROWS];
+    }
+    
+    /**
+     * Drop a checker into a column, recording the move.
+     * 
+     * <p>Never allocates. If the column is the next move that can be 
+     * redone, the later redo moves are kept; otherwise they are 
+     * forgotten.</p>
+     * 
+     * @param col The column to play. Must not be full.
+     * @param player Whose checker to drop.
+     * @return the row the checker landed on.
+     */
+    int play(int col, PlayerId player) {
+      int row = heights[col];
+      set(col, row, player);
+      if (moveCount == redoCount || moves[moveCount] != col) {
+        redoCount = moveCount + 1;
       }
+      moves[moveCount++] = col;
+      return row;
+    }
+    
+    /**
+     * Take back the last move, keeping it to be redone.
+     * 
+     * <p>Never allocates.</p>
+     * 
+     * @return the column of the move taken back.
+     */
+    int unplay() {
+      int col = moves[--moveCount];
+      set(col, heights[col] - 1, null);
+      return col;
+    }
+    
+    /**
+     * Get the number of moves that can be taken back.
+     * 
+     * @return the number of moves played.
+     */
+    int getMoveCount() {
+      return moveCount;
+    }
+    
+    /**
+     * Get the column of the last move.
+     * 
+     * @return the column, -1 if no move was played.
+     */
+    int getLastColumn() {
+      return moveCount == 0 ? -1 : moves[moveCount - 1];
+    }
+    
+    /**
+     * Copy the moves played, not those taken back.
+     * 
+     * @param into Receives the columns, in order, from index 0.
+     */
+    void copyMoves(int[] into) {
+      System.arraycopy(moves, 0, into, 0, moveCount);
+    }
+    
+    /**
+     * Get the column of the next move that can be redone.
+     * 
+     * @return the column, -1 if there is none.
+     */
+    int getRedoColumn() {
+      return moveCount == redoCount ? -1 : moves[moveCount];
+    }
+    
+    /**
+     * Remove every checker and forget all moves.
+     */
+    void clear() {
+      for (int x = 0; x < COLUMNS; ++x) {
+        for (int y = 0; y < ROWS; ++y) {
+          set(x, y, null);
+        }
+      }
+      moveCount = 0;
+      redoCount = 0;
+    }
+    
+    /**
+     * Take an immutable snapshot of the board.
+     * 
+     * @return a copy of the board that never changes.
+     */
+    BoardSnapshot snapshot() {
+      return new BoardSnapshot(COLUMNS, ROWS, cells.clone(), heights.clone(),
+                               hash, mirrorHash);
     }
     
     /**
@@ -353,53 +1088,100 @@ class ConnectFourModel {
      * @param player Which player's checker to set. Null to delete a checker.
      */
     void set(int col, int row, PlayerId player) {
-      board.get(col).set(row, player);
+      PlayerId old = get(col, row);
+      if (old == player) {
+        return;
+      }
+      cells[col * ROWS + row] = BoardSnapshot.encode(player);
+      if (player != null && row >= heights[col]) {
+        heights[col] = row + 1;
+      } else if (player == null && row < heights[col]) {
+        heights[col] = row;
+      }
+      if (old != null) {
+        updateWindows(col, row, old, -1);
+        hash ^= keys.key(col, row, old);
+        mirrorHash ^= keys.mirrorKey(col, row, old);
+      }
+      if (player != null) {
+        updateWindows(col, row, player, 1);
+        hash ^= keys.key(col, row, player);
+        mirrorHash ^= keys.mirrorKey(col, row, player);
+      }
     }
     
     /**
-     * Get state of a position on the board.
+     * Get the canonical key of the position, shared with its mirror image.
      * 
-     * @param col The number of column to be get.
-     * @param row The number of row to be get.
-     * @return The state of the slot, represented by the PlayerId of
-     *         the checker, or null if the slot is empty.
+     * @return the canonical Zobrist key of the board.
+     * @see edu.nyu.cs.pqs.connectfour.PositionKeys
      */
-    PlayerId get(int col, int row) {
-      return board.get(col).get(row);
+    long getKey() {
+      return PositionKeys.canonical(hash, mirrorHash);
     }
     
     /**
-     * Get the position of the next available empty slot in a column.
-     * Return -1 if the column is full.
+     * Check if the canonical key is the key of the mirrored board.
      * 
-     * @param col the column to check.
-     * @return The position of the next empty slot.
-     *         -1 if the column is full.
+     * @return true if columns must be mirrored to match cached entries.
      */
-    int getTop(int col) {
-      for (int i = 0; i < ROWS; ++i) {
-        if (board.get(col).get(i) == null) {
-          return i;
+    boolean isMirrored() {
+      return mirrorHash < hash;
+    }
+    
+    /* Adjusts the checker counts of every window through (col, row)
+     * and keeps openWindows in sync. */
+    private void updateWindows(int col, int row, PlayerId player, int delta) {
+      int[] counts = player == PlayerId.PLAYER1 ? windowCount1 : windowCount2;
+      int cell = col * ROWS + row;
+      for (int i = lines.cellLineStart[cell]; 
+               i < lines.cellLineStart[cell + 1]; ++i) {
+        int window = lines.cellLines[i];
+        boolean wasOpen = windowCount1[window] == 0 
+                          || windowCount2[window] == 0;
+        counts[window] += delta;
+        boolean isOpen = windowCount1[window] == 0 
+                         || windowCount2[window] == 0;
+        if (wasOpen && !isOpen) {
+          --openWindows;
+        } else if (!wasOpen && isOpen) {
+          ++openWindows;
         }
       }
-      return -1;
     }
     
     /**
-     * Get the number of rows in the board.
+     * Check if any player can still connect WINNUM checkers somewhere.
      * 
-     * @return the number of rows.
+     * @return false if every window on the board already holds checkers
+     *         of both players, which means the game can only end in a draw.
      */
-    int getRows() {
+    boolean hasOpenWindow() {
+      return openWindows > 0;
+    }
+    
+    @Override
+    public PlayerId get(int col, int row) {
+      return BoardSnapshot.decode(cells[col * ROWS + row]);
+    }
+    
+    @Override
+    public byte cell(int cell) {
+      return cells[cell];
+    }
+    
+    @Override
+    public int getTop(int col) {
+      return heights[col] == ROWS ? -1 : heights[col];
+    }
+    
+    @Override
+    public int getRows() {
       return ROWS;
     }
     
-    /**
-     * Get the number of columns in the board.
-     * 
-     * @return the number of columns.
-     */
-    int getColumns() {
+    @Override
+    public int getColumns() {
       return COLUMNS;
     }
     
@@ -437,7 +1219,7 @@ class ConnectFourModel {
         default:
           return null;
       }
-
+    
     }
     
     @Override
@@ -457,8 +1239,21 @@ class ConnectFourModel {
     HUMAN, COMPUTER
   }
   
-  enum Direction {
-    UP, DOWN, LEFT, RIGHT, UPPERLEFT, UPPERRIGHT, LOWERLEFT, LOWERRIGHT
+  /**
+   * Strength of computer players: the number of positions they may search
+   * for each move. It does not depend on the speed of the machine.
+   * 
+   * @author Chenyang Tang
+   */
+  enum Difficulty {
+    EASY(1000), MEDIUM(20000), HARD(300000);
+    
+    /** Node budget of each move. */
+    final long nodes;
+    
+    private Difficulty(long nodes) {
+      this.nodes = nodes;
+    }
   }
   
   /**
@@ -470,164 +1265,92 @@ class ConnectFourModel {
    * @param player The player.
    * @param winNum The number of consecutive checkers in a row for winning.
    * @return true if the move would result in a win, false if not.
+   * @see edu.nyu.cs.pqs.connectfour.LineGeometry
    */
-  static boolean checkWin(BoardState board, int col, int row,
+  static boolean checkWin(Board board, int col, int row,
                                  PlayerId player, int winNum) {
-    if (  numCheckers(board, col, row, player, Direction.UP)
-            + numCheckers(board, col, row, player, Direction.DOWN) 
-          >= winNum - 1
-       || numCheckers(board, col, row, player, Direction.LEFT)
-            + numCheckers(board, col, row, player, Direction.RIGHT) 
-          >= winNum - 1
-       || numCheckers(board, col, row, player, Direction.UPPERLEFT)
-            + numCheckers(board, col, row, player, Direction.LOWERRIGHT) 
-          >= winNum - 1
-       || numCheckers(board, col, row, player, Direction.UPPERRIGHT)
-            + numCheckers(board, col, row, player, Direction.LOWERLEFT) 
-          >= winNum - 1  ) {
-      return true;
-    }
-    return false;
-  }
-  
-  /* Number of consecutive checkers of the player on direction dir 
-   * to the position (col, row) */
-  private static int numCheckers(BoardState board, int col, int row, 
-                                    PlayerId player, Direction dir) {
-    int ret = 0;
-    switch (dir) {
-      case UP:
-        for (int y = row + 1; y < board.getRows(); ++y) {
-          if (board.get(col, y) == player) {
-            ++ret;
-          } else {
-            break;
-          }
-        }
-        break;
-      case DOWN:
-        for (int y = row - 1; y >= 0; --y) {
-          if (board.get(col, y) == player) {
-            ++ret;
-          } else {
-            break;
-          }
-        }
-        break;
-      case LEFT:
-        for (int x = col - 1; x >= 0; --x) {
-          if (board.get(x, row) == player) {
-            ++ret;
-          } else {
-            break;
-          }
-        }
-        break;
-      case RIGHT:
-        for (int x = col + 1; x < board.getColumns(); ++x) {
-          if (board.get(x, row) == player) {
-            ++ret;
-          } else {
-            break;
-          }
-        }
-        break;
-      case UPPERLEFT:
-        for (int x = col - 1, y = row + 1; 
-                 x >= 0 && y < board.getRows(); --x, ++y) {
-          if (board.get(x, y) == player) {
-            ++ret;
-          } else {
-            break;
-          }
-        }
-        break;
-      case UPPERRIGHT:
-        for (int x = col + 1, y = row + 1; 
-                 x < board.getColumns() && y < board.getRows(); ++x, ++y) {
-          if (board.get(x, y) == player) {
-            ++ret;
-          } else {
-            break;
-          }
-        }
-        break;
-      case LOWERLEFT:
-        for (int x = col - 1, y = row - 1; x >= 0 && y >= 0; --x, --y) {
-          if (board.get(x, y) == player) {
-            ++ret;
-          } else {
-            break;
-          }
-        }
-        break;
-      case LOWERRIGHT:
-        for (int x = col + 1, y = row - 1; 
-                 x < board.getColumns() && y >= 0; ++x, --y) {
-          if (board.get(x, y) == player) {
-            ++ret;
-          } else {
-            break;
-          }
-        }
-        break;
-      default:
-        throw new IllegalArgumentException("Invalid direction.");
-    }
-    return ret;
+    return LineGeometry.forGeometry(board.getColumns(), board.getRows(), winNum)
+                       .isWinningMove(board, col, row, player);
   }
   
-  private boolean checkGameEnd(int col, int row, PlayerId player) {
+  /* How a move ended the game, if it did. */
+  private enum GameEnd { NONE, WIN, DRAW }
+  
+  private GameEnd checkGameEnd(int col, int row, PlayerId player) {
     // Check if the game is won after player put checker at (col, row)
     if (checkWin(board, col, row, player, WINNUM)) {
       fireGameWon(player);
-      return true;
+      return GameEnd.WIN;
+    } else if (!board.hasOpenWindow()) {
+      // Nobody can connect any more, so no need to fill the board.
+      fireGameDraw();
+      return GameEnd.DRAW;
     } else if (row == ROWS - 1) {
       // Check if the game is a draw
       for (int i = 0; i < COLUMNS; ++i) {
         if (board.get(i, ROWS - 1) == null) {
-          return false;
+          return GameEnd.NONE;
         }
       }
       fireGameDraw();
-      return true;
+      return GameEnd.DRAW;
     }
-    return false;
+    return GameEnd.NONE;
   }
   
   private void fireBoardUpdate(int col, int row, PlayerId player) {
     for (ConnectFourListener listener : listeners) {
+      FlightEvents.ListenerDispatch event = FlightEvents.beginDispatch();
       listener.boardUpdate(col, row, player);
+      FlightEvents.endDispatch(event, listener, "boardUpdate");
     }
   }
-
+  
+  private void fireCheckerRemoved(int col, int row) {
+    for (ConnectFourListener listener : listeners) {
+      FlightEvents.ListenerDispatch event = FlightEvents.beginDispatch();
+      listener.checkerRemoved(col, row);
+      FlightEvents.endDispatch(event, listener, "checkerRemoved");
+    }
+  }
+  
   private void fireUnlockBoard() {
     for (ConnectFourListener listener : listeners) {
+      FlightEvents.ListenerDispatch event = FlightEvents.beginDispatch();
       listener.unlockBoard();
+      FlightEvents.endDispatch(event, listener, "unlockBoard");
     }
   }
-
+  
   private void fireLockBoard() {
     for (ConnectFourListener listener : listeners) {
+      FlightEvents.ListenerDispatch event = FlightEvents.beginDispatch();
       listener.lockBoard();
+      FlightEvents.endDispatch(event, listener, "lockBoard");
     }
   }
   
   private void fireGameDraw() {
     for (ConnectFourListener listener : listeners) {
+      FlightEvents.ListenerDispatch event = FlightEvents.beginDispatch();
       listener.gameDraw();
+      FlightEvents.endDispatch(event, listener, "gameDraw");
     }
   }
-
+  
   private void fireGameWon(PlayerId player) {
     for (ConnectFourListener listener : listeners) {
+      FlightEvents.ListenerDispatch event = FlightEvents.beginDispatch();
       listener.gameWon(player);
+      FlightEvents.endDispatch(event, listener, "gameWon");
     }
   }
   
   private void fireGameReset() {
     for (ConnectFourListener listener : listeners) {
+      FlightEvents.ListenerDispatch event = FlightEvents.beginDispatch();
       listener.gameReset();
+      FlightEvents.endDispatch(event, listener, "gameReset");
     }
   }
   
@@ -635,7 +1358,13 @@ class ConnectFourModel {
   BoardState getBoardForTest() {
     return board;
   }
-
+  
+  // *Only for unit test*
+  void setAiForTest(PlayerId player, AsyncAi ai) {
+    ((ComputerPlayer) (player == PlayerId.PLAYER1 ? player1 : player2)).ai 
+        = ai;
+  }
+  
   @Override
   public String toString() {
     return "num of Columns = " + COLUMNS 
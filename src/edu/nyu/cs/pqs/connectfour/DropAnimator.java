@@ -0,0 +1,183 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import javax.swing.Icon;
+import javax.swing.JLabel;
+import javax.swing.Timer;
+
+/**
+ * Animates checkers dropping down their columns, for all game windows.
+ * 
+ * <p>This is a singleton. Use getInstance() method to get the instance.</p>
+ * 
+ * <p>One javax.swing.Timer drives every animation in the process: each 
+ * frame, every active drop is moved to the row it should have reached by 
+ * now, so late frames are simply skipped. A dropping checker is drawn by 
+ * handing its icon from label to label down the column, which repaints 
+ * only those labels. The timer runs only while something is dropping.</p>
+ * 
+ * <p>When moves come faster than the animation (e.g. two computer 
+ * players), a window's previous drop is finished at once when its next 
+ * one starts, and the oldest drops are finished early if too many are 
+ * active, so the work per frame stays bounded.</p>
+ * 
+ * <p>All methods must be called on the event dispatch thread.</p>
+ * 
+ * @author Chenyang Tang
+ */
+final class DropAnimator {
+  private static final DropAnimator INSTANCE = new DropAnimator();
+  private static final int FRAME_MILLIS = 16;
+  private static final int MILLIS_PER_ROW = 30;
+  private static final int MAX_FALL_MILLIS = 300;
+  private static final int MAX_ACTIVE = 64;
+  
+  private final List<Drop> active = new ArrayList<Drop>();
+  private final Timer timer;
+  
+  /**
+   * Get the instance of the animator singleton.
+   * 
+   * @return the instance of the animator singleton.
+   */
+  static DropAnimator getInstance() {
+    return INSTANCE;
+  }
+  
+  private DropAnimator() {
+    timer = new Timer(FRAME_MILLIS, new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent event) {
+        frame();
+      }
+    });
+    timer.setCoalesce(true);
+  }
+  
+  /**
+   * Start dropping a checker.
+   * 
+   * @param owner The window the column belongs to.
+   * @param column The labels of the column, bottom row first.
+   * @param row The row the checker lands on.
+   * @param icon The icon of the checker.
+   * @param blank The icon of an empty slot.
+   */
+  void drop(Object owner, List<JLabel> column, int row, Icon icon, 
+            Icon blank) {
+    // One drop at a time per window: finish the previous one now.
+    finish(owner);
+    if (active.size() >= MAX_ACTIVE) {
+      active.remove(0).land();
+    }
+    Drop drop = new Drop(owner, column, row, icon, blank);
+    if (drop.update(System.nanoTime())) {
+      drop.land();
+      return;
+    }
+    active.add(drop);
+    if (!timer.isRunning()) {
+      timer.start();
+    }
+  }
+  
+  /**
+   * Finish the drops of a window at once.
+   * 
+   * @param owner The window.
+   */
+  void finish(Object owner) {
+    for (Iterator<Drop> it = active.iterator(); it.hasNext(); ) {
+      Drop drop = it.next();
+      if (drop.owner == owner) {
+        it.remove();
+        drop.land();
+      }
+    }
+  }
+  
+  /**
+   * Abandon the drops of a window, e.g. because its board is cleared.
+   * 
+   * @param owner The window.
+   */
+  void cancel(Object owner) {
+    for (Iterator<Drop> it = active.iterator(); it.hasNext(); ) {
+      if (it.next().owner == owner) {
+        it.remove();
+      }
+    }
+  }
+  
+  private void frame() {
+    long now = System.nanoTime();
+    for (Iterator<Drop> it = active.iterator(); it.hasNext(); ) {
+      Drop drop = it.next();
+      if (drop.update(now)) {
+        it.remove();
+        drop.land();
+      }
+    }
+    if (active.isEmpty()) {
+      timer.stop();
+    }
+  }
+  
+  /**
+   * One checker dropping down one column.
+   * 
+   * @author Chenyang Tang
+   */
+  private static final class Drop {
+    private final Object owner;
+    private final List<JLabel> column;
+    private final int target;
+    private final Icon icon;
+    private final Icon blank;
+    private final long start;
+    private final long duration;
+    // Row the checker is drawn on, -1 before the first frame.
+    private int shown = -1;
+    
+    Drop(Object owner, List<JLabel> column, int target, Icon icon, 
+         Icon blank) {
+      this.owner = owner;
+      this.column = column;
+      this.target = target;
+      this.icon = icon;
+      this.blank = blank;
+      start = System.nanoTime();
+      int rows = column.size() - 1 - target;
+      duration = Math.min(MAX_FALL_MILLIS, rows * MILLIS_PER_ROW) * 1000000L;
+    }
+    
+    /* Moves the checker to where it should be now. 
+     * Returns true when it has reached its row. */
+    boolean update(long now) {
+      if (now - start >= duration) {
+        return true;
+      }
+      int top = column.size() - 1;
+      int row = top - (int) ((top - target) * (now - start) / duration);
+      if (row != shown) {
+        if (shown != -1) {
+          column.get(shown).setIcon(blank);
+        }
+        column.get(row).setIcon(icon);
+        shown = row;
+      }
+      return false;
+    }
+    
+    void land() {
+      if (shown != -1 && shown != target) {
+        column.get(shown).setIcon(blank);
+      }
+      column.get(target).setIcon(icon);
+    }
+  }
+}
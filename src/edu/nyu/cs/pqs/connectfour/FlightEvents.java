@@ -0,0 +1,152 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of the game.
+ * 
+ * <p>Moves, AI searches, calls of each listener and repaints of the board
+ * are recorded as duration events under the category "Connect Four".
+ * Without a recording they cost next to nothing, and they record no
+ * stack traces, so they can stay in production builds. The connectfour.jfc
+ * profile at the top of the project enables them along with CPU sampling,
+ * GC and lock events:</p>
+ * 
+ * <pre>
+ * java -XX:StartFlightRecording=settings=connectfour.jfc,filename=game.jfr
+ *      -jar ConnectFour.jar
+ * jfr summary game.jfr
+ * jfr print --categories "Connect Four" game.jfr
+ * </pre>
+ * 
+ * <p>Events that stutter show up as long durations; nested events tell
+ * where the time went, e.g. a Move event spans the ListenerDispatch
+ * events of its boardUpdate calls.</p>
+ * 
+ * @author Chenyang Tang
+ */
+final class FlightEvents {
+  private static final String CATEGORY = "Connect Four";
+  
+  private FlightEvents() {}
+  
+  /**
+   * A move applied to the model, win and draw check included.
+   * 
+   * @author Chenyang Tang
+   */
+  @Name("connectfour.Move")
+  @Label("Move")
+  @Category(CATEGORY)
+  @Description("A move applied to the game model, listeners included")
+  @StackTrace(false)
+  static final class Move extends Event {
+    @Label("Column")
+    int column;
+    @Label("Row")
+    int row;
+    @Label("Player")
+    String player;
+    @Label("Result")
+    @Description("win, draw, or empty if the game goes on")
+    String result;
+    @Label("End Check Time")
+    @Description("Time spent checking for a win or a draw")
+    @Timespan(Timespan.NANOSECONDS)
+    long checkTime;
+  }
+  
+  /**
+   * An AI search for a move.
+   * 
+   * @author Chenyang Tang
+   */
+  @Name("connectfour.AiSearch")
+  @Label("AI Search")
+  @Category(CATEGORY)
+  @Description("A search for a move, from request to answer")
+  @StackTrace(false)
+  static final class AiSearch extends Event {
+    @Label("AI")
+    String ai;
+    @Label("Depth")
+    @Description("Moves searched ahead, counting completed depths only")
+    int depth;
+    @Label("Nodes")
+    long nodes;
+    @Label("Column")
+    int column;
+    @Label("Score")
+    int score;
+    @Label("Asynchronous")
+    boolean async;
+  }
+  
+  /**
+   * A call of one listener method.
+   * 
+   * @author Chenyang Tang
+   */
+  @Name("connectfour.ListenerDispatch")
+  @Label("Listener Dispatch")
+  @Category(CATEGORY)
+  @Description("A call of one game listener")
+  @StackTrace(false)
+  static final class ListenerDispatch extends Event {
+    @Label("Listener")
+    String listener;
+    @Label("Method")
+    String method;
+  }
+  
+  /**
+   * A repaint of the game board.
+   * 
+   * @author Chenyang Tang
+   */
+  @Name("connectfour.Repaint")
+  @Label("Board Repaint")
+  @Category(CATEGORY)
+  @Description("Painting of the game board by Swing")
+  @StackTrace(false)
+  static final class Repaint extends Event {
+    @Label("Width")
+    int width;
+    @Label("Height")
+    int height;
+  }
+  
+  /**
+   * Start timing a listener call.
+   * 
+   * @return the event, to be passed to endDispatch().
+   */
+  static ListenerDispatch beginDispatch() {
+    ListenerDispatch event = new ListenerDispatch();
+    event.begin();
+    return event;
+  }
+  
+  /**
+   * Finish timing a listener call and record it if enabled.
+   * 
+   * @param event The event from beginDispatch().
+   * @param listener The listener called.
+   * @param method The name of the method called.
+   */
+  static void endDispatch(ListenerDispatch event, Object listener,
+                          String method) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.listener = listener.getClass().getName();
+      event.method = method;
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,248 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.Difficulty;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerType;
+
+/**
+ * Checkpoints of a running game in a file, to restore it in a new JVM.
+ *
+ * <p>The constructor writes the game's settings and moves; each
+ * checkpoint() then appends only the changes since the last one, a few
+ * bytes per move, so checkpointing thousands of games often is cheap.
+ * restore() rebuilds the game from the file, with the given listeners
+ * attached.</p>
+ *
+ * <p>Format, little-endian 32-bit integers: a header of HEADER_BYTES
+ * bytes (magic "C4CK", version, columns, rows, winNum, the first player,
+ * the type of each player, the difficulty as enum ordinals and 1 if
+ * computer players ponder), then one record per change: a column played,
+ * or -1 - n when moves were taken back (or the game reset) to leave n
+ * moves. A record cut short by a crash is ignored on restore.</p>
+ *
+ * <p>The file stays open until close(). It is written through the
+ * operating system on every checkpoint, so it survives the JVM dying; it
+ * is not forced to the disk. Moves that can be redone and the random
+ * stream of a seeded game are not saved. A checkpoint that fails to
+ * write leaves the file as it was, and the next one writes its changes
+ * again. Checkpoints are thread safe.</p>
+ *
+ * @author Chenyang Tang
+ */
+final class GameCheckpoint {
+  /** Size of the file header. */
+  static final int HEADER_BYTES = 40;
+  private static final int MAGIC = 0x4B433443; // "C4CK"
+  private static final int VERSION = 1;
+
+  private final ConnectFourModel game;
+  // The game's moves, copied at each checkpoint.
+  private final int[] moves;
+  // The moves in the file.
+  private final int[] saved;
+  private int savedCount;
+  // First move that differs from the file, set by appendChanges().
+  private int changedFrom;
+  // Set if a failed write could not be undone.
+  private boolean damaged = false;
+  private final ByteBuffer buffer;
+  private final FileChannel channel;
+
+  /**
+   * Start checkpointing a game, replacing the file.
+   *
+   * <p>The file is written next to its final place and moved over it, so
+   * an earlier checkpoint stays whole if writing fails.</p>
+   *
+   * @param game The game.
+   * @param path The file.
+   * @throws IOException if the file cannot be written.
+   */
+  GameCheckpoint(ConnectFourModel game, Path path) throws IOException {
+    this.game = game;
+    int cells = game.COLUMNS * game.ROWS;
+    moves = new int[cells];
+    saved = new int[cells];
+    // Room for taking back every move and replaying them.
+    buffer = ByteBuffer.allocate(HEADER_BYTES + 4 * (cells + 1))
+                       .order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(game.COLUMNS)
+          .putInt(game.ROWS).putInt(game.getWinNum())
+          .putInt(game.getFirstPlayer().ordinal())
+          .putInt(game.getPlayerType(PlayerId.PLAYER1).ordinal())
+          .putInt(game.getPlayerType(PlayerId.PLAYER2).ordinal())
+          .putInt(game.getDifficulty().ordinal())
+          .putInt(game.isPondering() ? 1 : 0);
+    Path parent = path.toAbsolutePath().getParent();
+    Path temp = Files.createTempFile(parent, "checkpoint", ".tmp");
+    try {
+      FileChannel created = FileChannel.open(temp, 
+                                             StandardOpenOption.WRITE);
+      try {
+        synchronized (this) {
+          int count = appendChanges();
+          write(created);
+          saved(count);
+        }
+      } finally {
+        created.close();
+      }
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    channel = FileChannel.open(path, StandardOpenOption.WRITE,
+                               StandardOpenOption.APPEND);
+  }
+
+  /**
+   * Append the changes of the game since the last checkpoint.
+   *
+   * @return the number of bytes appended, 0 if the game has not changed.
+   * @throws IOException if the file cannot be written.
+   */
+  synchronized int checkpoint() throws IOException {
+    if (damaged) {
+      throw new IOException("Checkpoint file damaged by a failed write.");
+    }
+    int count = appendChanges();
+    int bytes = buffer.position();
+    if (bytes > 0) {
+      write(channel);
+    }
+    saved(count);
+    return bytes;
+  }
+
+  /**
+   * Take a last checkpoint and close the file.
+   *
+   * @throws IOException if the file cannot be written.
+   */
+  synchronized void close() throws IOException {
+    try {
+      checkpoint();
+    } finally {
+      channel.close();
+    }
+  }
+
+  /* Puts the records of the changes into the buffer. Returns the number
+   * of moves of the game. */
+  private int appendChanges() {
+    int count = game.getMoves(moves);
+    int common = 0;
+    while (common < count && common < savedCount
+           && moves[common] == saved[common]) {
+      ++common;
+    }
+    if (common < savedCount) {
+      buffer.putInt(-1 - common);
+    }
+    for (int i = common; i < count; ++i) {
+      buffer.putInt(moves[i]);
+    }
+    changedFrom = common;
+    return count;
+  }
+
+  /* Notes that the changes are in the file, once written. */
+  private void saved(int count) {
+    System.arraycopy(moves, changedFrom, saved, changedFrom, 
+                     count - changedFrom);
+    savedCount = count;
+  }
+
+  /* Writes out the buffer and empties it. If writing fails, cuts off
+   * what was written, so the records can be written again. */
+  private void write(FileChannel file) throws IOException {
+    long size = file.size();
+    buffer.flip();
+    try {
+      while (buffer.hasRemaining()) {
+        file.write(buffer);
+      }
+    } catch (IOException e) {
+      try {
+        file.truncate(size);
+      } catch (IOException again) {
+        e.addSuppressed(again);
+        damaged = true;
+      }
+      throw e;
+    } finally {
+      buffer.clear();
+    }
+  }
+
+  /**
+   * Rebuild a game from its checkpoint file.
+   *
+   * <p>The listeners are attached before the moves are replayed, so they
+   * see every checker and the end of the game. The game is not started:
+   * call start() to let the player to move act. To go on checkpointing,
+   * construct a new GameCheckpoint, which also compacts the file.</p>
+   *
+   * @param path The file.
+   * @param listeners Listeners to attach.
+   * @return the game, in the state of its last checkpoint.
+   * @throws IOException if the file cannot be read or is not a valid
+   *                     checkpoint.
+   */
+  static ConnectFourModel restore(Path path,
+                                  List<ConnectFourListener> listeners)
+                                                      throws IOException {
+    ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path))
+                                .order(ByteOrder.LITTLE_ENDIAN);
+    if (data.remaining() < HEADER_BYTES || data.getInt() != MAGIC
+        || data.getInt() != VERSION) {
+      throw new IOException("Not a game checkpoint: " + path);
+    }
+    ConnectFourModel game;
+    try {
+      int columns = data.getInt();
+      int rows = data.getInt();
+      int winNum = data.getInt();
+      PlayerId first = PlayerId.values()[data.getInt()];
+      PlayerType player1 = PlayerType.values()[data.getInt()];
+      PlayerType player2 = PlayerType.values()[data.getInt()];
+      Difficulty difficulty = Difficulty.values()[data.getInt()];
+      boolean pondering = data.getInt() != 0;
+      game = new ConnectFourModel.Builder(player1, player2)
+          .setColumns(columns).setRows(rows).setWinNum(winNum)
+          .setFirstPlayer(first).setDifficulty(difficulty)
+          .setPondering(pondering).build();
+      int[] moves = new int[columns * rows];
+      int count = 0;
+      // Whole records only: the last one may have been cut short.
+      while (data.remaining() >= 4) {
+        int record = data.getInt();
+        if (record >= 0) {
+          moves[count++] = record;
+        } else if (-1 - record <= count) {
+          count = -1 - record;
+        } else {
+          throw new IllegalArgumentException("Bad record " + record + ".");
+        }
+      }
+      for (ConnectFourListener listener : listeners) {
+        game.addListener(listener);
+      }
+      game.replay(moves, count);
+    } catch (RuntimeException e) {
+      // Bad settings or moves: out of range, or rejected by the game.
+      throw new IOException("Corrupt game checkpoint: " + path, e);
+    }
+    return game;
+  }
+}
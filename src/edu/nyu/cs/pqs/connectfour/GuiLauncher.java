@@ -0,0 +1,30 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Brings up the launch menu on the event dispatch thread.
+ * 
+ * <p>Kept apart from ConnectFourDriver so that the Swing classes are only
+ * loaded when the GUI is actually started.</p>
+ * 
+ * @author Chenyang Tang
+ */
+final class GuiLauncher {
+  private GuiLauncher() {}
+  
+  /**
+   * Show the launch menu.
+   * 
+   * @param timing Whether to print the startup time once it is shown.
+   */
+  static void launch(final boolean timing) {
+    SwingUtilities.invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        Menu.getInstance();
+        ConnectFourDriver.printStartup(timing, "menu");
+      }
+    });
+  }
+}
@@ -0,0 +1,180 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.util.concurrent.CompletableFuture;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.Board;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.ColumnScorer;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+
+/**
+ * Scores every column of a position in the background, for hints.
+ *
+ * <p>One daemon thread of the lowest priority analyses the position given
+ * to analyze(), deepening one move at a time: each depth scores every
+ * column with an AlphaBetaAi, and its scores replace the previous ones in
+ * getHints(). It stops at a depth where every column is a forced win or
+ * loss, when the board is full, or when stop() or the next analyze() is
+ * called; the search then gives up within a few hundred positions.</p>
+ *
+ * <p>The analysis runs on its own thread, not on the AiScheduler, so it
+ * never takes turns from the computer players. All methods are thread
+ * safe.</p>
+ *
+ * @author Chenyang Tang
+ */
+final class HintAnalyzer {
+  private final AlphaBetaAi ai =
+      new AlphaBetaAi(1, PatternEvaluator.trained());
+  private final Thread thread;
+  // The next position to analyse, null if none.
+  private Job pending;
+  // The position being analysed, null if none.
+  private Job current;
+  private Hints hints;
+
+  /**
+   * Scores of the columns of a position.
+   *
+   * @author Chenyang Tang
+   */
+  static final class Hints {
+    /** Score of each column, ColumnScorer.NO_MOVE for full columns. */
+    final int[] scores;
+    /** Number of moves searched ahead. */
+    final int depth;
+    /** Scores at least this high are forced wins; as low, losses. */
+    final int decisive;
+
+    Hints(int[] scores, int depth, int decisive) {
+      this.scores = scores;
+      this.depth = depth;
+      this.decisive = decisive;
+    }
+  }
+
+  /**
+   * A position to analyse.
+   *
+   * @author Chenyang Tang
+   */
+  private static final class Job {
+    final BoardSnapshot position;
+    final PlayerId player;
+    final int winNum;
+    final CompletableFuture<Void> stop = new CompletableFuture<Void>();
+
+    Job(BoardSnapshot position, PlayerId player, int winNum) {
+      this.position = position;
+      this.player = player;
+      this.winNum = winNum;
+    }
+  }
+
+  /**
+   * Construct an analyzer and start its thread, idle.
+   */
+  HintAnalyzer() {
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            analyze(next());
+          }
+        } catch (InterruptedException e) {
+          // Shut down.
+        }
+      }
+    }, "Hint analysis");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  /**
+   * Start analysing a position, abandoning any previous one.
+   *
+   * @param position The position. Copied before returning.
+   * @param player The player to move.
+   * @param winNum The winning rule. (Number of consecutive checkers).
+   */
+  synchronized void analyze(Board position, PlayerId player, int winNum) {
+    stop();
+    pending = new Job(ScratchBoard.copyOf(position, player).snapshot(),
+                      player, winNum);
+    notifyAll();
+  }
+
+  /**
+   * Abandon the analysis and forget its hints.
+   */
+  synchronized void stop() {
+    if (current != null) {
+      current.stop.complete(null);
+      current = null;
+    }
+    pending = null;
+    hints = null;
+  }
+
+  /**
+   * Get the scores of the deepest analysis completed so far.
+   *
+   * @return the hints, or null if there are none yet or the analysis was
+   *         stopped.
+   */
+  synchronized Hints getHints() {
+    return hints;
+  }
+
+  /**
+   * Stop the analysis thread for good.
+   */
+  void shutdown() {
+    stop();
+    thread.interrupt();
+  }
+
+  private synchronized Job next() throws InterruptedException {
+    while (pending == null) {
+      wait();
+    }
+    current = pending;
+    pending = null;
+    return current;
+  }
+
+  private void analyze(Job job) {
+    int empty = 0;
+    for (int col = 0; col < job.position.getColumns(); ++col) {
+      int top = job.position.getTop(col);
+      empty += top == -1 ? 0 : job.position.getRows() - top;
+    }
+    int decisive = AlphaBetaAi.WIN - job.position.getColumns()
+                                     * job.position.getRows() - 1;
+    for (int depth = 1; depth <= empty; ++depth) {
+      int[] scores = ai.scoreColumns(job.position, job.player, job.winNum,
+                                     depth, job.stop);
+      synchronized (this) {
+        if (scores == null || job.stop.isDone()) {
+          return;
+        }
+        hints = new Hints(scores, depth, decisive);
+      }
+      boolean settled = true;
+      for (int score : scores) {
+        if (score != ColumnScorer.NO_MOVE && Math.abs(score) < decisive) {
+          settled = false;
+        }
+      }
+      if (settled) {
+        break;
+      }
+    }
+    synchronized (this) {
+      if (current == job) {
+        current = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.swing.ImageIcon;
+
+/**
+ * Process-wide cache of decoded icons.
+ * 
+ * <p>Each image resource is read and decoded once, and each size it is 
+ * displayed at is scaled once, no matter how many game windows show it.
+ * Icons are immutable once created, so the same instance is shared by 
+ * every component that asks for it.</p>
+ * 
+ * @author Chenyang Tang
+ */
+final class IconCache {
+  private static final ConcurrentMap<String, ImageIcon> ICONS = 
+      new ConcurrentHashMap<String, ImageIcon>();
+  
+  private IconCache() {}
+  
+  /**
+   * Get an icon at its natural size.
+   * 
+   * @param path Resource path of the image.
+   * @param description Description of the icon.
+   * @return the shared icon, or null if the resource does not exist.
+   */
+  static ImageIcon get(String path, String description) {
+    ImageIcon icon = ICONS.get(path);
+    if (icon == null) {
+      /* Loading copied from Oracle Java tutorial.
+       * https://docs.oracle.com/javase/tutorial/uiswing/components/icon.html
+       */
+      java.net.URL imgURL = IconCache.class.getResource(path);
+      if (imgURL == null) {
+        System.err.println("Couldn't find file: " + path);
+        return null;
+      }
+      icon = new ImageIcon(imgURL, description);
+      ImageIcon existing = ICONS.putIfAbsent(path, icon);
+      if (existing != null) {
+        icon = existing;
+      }
+    }
+    return icon;
+  }
+  
+  /**
+   * Get an icon scaled to a square of the given size.
+   * 
+   * @param path Resource path of the image.
+   * @param description Description of the icon.
+   * @param size Width and height in pixels. Must be positive.
+   * @return the shared icon, or null if the resource does not exist.
+   */
+  static ImageIcon get(String path, String description, int size) {
+    ImageIcon original = get(path, description);
+    if (original == null || (original.getIconWidth() == size 
+                             && original.getIconHeight() == size)) {
+      return original;
+    }
+    String key = path + "@" + size;
+    ImageIcon icon = ICONS.get(key);
+    if (icon == null) {
+      // Draw once into a buffer so the scaling is not repeated on paint.
+      BufferedImage scaled = 
+          new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+      Graphics2D g = scaled.createGraphics();
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, 
+                         RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.drawImage(original.getImage(), 0, 0, size, size, null);
+      g.dispose();
+      icon = new ImageIcon((Image) scaled, description);
+      ImageIcon existing = ICONS.putIfAbsent(key, icon);
+      if (existing != null) {
+        icon = existing;
+      }
+    }
+    return icon;
+  }
+  
+  /**
+   * Get a fully transparent square icon.
+   * 
+   * @param size Width and height in pixels. Must be positive.
+   * @return the shared icon.
+   */
+  static ImageIcon blank(int size) {
+    String key = "blank@" + size;
+    ImageIcon icon = ICONS.get(key);
+    if (icon == null) {
+      icon = new ImageIcon((Image) new BufferedImage(
+          size, size, BufferedImage.TYPE_INT_ARGB), "empty slot");
+      ImageIcon existing = ICONS.putIfAbsent(key, icon);
+      if (existing != null) {
+        icon = existing;
+      }
+    }
+    return icon;
+  }
+}
@@ -0,0 +1,142 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.Board;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+
+/**
+ * Tables of the winning lines of a board geometry.
+ * 
+ * <p>A winning line is a set of winNum consecutive slots in a row, a 
+ * column or a diagonal. The lines only depend on the number of columns, 
+ * rows and winNum, so they are computed once per geometry and shared, 
+ * read-only, by every game, board and search of that geometry. Use 
+ * forGeometry() to get them.</p>
+ * 
+ * <p>Slots are identified by their index (col * rows + row), the same 
+ * index Board.cell() takes. The tables are flat int arrays:<br>
+ * lineCells[line * winNum + i] is the i-th slot of a line;<br>
+ * cellLines[cellLineStart[cell] .. cellLineStart[cell + 1] - 1] are the 
+ * lines through a slot.<br>
+ * They must not be modified.</p>
+ * 
+ * @author Chenyang Tang
+ */
+final class LineGeometry {
+  private static final ConcurrentMap<Long, LineGeometry> CACHE = 
+      new ConcurrentHashMap<Long, LineGeometry>();
+  // Most processes use one geometry at a time: skip the map lookup.
+  private static volatile LineGeometry last;
+  
+  final int columns;
+  final int rows;
+  final int winNum;
+  final int lineCount;
+  final int[] lineCells;
+  final int[] cellLineStart;
+  final int[] cellLines;
+  
+  /**
+   * Get the tables of a board geometry.
+   * 
+   * @param columns Number of columns.
+   * @param rows Number of rows.
+   * @param winNum Number of checkers in a row for winning.
+   * @return the shared tables.
+   */
+  static LineGeometry forGeometry(int columns, int rows, int winNum) {
+    LineGeometry geometry = last;
+    if (geometry != null && geometry.columns == columns 
+        && geometry.rows == rows && geometry.winNum == winNum) {
+      return geometry;
+    }
+    Long key = ((long) columns << 42) | ((long) rows << 21) | winNum;
+    geometry = CACHE.get(key);
+    if (geometry == null) {
+      geometry = new LineGeometry(columns, rows, winNum);
+      LineGeometry existing = CACHE.putIfAbsent(key, geometry);
+      if (existing != null) {
+        geometry = existing;
+      }
+    }
+    last = geometry;
+    return geometry;
+  }
+  
+  private LineGeometry(int columns, int rows, int winNum) {
+    this.columns = columns;
+    this.rows = rows;
+    this.winNum = winNum;
+    // A single slot is the same line in every direction.
+    final int[][] dirs = winNum == 1 ? new int[][] { {1, 0} }
+                         : new int[][] { {1, 0}, {0, 1}, {1, 1}, {1, -1} };
+    List<int[]> lines = new ArrayList<int[]>();
+    int[] perCell = new int[columns * rows];
+    for (int[] dir : dirs) {
+      for (int col = 0; col < columns; ++col) {
+        for (int row = 0; row < rows; ++row) {
+          int endCol = col + dir[0] * (winNum - 1);
+          int endRow = row + dir[1] * (winNum - 1);
+          if (endCol < 0 || endCol >= columns || endRow < 0 || endRow >= rows) {
+            continue;
+          }
+          int[] cells = new int[winNum];
+          for (int i = 0; i < winNum; ++i) {
+            cells[i] = (col + dir[0] * i) * rows + row + dir[1] * i;
+            ++perCell[cells[i]];
+          }
+          lines.add(cells);
+        }
+      }
+    }
+    lineCount = lines.size();
+    lineCells = new int[lineCount * winNum];
+    cellLineStart = new int[columns * rows + 1];
+    for (int cell = 0; cell < perCell.length; ++cell) {
+      cellLineStart[cell + 1] = cellLineStart[cell] + perCell[cell];
+      perCell[cell] = cellLineStart[cell];
+    }
+    cellLines = new int[cellLineStart[columns * rows]];
+    for (int line = 0; line < lineCount; ++line) {
+      int[] cells = lines.get(line);
+      System.arraycopy(cells, 0, lineCells, line * winNum, winNum);
+      for (int cell : cells) {
+        cellLines[perCell[cell]++] = line;
+      }
+    }
+  }
+  
+  /**
+   * Check if a player would win if he puts a checker at position (col, row).
+   * 
+   * @param board The state of the board. Must have this geometry.
+   * @param col The column to put.
+   * @param row The row to put.
+   * @param player The player.
+   * @return true if every other slot of some line through (col, row) 
+   *         holds a checker of the player.
+   */
+  boolean isWinningMove(Board board, int col, int row, PlayerId player) {
+    byte own = BoardSnapshot.encode(player);
+    int cell = col * rows + row;
+    for (int i = cellLineStart[cell]; i < cellLineStart[cell + 1]; ++i) {
+      int start = cellLines[i] * winNum;
+      int j = 0;
+      while (j < winNum) {
+        int other = lineCells[start + j];
+        if (other != cell && board.cell(other) != own) {
+          break;
+        }
+        ++j;
+      }
+      if (j == winNum) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
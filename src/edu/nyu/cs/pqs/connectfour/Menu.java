@@ -6,6 +6,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import javax.swing.BoxLayout;
 import javax.swing.ButtonGroup;
+import javax.swing.JCheckBox;
 import javax.swing.GroupLayout;
 import javax.swing.JButton;
 import javax.swing.JFrame;
@@ -15,6 +16,7 @@ import javax.swing.JPanel;
 import javax.swing.JRadioButton;
 import javax.swing.JTextField;
 import javax.swing.LayoutStyle;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.Difficulty;
 import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
 import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerType;
 
@@ -23,10 +25,10 @@ import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerType;
  * 
  * <p>Can set the number of rows and columns, rule of winning, 
  * player types (human and computer, for two players respectively), 
- * and which player to play first. Also checks for the validity of 
- * the inputs, including if the specified game parameters is 
- * winnable, and only launches the game if all parameters meet the
- * requirements. </p>
+ * which player to play first, and how strong computer players are. 
+ * Also checks for the validity of the inputs, including if the 
+ * specified game parameters is winnable, and only launches the game if 
+ * all parameters meet the requirements. </p>
  * 
  * <p>You can lauch a new game without closing an existing one.</p>
  * 
@@ -114,6 +116,24 @@ class Menu {
     final ButtonGroup firstPlayerButtons = new ButtonGroup();
     firstPlayerButtons.add(firstPlayer1);
     firstPlayerButtons.add(firstPlayer2);
+    
+    final JLabel levelText = new JLabel("Computer level: ");
+    levelText.setFont(new Font(null, Font.PLAIN, 20));
+    final JRadioButton levelEasy = new JRadioButton("Easy", false);
+    levelEasy.setFont(new Font(null, Font.PLAIN, 25));
+    final JRadioButton levelMedium = new JRadioButton("Medium", true);
+    levelMedium.setFont(new Font(null, Font.PLAIN, 25));
+    final JRadioButton levelHard = new JRadioButton("Hard", false);
+    levelHard.setFont(new Font(null, Font.PLAIN, 25));
+    final ButtonGroup levelButtons = new ButtonGroup();
+    levelButtons.add(levelEasy);
+    levelButtons.add(levelMedium);
+    levelButtons.add(levelHard);
+    
+    final JLabel ponderText = new JLabel("Computer thinks: ");
+    ponderText.setFont(new Font(null, Font.PLAIN, 20));
+    final JCheckBox ponder = new JCheckBox("On my time", false);
+    ponder.setFont(new Font(null, Font.PLAIN, 25));
       
     titlePanel.setLayout(new BoxLayout(titlePanel, BoxLayout.Y_AXIS));
     titlePanel.add(title);
@@ -172,17 +192,25 @@ class Menu {
                                       GroupLayout.Alignment.LEADING)
                 .addComponent(player1Text)
                 .addComponent(player2Text)
-                .addComponent(firstPlayerText))
+                .addComponent(firstPlayerText)
+                .addComponent(levelText)
+                .addComponent(ponderText))
             .addGroup(layoutSelectPanel.createParallelGroup(
                                       GroupLayout.Alignment.LEADING)
                 .addComponent(player1Human)
                 .addComponent(player2Human)
-                .addComponent(firstPlayer1))
+                .addComponent(firstPlayer1)
+                .addComponent(levelEasy)
+                .addComponent(ponder))
             .addGroup(layoutSelectPanel.createParallelGroup(
                                       GroupLayout.Alignment.LEADING)
                 .addComponent(player1Computer)
                 .addComponent(player2Computer)
-                .addComponent(firstPlayer2))
+                .addComponent(firstPlayer2)
+                .addComponent(levelMedium))
+            .addGroup(layoutSelectPanel.createParallelGroup(
+                                      GroupLayout.Alignment.LEADING)
+                .addComponent(levelHard))
     );
     layoutSelectPanel.setVerticalGroup(
         layoutSelectPanel.createSequentialGroup()
@@ -201,6 +229,16 @@ class Menu {
                 .addComponent(firstPlayerText)
                 .addComponent(firstPlayer1)
                 .addComponent(firstPlayer2))
+            .addGroup(layoutSelectPanel.createParallelGroup(
+                                      GroupLayout.Alignment.LEADING)
+                .addComponent(levelText)
+                .addComponent(levelEasy)
+                .addComponent(levelMedium)
+                .addComponent(levelHard))
+            .addGroup(layoutSelectPanel.createParallelGroup(
+                                      GroupLayout.Alignment.LEADING)
+                .addComponent(ponderText)
+                .addComponent(ponder))
     );
     
     final JButton newGame = new JButton("Launch New Game");
@@ -222,12 +260,17 @@ class Menu {
                                       PlayerType.HUMAN : PlayerType.COMPUTER;
             PlayerId firstPlayer = firstPlayer1.isSelected() ?
                                       PlayerId.PLAYER1 : PlayerId.PLAYER2;
+            Difficulty difficulty = levelEasy.isSelected() ? Difficulty.EASY
+                : levelHard.isSelected() ? Difficulty.HARD 
+                : Difficulty.MEDIUM;
             // Create new game model.
             ConnectFourModel model = new ConnectFourModel.Builder(
                 player1, player2).setRows(nRows)
                                  .setColumns(nCols)
                                  .setWinNum(nWin)
                                  .setFirstPlayer(firstPlayer)
+                                 .setPondering(ponder.isSelected())
+                                 .setDifficulty(difficulty)
                                  .build();
             // Add a GUI as a listener.
             new BoardDisplay(model);
@@ -249,7 +292,7 @@ class Menu {
     frame.setTitle("Connect Four");
     frame.getContentPane().add(panel);
     frame.setLocationByPlatform(true);
-    frame.setSize(400, 560);
+    frame.setSize(480, 640);
     frame.setResizable(false);
     frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
     frame.setVisible(true);
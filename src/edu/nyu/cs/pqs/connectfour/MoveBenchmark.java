@@ -0,0 +1,114 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.BoardState;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerType;
+
+/**
+ * Benchmark of exploring a game tree by copying boards against playing
+ * and taking back moves in place.
+ *
+ * <p>Usage: <code>MoveBenchmark [columns rows] [depth]</code></p>
+ *
+ * <p>Visits every sequence of depth moves from the empty board (by
+ * default 7 columns, 6 rows, depth 7), without checking for wins, in
+ * three ways: copying the game's board for each move, as analysis code
+ * had to before the board could take moves back; playing and taking back
+ * each move on the game's BoardState; and the same on a ScratchBoard.
+ * All must visit the same number of positions; the time per position of
+ * each is reported.</p>
+ *
+ * @author Chenyang Tang
+ */
+public class MoveBenchmark {
+  private MoveBenchmark() {}
+
+  /**
+   * Starting point.
+   *
+   * @param args See the class documentation.
+   */
+  public static void main(String[] args) {
+    int columns = args.length >= 2 ? Integer.parseInt(args[0]) : 7;
+    int rows = args.length >= 2 ? Integer.parseInt(args[1]) : 6;
+    int depth = args.length == 1 || args.length == 3
+                ? Integer.parseInt(args[args.length - 1]) : 7;
+    // Warm up all paths, then measure.
+    run(columns, rows, Math.max(1, depth - 2), false);
+    run(columns, rows, depth, true);
+  }
+
+  private static void run(int columns, int rows, int depth, boolean print) {
+    ConnectFourModel game = new ConnectFourModel.Builder(
+        PlayerType.HUMAN, PlayerType.HUMAN)
+        .setColumns(columns).setRows(rows).build();
+    long start = System.nanoTime();
+    long copied = copying(game.new BoardState().snapshot()
+                              .scratch(PlayerId.PLAYER1), depth);
+    long middle = System.nanoTime();
+    long inPlace = inPlace(game.new BoardState(), PlayerId.PLAYER1, depth);
+    long end = System.nanoTime();
+    long scratch = inPlace(new ScratchBoard(columns, rows, PlayerId.PLAYER1),
+                           depth);
+    long last = System.nanoTime();
+    if (copied != inPlace || copied != scratch) {
+      throw new IllegalStateException("Counts disagree: " + copied + ", "
+                                      + inPlace + ", " + scratch);
+    }
+    if (print) {
+      System.out.printf("%dx%d, depth %d, %d positions%n",
+                        columns, rows, depth, copied);
+      System.out.printf("Copy per move:           %8.1f ns/position%n",
+                        (double) (middle - start) / copied);
+      System.out.printf("BoardState play/unplay:  %8.1f ns/position%n",
+                        (double) (end - middle) / copied);
+      System.out.printf("ScratchBoard play/unplay:%8.1f ns/position%n",
+                        (double) (last - end) / copied);
+    }
+  }
+
+  private static long copying(ScratchBoard board, int depth) {
+    if (depth == 0) {
+      return 1;
+    }
+    long count = 0;
+    for (int col = 0; col < board.getColumns(); ++col) {
+      if (board.canPlay(col)) {
+        ScratchBoard child = board.snapshot().scratch(board.getToMove());
+        child.play(col);
+        count += copying(child, depth - 1);
+      }
+    }
+    return count;
+  }
+
+  private static long inPlace(BoardState board, PlayerId player, int depth) {
+    if (depth == 0) {
+      return 1;
+    }
+    long count = 0;
+    for (int col = 0; col < board.getColumns(); ++col) {
+      if (board.getTop(col) != -1) {
+        board.play(col, player);
+        count += inPlace(board, player.otherPlayer(), depth - 1);
+        board.unplay();
+      }
+    }
+    return count;
+  }
+
+  private static long inPlace(ScratchBoard board, int depth) {
+    if (depth == 0) {
+      return 1;
+    }
+    long count = 0;
+    for (int col = 0; col < board.getColumns(); ++col) {
+      if (board.canPlay(col)) {
+        board.play(col);
+        count += inPlace(board, depth - 1);
+        board.unplay();
+      }
+    }
+    return count;
+  }
+}
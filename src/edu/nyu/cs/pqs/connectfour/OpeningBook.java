@@ -0,0 +1,308 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exact values of the opening positions of standard Connect Four, for
+ * PerfectSolver.
+ * 
+ * <p>Searching the first moves of the game takes the solver seconds to
+ * minutes, so the values of all positions of up to getDepth() checkers
+ * are computed once by generate() and shipped with the game as resource
+ * opening7x6.book; without it, every position is searched. A position
+ * and its mirror image share an entry.</p>
+ * 
+ * <p>Only the positions at the full depth are searched: the value of a
+ * shallower position is the best of its children's, which are in the
+ * book already. Usage of the generator:</p>
+ * 
+ * <pre>
+ * java -jar ConnectFour.jar book depth [output]
+ * </pre>
+ * 
+ * <p>The book is immutable and thread safe.</p>
+ * 
+ * @author Chenyang Tang
+ */
+final class OpeningBook {
+  /** Returned by get() for positions not in the book. */
+  static final int UNKNOWN = Integer.MIN_VALUE;
+  /** Name of the built-in book, a resource next to this class. */
+  static final String RESOURCE = "opening7x6.book";
+  private static final int MAGIC = 0x424F3443; // "C4OB"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 4 * 4;
+  private static final OpeningBook EMPTY =
+      new OpeningBook(-1, new long[0], new byte[0]);
+  
+  private final int depth;
+  // Canonical keys, sorted, and their values.
+  private final long[] keys;
+  private final byte[] values;
+  
+  /**
+   * Holder of the built-in book, loaded on first use.
+   * 
+   * @author Chenyang Tang
+   */
+  private static final class BuiltIn {
+    static final OpeningBook INSTANCE = loadBuiltIn();
+  }
+  
+  private OpeningBook(int depth, long[] keys, byte[] values) {
+    this.depth = depth;
+    this.keys = keys;
+    this.values = values;
+  }
+  
+  /**
+   * Get the book shipped with the game.
+   * 
+   * @return the built-in book, empty if it is missing or cannot be read.
+   */
+  static OpeningBook getInstance() {
+    return BuiltIn.INSTANCE;
+  }
+  
+  /**
+   * Get the number of checkers of the deepest positions in the book.
+   * 
+   * @return the depth, -1 for an empty book.
+   */
+  int getDepth() {
+    return depth;
+  }
+  
+  /**
+   * Get the number of positions in the book.
+   * 
+   * @return the number of entries.
+   */
+  int size() {
+    return keys.length;
+  }
+  
+  /**
+   * Look up a position.
+   * 
+   * @param position Bitboard of the checkers of the player to move.
+   * @param mask Bitboard of all checkers.
+   * @return the value for the player to move, or UNKNOWN.
+   */
+  int get(long position, long mask) {
+    int index = Arrays.binarySearch(
+        keys, PerfectSolver.canonicalKey(position, mask));
+    return index < 0 ? UNKNOWN : values[index];
+  }
+  
+  /**
+   * Compute a book.
+   * 
+   * @param depth The number of checkers of the deepest positions.
+   * @param solver The solver to search the deepest positions with.
+   * @param log Told of the progress, or null.
+   * @return the book.
+   * @throws IOException if writing to the log fails.
+   */
+  static OpeningBook generate(int depth, PerfectSolver solver,
+                              Appendable log) throws IOException {
+    // Positions of each depth by canonical key: {position, mask}.
+    List<Map<Long, long[]>> plies = new ArrayList<Map<Long, long[]>>();
+    Map<Long, long[]> start = new LinkedHashMap<Long, long[]>();
+    start.put(PerfectSolver.canonicalKey(0, 0), new long[] { 0, 0 });
+    plies.add(start);
+    for (int ply = 0; ply < depth; ++ply) {
+      Map<Long, long[]> next = new LinkedHashMap<Long, long[]>();
+      for (long[] node : plies.get(ply).values()) {
+        for (int col = 0; col < PerfectSolver.COLUMNS; ++col) {
+          long[] child = PerfectSolver.child(node[0], node[1], col);
+          if (child != null) {
+            next.put(PerfectSolver.canonicalKey(child[0], child[1]), child);
+          }
+        }
+      }
+      plies.add(next);
+    }
+    
+    Map<Long, Integer> found = new HashMap<Long, Integer>();
+    Map<Long, long[]> deepest = plies.get(depth);
+    long begin = System.nanoTime();
+    int done = 0;
+    for (Map.Entry<Long, long[]> entry : deepest.entrySet()) {
+      long[] node = entry.getValue();
+      found.put(entry.getKey(), solver.value(node[0], node[1]));
+      if (log != null && ++done % 100 == 0) {
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        log.append(String.format(
+            "%d/%d positions, %.0f s, about %.0f s to go%n", done,
+            deepest.size(), seconds,
+            seconds / done * (deepest.size() - done)));
+      }
+    }
+    for (int ply = depth - 1; ply >= 0; --ply) {
+      for (Map.Entry<Long, long[]> entry : plies.get(ply).entrySet()) {
+        long[] node = entry.getValue();
+        found.put(entry.getKey(), fromChildren(node[0], node[1], found));
+      }
+    }
+    
+    long[] keys = new long[found.size()];
+    int count = 0;
+    for (Long key : found.keySet()) {
+      keys[count++] = key;
+    }
+    Arrays.sort(keys);
+    byte[] values = new byte[keys.length];
+    for (int i = 0; i < keys.length; ++i) {
+      values[i] = (byte) found.get(keys[i]).intValue();
+    }
+    return new OpeningBook(depth, keys, values);
+  }
+  
+  /* Value of a position from the values of its children. */
+  private static int fromChildren(long position, long mask,
+                                  Map<Long, Integer> found) {
+    int played = Long.bitCount(mask);
+    int best = -PerfectSolver.CELLS;
+    for (int col = 0; col < PerfectSolver.COLUMNS; ++col) {
+      if (!PerfectSolver.canPlay(mask, col)) {
+        continue;
+      }
+      long[] child = PerfectSolver.child(position, mask, col);
+      int score;
+      if (child == null) {
+        // A win, or the last cell.
+        score = played + 1 == PerfectSolver.CELLS ? 0
+                : (PerfectSolver.CELLS + 1 - played) / 2;
+      } else {
+        score = -found.get(PerfectSolver.canonicalKey(child[0], child[1]));
+      }
+      best = Math.max(best, score);
+    }
+    return best;
+  }
+  
+  /**
+   * Read a book.
+   * 
+   * @param in The book, as written by save(). Not closed.
+   * @return the book.
+   * @throws IOException if reading fails or the data is not a book.
+   */
+  static OpeningBook read(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] chunk = new byte[1 << 16];
+    int length;
+    while ((length = in.read(chunk)) != -1) {
+      bytes.write(chunk, 0, length);
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray())
+                                  .order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC
+        || buffer.getInt() != VERSION) {
+      throw new IOException("Not an opening book.");
+    }
+    int depth = buffer.getInt();
+    int count = buffer.getInt();
+    if (count < 0 || buffer.remaining() != 9L * count) {
+      throw new IOException("Corrupt opening book.");
+    }
+    long[] keys = new long[count];
+    buffer.asLongBuffer().get(keys);
+    buffer.position(buffer.position() + 8 * count);
+    byte[] values = new byte[count];
+    buffer.get(values);
+    for (int i = 1; i < count; ++i) {
+      if (keys[i - 1] >= keys[i]) {
+        throw new IOException("Corrupt opening book.");
+      }
+    }
+    return new OpeningBook(depth, keys, values);
+  }
+  
+  /**
+   * Save the book to a file.
+   * 
+   * <p>Format, little-endian: magic "C4OB", version, depth and the number
+   * of entries as 32-bit integers, then the sorted canonical keys as
+   * 64-bit integers, then the values as bytes. Like weights files, the
+   * file is written next to its final place and then moved there.</p>
+   * 
+   * @param path The file to write. Its directory is created if needed.
+   * @throws IOException if writing fails.
+   */
+  void save(Path path) throws IOException {
+    Path parent = path.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path temp = Files.createTempFile(parent, "book", ".tmp");
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 9 * keys.length)
+                                  .order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(depth).putInt(keys.length);
+    for (long key : keys) {
+      buffer.putLong(key);
+    }
+    buffer.put(values);
+    buffer.flip();
+    FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+    try {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } finally {
+      channel.close();
+    }
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+  }
+  
+  private static OpeningBook loadBuiltIn() {
+    InputStream in = OpeningBook.class.getResourceAsStream(RESOURCE);
+    if (in == null) {
+      return EMPTY;
+    }
+    try {
+      try {
+        return read(in);
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      System.err.println("Ignoring opening book: " + e.getMessage());
+      return EMPTY;
+    }
+  }
+  
+  /**
+   * Starting point of the generator.
+   * 
+   * @param args Depth, and optionally the output file.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: book depth [output]");
+      System.exit(2);
+    }
+    int depth = Integer.parseInt(args[0]);
+    Path output = Paths.get(args.length > 1 ? args[1] : RESOURCE);
+    long start = System.nanoTime();
+    OpeningBook book = generate(depth, new PerfectSolver(null), System.out);
+    book.save(output);
+    System.out.printf("%d positions of up to %d checkers in %.1f s%n",
+                      book.size(), depth, (System.nanoTime() - start) / 1e9);
+  }
+}
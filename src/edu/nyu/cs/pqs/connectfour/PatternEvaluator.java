@@ -0,0 +1,315 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.Board;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+
+/**
+ * A learned linear evaluation of Connect-Four positions.
+ * 
+ * <p>Every winNum-length window still open for one player is a pattern,
+ * classified by the number of the player's checkers in it, whether its
+ * lowest empty cell can be played right now, and the parity of that
+ * cell's row. A feature counts the player's patterns of one class minus
+ * the opponent's, and the score is the weighted sum of the features. The
+ * classes do not depend on the board size, so the same features serve
+ * every geometry; only the weights differ. SelfPlayTrainer learns
+ * them.</p>
+ * 
+ * <p>Weights are kept in a small binary file per geometry (see save()),
+ * memory-mapped by load(). trained() loads the files from the weights
+ * directory on first use of each geometry.</p>
+ * 
+ * @author Chenyang Tang
+ */
+final class PatternEvaluator implements AlphaBetaAi.Evaluator {
+  /** Evaluation units per unit of the weighted sum. */
+  static final int SCALE = 1000;
+  /** Directory of weight files, unless set by system property
+   *  connectfour.weights. */
+  static final String DEFAULT_DIRECTORY = "weights";
+  private static final int MAGIC = 0x43345057; // "C4PW"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 6 * 4;
+  private static final int LIMIT = AlphaBetaAi.WIN / 2;
+  
+  private static final ConcurrentMap<String, AlphaBetaAi.Evaluator>
+      loaded = new ConcurrentHashMap<String, AlphaBetaAi.Evaluator>();
+  // Evaluator of trained(): the loaded weights of each geometry.
+  private static final AlphaBetaAi.Evaluator TRAINED =
+      new AlphaBetaAi.Evaluator() {
+        private final AlphaBetaAi.Evaluator fallback = new WindowEvaluator();
+        
+        @Override
+        public int evaluate(Board board, PlayerId player, int winNum) {
+          return forGeometry(board.getColumns(), board.getRows(), winNum)
+                     .evaluate(board, player, winNum);
+        }
+        
+        private AlphaBetaAi.Evaluator forGeometry(
+                                        int columns, int rows, int winNum) {
+          String name = fileName(columns, rows, winNum);
+          AlphaBetaAi.Evaluator evaluator = loaded.get(name);
+          if (evaluator == null) {
+            evaluator = fallback;
+            Path path = defaultPath(columns, rows, winNum);
+            if (Files.isRegularFile(path)) {
+              try {
+                evaluator = load(path);
+              } catch (IOException e) {
+                System.err.println("Ignoring weights " + path + ": "
+                                   + e.getMessage());
+              }
+            }
+            loaded.putIfAbsent(name, evaluator);
+          }
+          return evaluator;
+        }
+      };
+  
+  final int columns;
+  final int rows;
+  final int winNum;
+  private final float[] weights;
+  
+  /**
+   * Construct an evaluator.
+   * 
+   * @param columns Number of columns.
+   * @param rows Number of rows.
+   * @param winNum Number of checkers in a row for winning.
+   * @param weights One weight per feature. Copied.
+   * @throws IllegalArgumentException if the number of weights is not
+   *                                  featureCount(winNum).
+   */
+  PatternEvaluator(int columns, int rows, int winNum, float[] weights)
+                                          throws IllegalArgumentException {
+    if (weights.length != featureCount(winNum)) {
+      throw new IllegalArgumentException("Wrong number of weights.");
+    }
+    this.columns = columns;
+    this.rows = rows;
+    this.winNum = winNum;
+    this.weights = weights.clone();
+  }
+  
+  /**
+   * Get the starting weights for a geometry, before any training.
+   * 
+   * <p>Like WindowEvaluator, a pattern is worth the square of its number
+   * of checkers.</p>
+   * 
+   * @param columns Number of columns.
+   * @param rows Number of rows.
+   * @param winNum Number of checkers in a row for winning.
+   * @return an untrained evaluator.
+   */
+  static PatternEvaluator initial(int columns, int rows, int winNum) {
+    float[] weights = new float[featureCount(winNum)];
+    for (int i = 0; i < weights.length; ++i) {
+      int count = i / 4 + 1;
+      weights[i] = 0.01f * count * count;
+    }
+    return new PatternEvaluator(columns, rows, winNum, weights);
+  }
+  
+  /**
+   * Get the number of features for a winning rule.
+   * 
+   * @param winNum Number of checkers in a row for winning.
+   * @return the number of weights.
+   */
+  static int featureCount(int winNum) {
+    return 4 * Math.max(1, winNum - 1);
+  }
+  
+  /**
+   * Get the weights.
+   * 
+   * @return a copy of the weights.
+   */
+  float[] getWeights() {
+    return weights.clone();
+  }
+  
+  @Override
+  public int evaluate(Board board, PlayerId player, int winNum) {
+    if (winNum != this.winNum) {
+      throw new IllegalArgumentException("Weights are for connect "
+                                         + this.winNum + ".");
+    }
+    float sum = 0;
+    float[] features = new float[weights.length];
+    features(board, player, winNum, features);
+    for (int i = 0; i < weights.length; ++i) {
+      sum += weights[i] * features[i];
+    }
+    long score = Math.round((double) sum * SCALE);
+    return (int) Math.max(-LIMIT, Math.min(LIMIT, score));
+  }
+  
+  /**
+   * Compute the features of a position.
+   * 
+   * @param board The position.
+   * @param player The player to compute the features for, who should be
+   *               the player to move: the weights learn how much a 
+   *               pattern is worth to the side that can use it first. 
+   *               The features for the opponent are the negation.
+   * @param winNum Number of checkers in a row for winning.
+   * @param features Filled with the features, featureCount(winNum) long.
+   */
+  static void features(Board board, PlayerId player, int winNum,
+                       float[] features) {
+    Arrays.fill(features, 0);
+    LineGeometry lines = LineGeometry.forGeometry(
+        board.getColumns(), board.getRows(), winNum);
+    int rows = board.getRows();
+    byte mine = BoardSnapshot.encode(player);
+    int index = 0;
+    for (int line = 0; line < lines.lineCount; ++line) {
+      int own = 0;
+      int other = 0;
+      // Lowest empty cell of the window.
+      int lowest = -1;
+      for (int i = 0; i < winNum; ++i) {
+        int cell = lines.lineCells[index++];
+        byte checker = board.cell(cell);
+        if (checker == mine) {
+          ++own;
+        } else if (checker != 0) {
+          ++other;
+        } else if (lowest == -1 || cell % rows < lowest % rows) {
+          lowest = cell;
+        }
+      }
+      if ((own == 0) == (other == 0)) {
+        continue; // Empty, or blocked for both.
+      }
+      int count = own + other;
+      if (count >= winNum) {
+        continue; // Already won; the search scores that.
+      }
+      int col = lowest / rows;
+      int row = lowest % rows;
+      int playable = board.getTop(col) == row ? 1 : 0;
+      int feature = (count - 1) * 4 + playable * 2 + (row & 1);
+      features[feature] += own > 0 ? 1 : -1;
+    }
+  }
+  
+  /**
+   * Get the evaluator for positions of any geometry.
+   * 
+   * <p>For each geometry, the first evaluation loads the weights file
+   * from the weights directory, falling back to WindowEvaluator if there
+   * is none or it cannot be read.</p>
+   * 
+   * @return a thread-safe evaluator.
+   */
+  static AlphaBetaAi.Evaluator trained() {
+    return TRAINED;
+  }
+  
+  /**
+   * Get the default weights file of a geometry.
+   * 
+   * @param columns Number of columns.
+   * @param rows Number of rows.
+   * @param winNum Number of checkers in a row for winning.
+   * @return the path of the file in the weights directory.
+   */
+  static Path defaultPath(int columns, int rows, int winNum) {
+    return Paths.get(System.getProperty("connectfour.weights",
+                                        DEFAULT_DIRECTORY),
+                     fileName(columns, rows, winNum));
+  }
+  
+  private static String fileName(int columns, int rows, int winNum) {
+    return columns + "x" + rows + "x" + winNum + ".bin";
+  }
+  
+  /**
+   * Load weights from a file by memory-mapping it.
+   * 
+   * @param path The file, as written by save().
+   * @return the evaluator.
+   * @throws IOException if the file cannot be read or is not a weights
+   *                     file.
+   */
+  static PatternEvaluator load(Path path) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      long size = channel.size();
+      if (size < HEADER_BYTES) {
+        throw new IOException("Not a weights file.");
+      }
+      MappedByteBuffer buffer =
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        throw new IOException("Not a weights file.");
+      }
+      int columns = buffer.getInt();
+      int rows = buffer.getInt();
+      int winNum = buffer.getInt();
+      int count = buffer.getInt();
+      if (winNum < 1 || count != featureCount(winNum)
+          || size != HEADER_BYTES + 4L * count) {
+        throw new IOException("Corrupt weights file.");
+      }
+      float[] weights = new float[count];
+      buffer.asFloatBuffer().get(weights);
+      return new PatternEvaluator(columns, rows, winNum, weights);
+    } finally {
+      channel.close();
+    }
+  }
+  
+  /**
+   * Save the weights to a file.
+   * 
+   * <p>Format, little-endian: magic "C4PW", version, columns, rows,
+   * winNum and the number of weights as 32-bit integers, then the weights
+   * as 32-bit floats. The file is written next to its final place and
+   * then moved there, so readers never see half a file.</p>
+   * 
+   * @param path The file to write. Its directory is created if needed.
+   * @throws IOException if writing fails.
+   */
+  void save(Path path) throws IOException {
+    Path parent = path.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path temp = Files.createTempFile(parent, "weights", ".tmp");
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 4 * weights.length)
+                                  .order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(columns).putInt(rows)
+          .putInt(winNum).putInt(weights.length);
+    for (float weight : weights) {
+      buffer.putFloat(weight);
+    }
+    buffer.flip();
+    FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+    try {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } finally {
+      channel.close();
+    }
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+  }
+}
@@ -0,0 +1,541 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.Board;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.ColumnScorer;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.ConnectFourAi;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.NodeCounter;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+
+/**
+ * An exact solver of standard Connect Four: 7 columns, 6 rows, 4 to win.
+ * 
+ * <p>solve() gives the game value of each column: 0 for a draw, a
+ * positive score for a win of the player to move, negative for a loss.
+ * A win with the player's k-th checker from the end of the board scores
+ * k, so faster wins score higher: the first player wins with 1 after
+ * playing all 21 checkers, and with 18 with the 4th.</p>
+ * 
+ * <p>The position is kept as two 49-bit bitboards, a column of 6 cells
+ * plus one sentinel bit to the column, so winning lines and playable
+ * cells are found with a few shifts and ANDs. The search is a negamax
+ * with null windows: the value is bracketed by a series of yes/no
+ * searches (is the score above s?), which prune far more than one search
+ * with a full window. Moves that lose at once are never searched, the
+ * others are tried in order of the number of threats they create,
+ * central columns first on ties. Bounds are kept in a transposition
+ * table keyed by the exact position, which is also checked for the
+ * children of a position before any of them is searched, in case one
+ * cuts off at once (enhanced transposition cutoffs). Positions of the
+ * first few moves are looked up in the OpeningBook, if one is
+ * installed, instead of searched, as their searches take far too
+ * long.</p>
+ * 
+ * <p>The table takes about 40 MB, so keep and reuse solvers rather than
+ * making one per move; what it learns speeds up later solves of nearby
+ * positions, too. Solving is synchronized, so one solver can serve 
+ * several callers.</p>
+ * 
+ * <p>As a tool, prints the scores of the positions given as move 
+ * sequences on the command line, or one per line on standard input:</p>
+ * 
+ * <pre>
+ * java -jar ConnectFour.jar solve 4453 44
+ * </pre>
+ * 
+ * @author Chenyang Tang
+ */
+final class PerfectSolver implements ConnectFourAi, ColumnScorer, 
+                                    NodeCounter {
+  /** The only geometry solved. */
+  static final int COLUMNS = 7;
+  static final int ROWS = 6;
+  static final int WIN_NUM = 4;
+  static final int CELLS = COLUMNS * ROWS;
+  /** Bounds of all scores. */
+  static final int MIN_SCORE = -CELLS / 2;
+  static final int MAX_SCORE = (CELLS + 1) / 2;
+  
+  private static final int HEIGHT = ROWS + 1;
+  private static final long BOTTOM = bottom();
+  private static final long BOARD = BOTTOM * ((1L << ROWS) - 1);
+  // Columns in the order they are tried: center first.
+  private static final int[] ORDER = { 3, 2, 4, 1, 5, 0, 6 };
+  // A prime, so that the low 32 bits of a key and its slot identify the
+  // 49-bit key.
+  private static final int TABLE_SIZE = (1 << 23) + 9;
+  // Checkers played below which the children are looked up in the table
+  // before searching: the lookups cost more than they save near the end.
+  private static final int CUTOFF_PLIES = 30;
+  
+  // Low 32 bits of the keys (position + mask + BOTTOM, never 0 for a
+  // stored position) and their bound values, 0 for none.
+  private final int[] tableKeys = new int[TABLE_SIZE];
+  private final byte[] tableValues = new byte[TABLE_SIZE];
+  private final OpeningBook book;
+  // Move lists and their sort keys for each ply.
+  private final long[][] moves = new long[CELLS + 1][COLUMNS];
+  private final int[][] moveScores = new int[CELLS + 1][COLUMNS];
+  private long nodes = 0;
+  
+  /**
+   * Construct a solver using the built-in opening book.
+   */
+  PerfectSolver() {
+    this(OpeningBook.getInstance());
+  }
+  
+  /**
+   * Construct a solver.
+   * 
+   * @param book The opening book, or null to search every position.
+   */
+  PerfectSolver(OpeningBook book) {
+    this.book = book;
+  }
+  
+  /**
+   * Check whether a geometry is the one the solver solves.
+   * 
+   * @param columns Number of columns.
+   * @param rows Number of rows.
+   * @param winNum Number of checkers in a row for winning.
+   * @return true for 7 columns, 6 rows and 4 to win.
+   */
+  static boolean solves(int columns, int rows, int winNum) {
+    return columns == COLUMNS && rows == ROWS && winNum == WIN_NUM;
+  }
+  
+  /**
+   * Compute the exact value of each column.
+   * 
+   * @param board The position, 7 columns by 6 rows. It must not have a
+   *              line of four already.
+   * @param player The player to move.
+   * @return the score of each column, NO_MOVE for full columns.
+   * @throws IllegalArgumentException if the board is not 7 by 6.
+   */
+  synchronized int[] solve(Board board, PlayerId player)
+                                          throws IllegalArgumentException {
+    return solve(checkers(board, player), checkers(board, null));
+  }
+  
+  /* Bitboard of the checkers of a player, or of all checkers if null. */
+  private static long checkers(Board board, PlayerId player) {
+    if (board.getColumns() != COLUMNS || board.getRows() != ROWS) {
+      throw new IllegalArgumentException("Only 7 by 6 boards are solved.");
+    }
+    long bits = 0;
+    for (int col = 0; col < COLUMNS; ++col) {
+      for (int row = 0; row < ROWS; ++row) {
+        PlayerId checker = board.get(col, row);
+        if (checker != null && (player == null || checker == player)) {
+          bits |= 1L << (col * HEIGHT + row);
+        }
+      }
+    }
+    return bits;
+  }
+  
+  /**
+   * Compute the exact value of each column.
+   * 
+   * @param moves The moves played from the empty board, as column
+   *              numbers from 1 to 7, e.g. "4453".
+   * @return the score of each column for the player to move, NO_MOVE
+   *         for full columns.
+   * @throws IllegalArgumentException if the moves are not valid or the
+   *                                  game is over.
+   */
+  synchronized int[] solve(String moves) throws IllegalArgumentException {
+    long position = 0;
+    long mask = 0;
+    for (int i = 0; i < moves.length(); ++i) {
+      int col = moves.charAt(i) - '1';
+      if (col < 0 || col >= COLUMNS || !canPlay(mask, col)) {
+        throw new IllegalArgumentException("Invalid move " + (i + 1)
+                                           + " in " + moves + ".");
+      }
+      long move = (mask + bottomCell(col)) & column(col);
+      if ((winningCells(position, mask) & move) != 0) {
+        throw new IllegalArgumentException("Game already won in " + moves
+                                           + ".");
+      }
+      position ^= mask;
+      mask |= move;
+    }
+    return solve(position, mask);
+  }
+  
+  /* The scores of each column, by solving every child. */
+  private synchronized int[] solve(long position, long mask) {
+    int played = Long.bitCount(mask);
+    int[] scores = new int[COLUMNS];
+    long wins = winningCells(position, mask);
+    for (int col = 0; col < COLUMNS; ++col) {
+      if (!canPlay(mask, col)) {
+        scores[col] = NO_MOVE;
+        continue;
+      }
+      long move = (mask + bottomCell(col)) & column(col);
+      if ((wins & move) != 0) {
+        scores[col] = (CELLS + 1 - played) / 2;
+      } else if (played + 1 == CELLS) {
+        scores[col] = 0;
+      } else {
+        scores[col] = -value(position ^ mask, mask | move);
+      }
+    }
+    return scores;
+  }
+  
+  @Override
+  public synchronized long getNodes() {
+    return nodes;
+  }
+  
+  /**
+   * Remove all bounds learned by previous searches.
+   */
+  synchronized void clear() {
+    Arrays.fill(tableKeys, 0);
+    Arrays.fill(tableValues, (byte) 0);
+  }
+  
+  /**
+   * Decides the best column: the fastest win, else a draw, else the
+   * slowest loss, central columns first among equals.
+   * 
+   * @throws IllegalArgumentException if the geometry is not 7x6, 4 to win.
+   */
+  @Override
+  public int decideMove(Board board, PlayerId player, int winNum)
+                                          throws IllegalArgumentException {
+    return bestColumn(scoreColumns(board, player, winNum));
+  }
+  
+  /**
+   * @throws IllegalArgumentException if the geometry is not 7x6, 4 to win.
+   */
+  @Override
+  public int[] scoreColumns(Board board, PlayerId player, int winNum)
+                                          throws IllegalArgumentException {
+    if (winNum != WIN_NUM) {
+      throw new IllegalArgumentException("Only connect four is solved.");
+    }
+    return solve(board, player);
+  }
+  
+  /* Best column of the scores, -1 if none. */
+  private static int bestColumn(int[] scores) {
+    int best = -1;
+    for (int col : ORDER) {
+      if (scores[col] != NO_MOVE
+          && (best == -1 || scores[col] > scores[best])) {
+        best = col;
+      }
+    }
+    return best;
+  }
+  
+  /**
+   * Compute the exact value of a position.
+   * 
+   * @param position Bitboard of the checkers of the player to move.
+   * @param mask Bitboard of all checkers, fewer than 42.
+   * @return the score for the player to move.
+   */
+  synchronized int value(long position, long mask) {
+    int played = Long.bitCount(mask);
+    if ((winningCells(position, mask) & (mask + BOTTOM) & BOARD) != 0) {
+      return (CELLS + 1 - played) / 2;
+    }
+    if (book != null && played <= book.getDepth()) {
+      int stored = book.get(position, mask);
+      if (stored != OpeningBook.UNKNOWN) {
+        return stored;
+      }
+    }
+    int min = -(CELLS - played) / 2;
+    int max = (CELLS + 1 - played) / 2;
+    while (min < max) {
+      // Probe around zero first: most positions are close to a draw.
+      int middle = min + (max - min) / 2;
+      if (middle <= 0 && min / 2 < middle) {
+        middle = min / 2;
+      } else if (middle >= 0 && max / 2 > middle) {
+        middle = max / 2;
+      }
+      int score = negamax(position, mask, played, middle, middle + 1);
+      if (score <= middle) {
+        max = score;
+      } else {
+        min = score;
+      }
+    }
+    return min;
+  }
+  
+  /* Negamax with alpha-beta pruning, for a position where the player to
+   * move cannot win at once. Returns the exact score if it is within
+   * (alpha, beta), else a bound on the side of the window it fell. */
+  private int negamax(long position, long mask, int played,
+                      int alpha, int beta) {
+    ++nodes;
+    long possible = (mask + BOTTOM) & BOARD;
+    long threats = winningCells(position ^ mask, mask);
+    long forced = possible & threats;
+    if (forced != 0) {
+      if ((forced & (forced - 1)) != 0) {
+        // Two threats of the opponent: lost.
+        return -(CELLS - played) / 2;
+      }
+      possible = forced;
+    }
+    // Never play right below a threat of the opponent.
+    possible &= ~(threats >>> 1);
+    if (possible == 0) {
+      return -(CELLS - played) / 2;
+    }
+    if (played >= CELLS - 2) {
+      return 0; // Draw: neither player can win with the last checkers.
+    }
+    // Can't lose before the opponent's next move.
+    int min = -(CELLS - 2 - played) / 2;
+    if (alpha < min) {
+      alpha = min;
+      if (alpha >= beta) {
+        return alpha;
+      }
+    }
+    int max = (CELLS - 1 - played) / 2;
+    long key = position + mask + BOTTOM;
+    int slot = (int) (key % TABLE_SIZE);
+    if (tableKeys[slot] == (int) key) {
+      // Upper bounds are stored as 1 to 43, lower bounds above.
+      int value = tableValues[slot];
+      if (value > MAX_SCORE - MIN_SCORE + 1) {
+        min = value + 2 * MIN_SCORE - MAX_SCORE - 2;
+        if (alpha < min) {
+          alpha = min;
+          if (alpha >= beta) {
+            return alpha;
+          }
+        }
+      } else if (value > 0) {
+        max = value + MIN_SCORE - 1;
+        if (beta > max) {
+          beta = max;
+          if (alpha >= beta) {
+            return beta;
+          }
+        }
+      }
+    }
+    if (book != null && played <= book.getDepth()) {
+      int stored = book.get(position, mask);
+      if (stored != OpeningBook.UNKNOWN) {
+        return stored;
+      }
+    }
+    if (beta > max) {
+      beta = max;
+      if (alpha >= beta) {
+        return beta;
+      }
+    }
+    if (played < CUTOFF_PLIES) {
+      // A child whose value is known to be low enough cuts off at once.
+      for (int col = 0; col < COLUMNS; ++col) {
+        long move = possible & column(col);
+        if (move != 0) {
+          long childKey = (position ^ mask) + (mask | move) + BOTTOM;
+          int childSlot = (int) (childKey % TABLE_SIZE);
+          int value = tableValues[childSlot];
+          if (tableKeys[childSlot] == (int) childKey && value > 0
+              && value <= MAX_SCORE - MIN_SCORE + 1) {
+            int score = -(value + MIN_SCORE - 1);
+            if (score >= beta) {
+              return score;
+            }
+          }
+        }
+      }
+    }
+    // Sort the moves by the threats they create, by insertion.
+    long[] list = moves[played];
+    int[] sortKeys = moveScores[played];
+    int count = 0;
+    for (int i = ORDER.length - 1; i >= 0; --i) {
+      long move = possible & column(ORDER[i]);
+      if (move != 0) {
+        int score = Long.bitCount(
+            winningCells(position | move, mask) & (BOARD ^ (mask | move)));
+        int j = count++;
+        for (; j > 0 && sortKeys[j - 1] > score; --j) {
+          list[j] = list[j - 1];
+          sortKeys[j] = sortKeys[j - 1];
+        }
+        list[j] = move;
+        sortKeys[j] = score;
+      }
+    }
+    for (int i = count - 1; i >= 0; --i) {
+      long move = list[i];
+      int score = -negamax(position ^ mask, mask | move, played + 1,
+                           -beta, -alpha);
+      if (score >= beta) {
+        tableKeys[slot] = (int) key;
+        tableValues[slot] = (byte) (score + MAX_SCORE - 2 * MIN_SCORE + 2);
+        return score;
+      }
+      if (score > alpha) {
+        alpha = score;
+      }
+    }
+    tableKeys[slot] = (int) key;
+    tableValues[slot] = (byte) (alpha - MIN_SCORE + 1);
+    return alpha;
+  }
+  
+  /**
+   * Find the empty cells that would complete a line of four for a player.
+   * 
+   * @param position The player's checkers.
+   * @param mask All checkers.
+   * @return the cells, playable or not.
+   */
+  static long winningCells(long position, long mask) {
+    // Vertical.
+    long r = (position << 1) & (position << 2) & (position << 3);
+    r |= lines(position, HEIGHT); // Horizontal.
+    r |= lines(position, HEIGHT - 1); // Diagonal, down to the right.
+    r |= lines(position, HEIGHT + 1); // Diagonal, up to the right.
+    return r & (BOARD ^ mask);
+  }
+  
+  /* Cells completing a line of a direction, given as the bit distance of
+   * neighbouring cells. */
+  private static long lines(long position, int shift) {
+    long p = (position << shift) & (position << 2 * shift);
+    long r = p & (position << 3 * shift);
+    r |= p & (position >>> shift);
+    p = (position >>> shift) & (position >>> 2 * shift);
+    r |= p & (position << shift);
+    r |= p & (position >>> 3 * shift);
+    return r;
+  }
+  
+  /**
+   * Get the key of a position shared with its mirror image.
+   * 
+   * @param position Bitboard of the checkers of the player to move.
+   * @param mask Bitboard of all checkers.
+   * @return the smaller of the keys of the position and its mirror image.
+   */
+  static long canonicalKey(long position, long mask) {
+    long key = position + mask + BOTTOM;
+    long mirrored = 0;
+    for (int col = 0; col < COLUMNS; ++col) {
+      mirrored |= ((key >>> (col * HEIGHT)) & ((1L << HEIGHT) - 1))
+                  << ((COLUMNS - 1 - col) * HEIGHT);
+    }
+    return Math.min(key, mirrored);
+  }
+  
+  /**
+   * Check whether a column has room for a checker.
+   * 
+   * @param mask Bitboard of all checkers.
+   * @param col The column.
+   * @return true if the column is not full.
+   */
+  static boolean canPlay(long mask, int col) {
+    return (mask & topCell(col)) == 0;
+  }
+  
+  /**
+   * Play a move that does not end the game.
+   * 
+   * @param position Bitboard of the checkers of the player to move.
+   * @param mask Bitboard of all checkers.
+   * @param col The column to play.
+   * @return the position and mask after the move, or null if the column 
+   *         is full or the move wins or fills the board.
+   */
+  static long[] child(long position, long mask, int col) {
+    if (!canPlay(mask, col) || Long.bitCount(mask) + 1 == CELLS) {
+      return null;
+    }
+    long move = (mask + bottomCell(col)) & column(col);
+    if ((winningCells(position, mask) & move) != 0) {
+      return null;
+    }
+    return new long[] { position ^ mask, mask | move };
+  }
+  
+  private static long bottom() {
+    long bottom = 0;
+    for (int col = 0; col < COLUMNS; ++col) {
+      bottom |= 1L << (col * HEIGHT);
+    }
+    return bottom;
+  }
+  
+  private static long bottomCell(int col) {
+    return 1L << (col * HEIGHT);
+  }
+  
+  private static long topCell(int col) {
+    return 1L << (ROWS - 1 + col * HEIGHT);
+  }
+  
+  private static long column(int col) {
+    return ((1L << ROWS) - 1) << (col * HEIGHT);
+  }
+  
+  /**
+   * Starting point of the tool.
+   * 
+   * @param args Move sequences, or none to read them from standard input.
+   */
+  public static void main(String[] args) throws IOException {
+    List<String> positions = new ArrayList<String>(Arrays.asList(args));
+    if (positions.isEmpty()) {
+      BufferedReader in = 
+          new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+      String line;
+      while ((line = in.readLine()) != null) {
+        if (!line.trim().isEmpty()) {
+          positions.add(line.trim());
+        }
+      }
+    }
+    PerfectSolver solver = new PerfectSolver();
+    for (String moves : positions) {
+      long start = System.nanoTime();
+      long nodesBefore = solver.getNodes();
+      int[] scores;
+      try {
+        scores = solver.solve(moves);
+      } catch (IllegalArgumentException e) {
+        System.out.println(moves + ": " + e.getMessage());
+        continue;
+      }
+      StringBuilder line = new StringBuilder(moves).append(':');
+      for (int score : scores) {
+        line.append(' ').append(score == NO_MOVE ? "-" 
+                                : Integer.toString(score));
+      }
+      System.out.printf("%s  (%d nodes, %.1f ms)%n", line, 
+                        solver.getNodes() - nodesBefore, 
+                        (System.nanoTime() - start) / 1e6);
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+
+/**
+ * Game tree counting ("perft") for checking move generation and win 
+ * detection.
+ * 
+ * <p>Usage: <code>Perft columns rows winNum depth [moves] [threads]</code>
+ * counts the game tree from the position reached by moves (as accepted 
+ * by BatchAnalyzer, "-" for the empty board). <code>Perft --check</code>
+ * recounts every entry of the reference table and reports mismatches.</p>
+ * 
+ * <p>The counts of depth N are: the number of move sequences of exactly N
+ * moves (games stop when they end, so finished games are not extended), 
+ * and the number of sequences of at most N moves that end in a win or in 
+ * a full board. Root moves are counted in parallel. Any change to 
+ * ScratchBoard or ConnectFourModel.checkWin() must leave the reference 
+ * counts unchanged.</p>
+ * 
+ * @author Chenyang Tang
+ */
+public class Perft {
+  /* Reference counts of the game tree from the empty board:
+   * { columns, rows, winNum, depth, nodes, wins, draws }.
+   * Recorded with the directional-scan checkWin(). */
+  static final long[][] REFERENCE = {
+    { 3, 3, 3, 9, 622, 1002, 308 },
+    { 4, 4, 3, 16, 334040, 3191608, 217632 },
+    { 5, 4, 4, 10, 7738740, 184680, 0 },
+    { 6, 5, 4, 8, 1644750, 17820, 0 },
+    { 7, 6, 4, 8, 5673234, 57462, 0 },
+    { 18, 10, 10, 4, 104976, 0, 0 },
+  };
+  
+  /**
+   * Counts of one game tree.
+   * 
+   * @author Chenyang Tang
+   */
+  static final class Counts {
+    long nodes;
+    long wins;
+    long draws;
+    
+    void add(Counts other) {
+      nodes += other.nodes;
+      wins += other.wins;
+      draws += other.draws;
+    }
+    
+    @Override
+    public String toString() {
+      return "nodes " + nodes + ", wins " + wins + ", draws " + draws;
+    }
+  }
+  
+  private Perft() {}
+  
+  /**
+   * Starting point.
+   * 
+   * @param args See the class documentation.
+   */
+  public static void main(String[] args) throws InterruptedException {
+    int threads = Runtime.getRuntime().availableProcessors();
+    if (args.length == 1 && args[0].equals("--check")) {
+      System.exit(check(threads) ? 0 : 1);
+    }
+    if (args.length < 4) {
+      System.err.println(
+          "Usage: Perft columns rows winNum depth [moves] [threads]\n"
+          + "       Perft --check");
+      System.exit(2);
+    }
+    int columns = Integer.parseInt(args[0]);
+    int rows = Integer.parseInt(args[1]);
+    int winNum = Integer.parseInt(args[2]);
+    int depth = Integer.parseInt(args[3]);
+    String moves = args.length > 4 ? args[4] : "-";
+    if (args.length > 5) {
+      threads = Integer.parseInt(args[5]);
+    }
+    ScratchBoard board = BatchAnalyzer.replay(columns, rows, winNum, moves);
+    for (int d = 1; d <= depth; ++d) {
+      long start = System.nanoTime();
+      Counts counts = count(board, winNum, d, threads);
+      report("depth " + d, counts, System.nanoTime() - start);
+    }
+  }
+  
+  /**
+   * Count the game tree from a position, one thread per root move.
+   * 
+   * @param board The position. Not modified.
+   * @param winNum Number of checkers in a row for winning.
+   * @param depth Number of moves to count to.
+   * @param threads Number of threads.
+   * @return the counts.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  static Counts count(ScratchBoard board, final int winNum, final int depth,
+                      int threads) throws InterruptedException {
+    final Counts total = new Counts();
+    if (depth == 0) {
+      total.nodes = 1;
+      return total;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Counts>> results = new ArrayList<Future<Counts>>();
+      for (int col = 0; col < board.getColumns(); ++col) {
+        if (!board.canPlay(col)) {
+          continue;
+        }
+        final int root = col;
+        final ScratchBoard copy = board.snapshot().scratch(board.getToMove());
+        results.add(pool.submit(new Callable<Counts>() {
+          @Override
+          public Counts call() {
+            Counts counts = new Counts();
+            countMove(copy, root, winNum, depth, counts);
+            return counts;
+          }
+        }));
+      }
+      for (Future<Counts> result : results) {
+        total.add(result.get());
+      }
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+    return total;
+  }
+  
+  /* Counts the tree below playing col, with depth moves left 
+   * including col. */
+  private static void countMove(ScratchBoard board, int col, int winNum, 
+                                int depth, Counts counts) {
+    if (depth == 1) {
+      ++counts.nodes;
+    }
+    if (ConnectFourModel.checkWin(
+            board, col, board.getTop(col), board.getToMove(), winNum)) {
+      ++counts.wins;
+      return;
+    }
+    board.play(col);
+    if (board.isFull()) {
+      ++counts.draws;
+    } else if (depth > 1) {
+      for (int next = 0; next < board.getColumns(); ++next) {
+        if (board.canPlay(next)) {
+          countMove(board, next, winNum, depth - 1, counts);
+        }
+      }
+    }
+    board.unplay();
+  }
+  
+  /* Recounts the reference table. */
+  private static boolean check(int threads) throws InterruptedException {
+    boolean ok = true;
+    for (long[] entry : REFERENCE) {
+      ScratchBoard board = new ScratchBoard(
+          (int) entry[0], (int) entry[1], PlayerId.PLAYER1);
+      long start = System.nanoTime();
+      Counts counts = count(board, (int) entry[2], (int) entry[3], threads);
+      boolean match = counts.nodes == entry[4] && counts.wins == entry[5]
+                      && counts.draws == entry[6];
+      ok &= match;
+      report((match ? "OK       " : "MISMATCH ") + entry[0] + "x" + entry[1]
+             + " connect " + entry[2] + " depth " + entry[3], 
+             counts, System.nanoTime() - start);
+    }
+    return ok;
+  }
+  
+  private static void report(String title, Counts counts, long nanos) {
+    System.out.printf("%s: %s (%.0f nodes/s)%n", title, counts, 
+                      nanos > 0 ? counts.nodes * 1e9 / nanos : 0.0);
+  }
+}
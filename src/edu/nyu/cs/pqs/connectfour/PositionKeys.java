@@ -0,0 +1,118 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+
+/**
+ * Zobrist keys used to hash Connect-Four positions.
+ * 
+ * <p>Every (slot, player) pair of a board geometry gets a fixed random 
+ * 64-bit key, and the hash of a position is the XOR of the keys of all 
+ * checkers on the board, so it can be updated incrementally whenever a 
+ * checker is set or removed.</p>
+ * 
+ * <p>Positions are left/right symmetric, so a board and its horizontal 
+ * mirror image have the same game value. A board keeps the hash of itself 
+ * and of its mirror; the smaller of the two is the canonical key. Any 
+ * cache of positions (transposition table, opening book, statistics) must 
+ * be keyed by the canonical key, and must mirror stored columns with 
+ * mirrorColumn() when the board is not in canonical orientation.</p>
+ * 
+ * <p>Keys are generated from a fixed seed, so they are identical across 
+ * runs and can be written to disk. Use forGeometry() to get the shared 
+ * instance of a geometry.</p>
+ * 
+ * @author Chenyang Tang
+ */
+final class PositionKeys {
+  private static final ConcurrentMap<Long, PositionKeys> CACHE = 
+      new ConcurrentHashMap<Long, PositionKeys>();
+  private static final long SEED = 0x436F6E6E656374L; // "Connect"
+  
+  private final int columns;
+  private final int rows;
+  // Indexed by (col * rows + row).
+  private final long[] keys1;
+  private final long[] keys2;
+  
+  /**
+   * Get the keys of a board geometry.
+   * 
+   * @param columns Number of columns of the board.
+   * @param rows Number of rows of the board.
+   * @return the shared PositionKeys of the geometry.
+   */
+  static PositionKeys forGeometry(int columns, int rows) {
+    Long geometry = ((long) columns << 32) | rows;
+    PositionKeys keys = CACHE.get(geometry);
+    if (keys == null) {
+      keys = new PositionKeys(columns, rows);
+      PositionKeys existing = CACHE.putIfAbsent(geometry, keys);
+      if (existing != null) {
+        keys = existing;
+      }
+    }
+    return keys;
+  }
+  
+  private PositionKeys(int columns, int rows) {
+    this.columns = columns;
+    this.rows = rows;
+    Random random = new Random(SEED ^ (columns * 31L + rows));
+    keys1 = new long[columns * rows];
+    keys2 = new long[columns * rows];
+    for (int i = 0; i < keys1.length; ++i) {
+      keys1[i] = random.nextLong();
+      keys2[i] = random.nextLong();
+    }
+  }
+  
+  /**
+   * Get the key of a checker of the player at (col, row).
+   * 
+   * @param col The column of the checker.
+   * @param row The row of the checker.
+   * @param player The owner of the checker.
+   * @return the key to XOR into the position hash.
+   */
+  long key(int col, int row, PlayerId player) {
+    int index = col * rows + row;
+    return player == PlayerId.PLAYER1 ? keys1[index] : keys2[index];
+  }
+  
+  /**
+   * Get the key of a checker at (col, row) in the mirrored board.
+   * 
+   * @param col The column of the checker.
+   * @param row The row of the checker.
+   * @param player The owner of the checker.
+   * @return the key to XOR into the mirrored position hash.
+   */
+  long mirrorKey(int col, int row, PlayerId player) {
+    return key(columns - 1 - col, row, player);
+  }
+  
+  /**
+   * Get the column that corresponds to col in the mirrored board.
+   * 
+   * @param col A column.
+   * @return the mirrored column.
+   */
+  int mirrorColumn(int col) {
+    return columns - 1 - col;
+  }
+  
+  /**
+   * Get the canonical key of a position.
+   * 
+   * @param hash Hash of the position.
+   * @param mirrorHash Hash of the mirrored position.
+   * @return the smaller of the two.
+   */
+  static long canonical(long hash, long mirrorHash) {
+    return Math.min(hash, mirrorHash);
+  }
+}
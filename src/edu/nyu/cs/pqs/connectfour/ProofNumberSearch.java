@@ -0,0 +1,395 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.Board;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+
+/**
+ * Depth-first proof-number search (df-pn) for forced wins.
+ *
+ * <p>prove() answers one question: can the player to move force a win?
+ * Unlike alpha-beta, the search is not limited by depth but by the number
+ * of positions it visits. It always expands the position that is cheapest
+ * to settle, so on large boards with long lines it follows narrow chains
+ * of threats and forced replies far beyond any full-width horizon.</p>
+ *
+ * <p>Each position has two numbers from the point of view of its player
+ * to move: phi, the least number of positions still to settle to show
+ * the player reaches his goal, and delta, the same to show he does not.
+ * The attacker's goal is to win, the defender's to not lose, so a full
+ * board counts for the defender. A player with a winning move reaches
+ * his goal at once, and a player facing two winning moves of the
+ * opponent does not; a player facing one must block it.</p>
+ *
+ * <p>On boards of SCAN_COLUMNS columns or more, the winning moves of
+ * both players are found with a BitboardScanner kept in step with the
+ * search, which checks whole rows at once instead of one column at a
+ * time.</p>
+ *
+ * <p>The numbers live in a direct-mapped table of fixed size keyed by
+ * canonical position key, so memory stays bounded however long the
+ * search runs. A replaced entry is only searched again. Entries of an
+ * earlier prove() are ignored, so the search can be reused without
+ * clearing the table.</p>
+ *
+ * <p>A search belongs to one thread. Keep and reuse it: the table is
+ * allocated once.</p>
+ *
+ * @author Chenyang Tang
+ */
+final class ProofNumberSearch {
+  /** Default log2 of the table size: 1M entries, 20 MB. */
+  static final int DEFAULT_TABLE_SIZE_LOG2 = 20;
+  /** Least number of columns for which a BitboardScanner is used. */
+  static final int SCAN_COLUMNS = 64;
+  private static final int INF = 100000000;
+
+  private final long[] keys;
+  private final int[] phis;
+  private final int[] deltas;
+  private final int[] generations;
+  private final int mask;
+  private int generation = 0;
+
+  // State of the running search.
+  private ScratchBoard board;
+  private LineGeometry geometry;
+  // The board as bitmasks on wide boards, else null.
+  private BitboardScanner scanner;
+  private final int[] threatColumns = new int[1];
+  private PlayerId attacker;
+  private int maxDepth;
+  private long nodeLimit;
+  private long nodes;
+  private boolean aborted;
+  // Column of the last position settled at the root, -1 if none.
+  private int rootMove;
+  // Children of each ply: columns, then their phi and delta.
+  private int[][] children;
+  private int[][] childPhis;
+  private int[][] childDeltas;
+
+  /**
+   * Outcome of a search.
+   *
+   * @author Chenyang Tang
+   */
+  enum Outcome {
+    /** The player to move can force a win. */
+    PROVEN,
+    /** The player to move cannot force a win within the maximum depth. */
+    DISPROVEN,
+    /** The node limit was reached first. */
+    UNKNOWN
+  }
+
+  /**
+   * Result of prove().
+   *
+   * @author Chenyang Tang
+   */
+  static final class Result {
+    /** The answer. */
+    final Outcome outcome;
+    /** A winning column if PROVEN, else -1. */
+    final int move;
+    /** Number of positions expanded. */
+    final long nodes;
+    /** Number of distinct positions in the proof, -1 if not proven or
+     *  if parts of it were pushed out of the table. */
+    final int proofSize;
+    /** Time taken, in nanoseconds. */
+    final long nanos;
+
+    Result(Outcome outcome, int move, long nodes, int proofSize,
+           long nanos) {
+      this.outcome = outcome;
+      this.move = move;
+      this.nodes = nodes;
+      this.proofSize = proofSize;
+      this.nanos = nanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s move %d, %d nodes, proof size %d, %.1f ms",
+                           outcome, move, nodes, proofSize, nanos / 1e6);
+    }
+  }
+
+  /**
+   * Construct a search with a table of the default size.
+   */
+  ProofNumberSearch() {
+    this(DEFAULT_TABLE_SIZE_LOG2);
+  }
+
+  /**
+   * Construct a search.
+   *
+   * @param sizeLog2 Log2 of the number of table entries, within [1, 30].
+   *                 Each entry takes 20 bytes.
+   * @throws IllegalArgumentException if the size is out of range.
+   */
+  ProofNumberSearch(int sizeLog2) throws IllegalArgumentException {
+    if (sizeLog2 < 1 || sizeLog2 > 30) {
+      throw new IllegalArgumentException("Table size out of range.");
+    }
+    keys = new long[1 << sizeLog2];
+    phis = new int[1 << sizeLog2];
+    deltas = new int[1 << sizeLog2];
+    generations = new int[1 << sizeLog2];
+    mask = (1 << sizeLog2) - 1;
+  }
+
+  /**
+   * Search for a forced win of the player to move.
+   *
+   * @param position The position. Not modified.
+   * @param player The player to move.
+   * @param winNum The winning rule. (Number of consecutive checkers).
+   * @param nodeLimit The most positions to expand.
+   * @param maxDepth The most moves to look ahead; deeper positions count
+   *                 as not won.
+   * @return the result.
+   */
+  Result prove(Board position, PlayerId player, int winNum, long nodeLimit,
+               int maxDepth) {
+    long start = System.nanoTime();
+    board = ScratchBoard.copyOf(position, player);
+    geometry = LineGeometry.forGeometry(board.getColumns(), board.getRows(),
+                                        winNum);
+    scanner = board.getColumns() >= SCAN_COLUMNS 
+              ? new BitboardScanner(board) : null;
+    attacker = player;
+    this.maxDepth = maxDepth;
+    this.nodeLimit = nodeLimit;
+    nodes = 0;
+    aborted = false;
+    rootMove = -1;
+    // Generation 0 marks empty slots.
+    if (++generation == 0) {
+      ++generation;
+    }
+    int plies = Math.min(maxDepth, board.getColumns() * board.getRows()) + 1;
+    if (children == null || children.length < plies
+        || children[0].length < board.getColumns()) {
+      children = new int[plies][board.getColumns()];
+      childPhis = new int[plies][board.getColumns()];
+      childDeltas = new int[plies][board.getColumns()];
+    }
+
+    int[] root = search(0, INF, INF);
+    Outcome outcome = aborted ? Outcome.UNKNOWN
+                      : root[0] == 0 ? Outcome.PROVEN : Outcome.DISPROVEN;
+    int move = outcome == Outcome.PROVEN ? rootMove : -1;
+    int proofSize = -1;
+    if (outcome == Outcome.PROVEN) {
+      proofSize = proofSize(0, new HashSet<Long>());
+    }
+    board = null;
+    scanner = null;
+    return new Result(outcome, move, nodes, proofSize,
+                      System.nanoTime() - start);
+  }
+
+  /* Searches the position at a ply until its phi reaches thPhi or its
+   * delta reaches thDelta. Returns {phi, delta}. */
+  private int[] search(int ply, int thPhi, int thDelta) {
+    ++nodes;
+    PlayerId mover = board.getToMove();
+    int count = expand(ply, mover);
+    if (count <= 0) {
+      int[] settled = count == 0 ? new int[] { 0, INF }
+                                 : new int[] { INF, 0 };
+      store(settled[0], settled[1]);
+      return settled;
+    }
+    int[] columns = children[ply];
+    int[] phi = childPhis[ply];
+    int[] delta = childDeltas[ply];
+    while (true) {
+      // The player reaches his goal if one child fails to reach the
+      // opponent's, and fails if every child reaches it.
+      int best = 0;
+      int second = INF;
+      int sum = 0;
+      for (int i = 0; i < count; ++i) {
+        sum = Math.min(INF, sum + phi[i]);
+        if (delta[i] < delta[best]) {
+          second = delta[best];
+          best = i;
+        } else if (i != best && delta[i] < second) {
+          second = delta[i];
+        }
+      }
+      int nodePhi = delta[best];
+      int nodeDelta = sum;
+      if (ply == 0) {
+        rootMove = columns[best];
+      }
+      if (nodePhi >= thPhi || nodeDelta >= thDelta || aborted) {
+        store(nodePhi, nodeDelta);
+        return new int[] { nodePhi, nodeDelta };
+      }
+      if (nodes >= nodeLimit) {
+        aborted = true;
+        continue;
+      }
+      int childThPhi = Math.min(INF, thDelta - (nodeDelta - phi[best]));
+      int childThDelta = Math.min(thPhi, second + 1);
+      play(columns[best]);
+      int[] child = search(ply + 1, childThPhi, childThDelta);
+      unplay();
+      phi[best] = child[0];
+      delta[best] = child[1];
+    }
+  }
+
+  /* Fills the children of the position at a ply with their columns and
+   * stored numbers. Returns their count, 0 if the player to move reaches
+   * his goal at once, -1 if he fails at once. */
+  private int expand(int ply, PlayerId mover) {
+    PlayerId opponent = mover.otherPlayer();
+    int columnCount = board.getColumns();
+    int forced = -1;
+    int threats = 0;
+    boolean any = false;
+    if (scanner != null) {
+      any = !board.isFull();
+      int win = scanner.findWinningMove(mover, geometry.winNum);
+      if (win != -1) {
+        if (ply == 0) {
+          rootMove = win;
+        }
+        return 0;
+      }
+      threats = scanner.findWinningMoves(opponent, geometry.winNum,
+                                         threatColumns);
+      forced = threatColumns[0];
+    } else {
+      for (int col = 0; col < columnCount; ++col) {
+        int row = board.getTop(col);
+        if (row == -1) {
+          continue;
+        }
+        any = true;
+        if (geometry.isWinningMove(board, col, row, mover)) {
+          if (ply == 0) {
+            rootMove = col;
+          }
+          return 0;
+        }
+        if (geometry.isWinningMove(board, col, row, opponent)) {
+          forced = col;
+          ++threats;
+        }
+      }
+    }
+    if (!any) {
+      // A full board: a draw, good for the defender only.
+      return mover == attacker ? -1 : 0;
+    }
+    if (threats > 1) {
+      return -1;
+    }
+    if (ply >= maxDepth) {
+      return mover == attacker ? -1 : 0;
+    }
+    int[] columns = children[ply];
+    int count = 0;
+    if (threats == 1) {
+      columns[count++] = forced;
+    } else {
+      for (int col : AlphaBetaAi.centreFirst(columnCount)) {
+        if (board.canPlay(col)) {
+          columns[count++] = col;
+        }
+      }
+    }
+    for (int i = 0; i < count; ++i) {
+      board.play(columns[i]);
+      int index = index(board.getKey());
+      if (generations[index] == generation
+          && keys[index] == board.getKey()) {
+        childPhis[ply][i] = phis[index];
+        childDeltas[ply][i] = deltas[index];
+      } else {
+        childPhis[ply][i] = 1;
+        childDeltas[ply][i] = 1;
+      }
+      board.unplay();
+    }
+    return count;
+  }
+
+  /* Counts the distinct positions of the proof below the current one,
+   * which the attacker wins. -1 if a part of it is not in the table. */
+  private int proofSize(int ply, Set<Long> seen) {
+    if (!seen.add(board.getKey())) {
+      return 0;
+    }
+    PlayerId mover = board.getToMove();
+    int count = expand(ply, mover);
+    if (count <= 0) {
+      // Settled at once; the wrong way only if the table was stale.
+      return (count == 0) == (mover == attacker) ? 1 : -1;
+    }
+    int[] columns = children[ply].clone();
+    int[] phi = childPhis[ply].clone();
+    int[] delta = childDeltas[ply].clone();
+    int size = 1;
+    for (int i = 0; i < count; ++i) {
+      boolean needed = mover == attacker ? delta[i] == 0 : phi[i] == 0;
+      if (mover == attacker && !needed) {
+        continue;
+      }
+      if (!needed) {
+        return -1;
+      }
+      play(columns[i]);
+      int below = proofSize(ply + 1, seen);
+      unplay();
+      if (below < 0) {
+        return -1;
+      }
+      size += below;
+      if (mover == attacker) {
+        return size;
+      }
+    }
+    return mover == attacker ? -1 : size;
+  }
+
+  /* Plays a move on the board and the scanner. */
+  private void play(int col) {
+    PlayerId mover = board.getToMove();
+    int row = board.play(col);
+    if (scanner != null) {
+      scanner.set(col, row, mover);
+    }
+  }
+
+  /* Takes back the last move on the board and the scanner. */
+  private void unplay() {
+    int col = board.unplay();
+    if (scanner != null) {
+      scanner.set(col, board.getTop(col), null);
+    }
+  }
+
+  private void store(int phi, int delta) {
+    long key = board.getKey();
+    int index = index(key);
+    keys[index] = key;
+    phis[index] = phi;
+    deltas[index] = delta;
+    generations[index] = generation;
+  }
+
+  private int index(long key) {
+    return (int) (key ^ (key >>> 32)) & mask;
+  }
+}
@@ -0,0 +1,91 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.Board;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.ConnectFourAi;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.NodeCounter;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+
+/**
+ * An AI that looks for a forced win before asking another AI.
+ *
+ * <p>Wraps any ConnectFourAi. Each move, a ProofNumberSearch with a
+ * node limit tries to prove a forced win for the player; if it finds one,
+ * its winning move is played, otherwise the wrapped AI decides. The
+ * proof search is cheap next to a full-width search on large boards, and
+ * finds wins made of long chains of threats the other AI cannot see.</p>
+ *
+ * <p>getLastResult() tells the outcome, proof size and time of the last
+ * proof search. The AI keeps a table, so it belongs to one thread.</p>
+ *
+ * @author Chenyang Tang
+ */
+final class ProvingAi implements ConnectFourAi, NodeCounter {
+  /** Default node limit of each proof search. */
+  static final long DEFAULT_NODE_LIMIT = 200000;
+
+  private final ConnectFourAi fallback;
+  private final ProofNumberSearch search;
+  private final long nodeLimit;
+  private ProofNumberSearch.Result lastResult;
+  private long proofNodes = 0;
+
+  /**
+   * Construct an AI with the default node limit and table size.
+   *
+   * @param fallback The AI deciding when no forced win is found.
+   */
+  ProvingAi(ConnectFourAi fallback) {
+    this(fallback, new ProofNumberSearch(), DEFAULT_NODE_LIMIT);
+  }
+
+  /**
+   * Construct an AI.
+   *
+   * @param fallback The AI deciding when no forced win is found.
+   * @param search The proof search to use.
+   * @param nodeLimit Most positions each proof search may expand.
+   * @throws IllegalArgumentException if fallback or search is null or
+   *                                  nodeLimit is not positive.
+   */
+  ProvingAi(ConnectFourAi fallback, ProofNumberSearch search, long nodeLimit)
+                                          throws IllegalArgumentException {
+    if (fallback == null || search == null || nodeLimit < 1) {
+      throw new IllegalArgumentException("Invalid proving AI arguments.");
+    }
+    this.fallback = fallback;
+    this.search = search;
+    this.nodeLimit = nodeLimit;
+  }
+
+  @Override
+  public int decideMove(Board board, PlayerId player, int winNum) {
+    lastResult = search.prove(board, player, winNum, nodeLimit,
+                              board.getColumns() * board.getRows());
+    proofNodes += lastResult.nodes;
+    if (lastResult.outcome == ProofNumberSearch.Outcome.PROVEN) {
+      return lastResult.move;
+    }
+    return fallback.decideMove(board, player, winNum);
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * <p>Counts the positions of the proof searches, and those of the 
+   * wrapped AI if it counts them.</p>
+   */
+  @Override
+  public long getNodes() {
+    return proofNodes + (fallback instanceof NodeCounter 
+                         ? ((NodeCounter) fallback).getNodes() : 0);
+  }
+  
+  /**
+   * Get the result of the last proof search.
+   *
+   * @return the result, or null before the first move.
+   */
+  ProofNumberSearch.Result getLastResult() {
+    return lastResult;
+  }
+}
@@ -0,0 +1,217 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.lang.reflect.InvocationTargetException;
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerType;
+
+/**
+ * Benchmark of rendering the board view offscreen, without a display.
+ *
+ * <p>Usage: <code>RenderBenchmark [sizes] [moves]</code></p>
+ *
+ * <p>For each board size (comma-separated columnsxrows, by default
+ * 7x6,12x10,18x10,40x20) builds BoardDisplay views without a window, in
+ * headless mode, with checkers sized for a SCREEN_WIDTH x SCREEN_HEIGHT
+ * screen, and renders them into a BufferedImage. For each number of moves
+ * (comma-separated, by default 0 and half the board) it reports:</p>
+ *
+ * <ul>
+ * <li>construction time of a view;</li>
+ * <li>full repaint: painting the whole view;</li>
+ * <li>single move: showing one more checker and painting its column;</li>
+ * <li>heap used per view and per Swing component in it, measured over
+ * VIEWS views.</li>
+ * </ul>
+ *
+ * <p>Moves fill the columns in turn and are shown directly on the view,
+ * landing at once, so the game rules and the drop animation play no
+ * part. Every measure is repeated after a warm-up pass.</p>
+ *
+ * @author Chenyang Tang
+ */
+public class RenderBenchmark {
+  /** Screen the checkers are sized for. */
+  static final int SCREEN_WIDTH = 1920;
+  static final int SCREEN_HEIGHT = 1040;
+  /** Number of views built to measure construction and heap. */
+  static final int VIEWS = 20;
+  private static final int REPAINTS = 50;
+
+  private RenderBenchmark() {}
+
+  /**
+   * Starting point.
+   *
+   * @param args See the class documentation.
+   */
+  public static void main(String[] args) throws InterruptedException {
+    System.setProperty("java.awt.headless", "true");
+    final String[] sizes = (args.length > 0 ? args[0]
+                            : "7x6,12x10,18x10,40x20").split(",");
+    final String moves = args.length > 1 ? args[1] : null;
+    run(new Runnable() {
+      @Override
+      public void run() {
+        // Warm up all paths, then measure.
+        measure(7, 6, new int[] {0, 21}, false);
+        System.out.printf("%-7s %5s %6s %10s %10s %10s %8s %9s%n",
+                          "size", "moves", "views", "build ms",
+                          "full us", "move us", "KB/view", "B/comp");
+        for (String size : sizes) {
+          String[] dimensions = size.split("x");
+          int columns = Integer.parseInt(dimensions[0]);
+          int rows = Integer.parseInt(dimensions[1]);
+          int[] counts;
+          if (moves == null) {
+            counts = new int[] {0, columns * rows / 2};
+          } else {
+            String[] fields = moves.split(",");
+            counts = new int[fields.length];
+            for (int i = 0; i < fields.length; ++i) {
+              counts[i] = Math.min(columns * rows,
+                                   Integer.parseInt(fields[i]));
+            }
+          }
+          measure(columns, rows, counts, true);
+        }
+      }
+    });
+  }
+
+  /* Runs a task on the event dispatch thread, as Swing requires. */
+  private static void run(Runnable task) throws InterruptedException {
+    try {
+      SwingUtilities.invokeAndWait(task);
+    } catch (InvocationTargetException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private static void measure(int columns, int rows, int[] counts,
+                              boolean print) {
+    ConnectFourModel model = new ConnectFourModel.Builder(
+        PlayerType.HUMAN, PlayerType.HUMAN)
+        .setColumns(columns).setRows(rows).build();
+    int cellSize = BoardDisplay.cellSize(columns, rows,
+        new Rectangle(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT));
+
+    // Construction and heap, over several views kept alive together.
+    BoardDisplay[] displays = new BoardDisplay[VIEWS];
+    long heapBefore = usedHeap();
+    long start = System.nanoTime();
+    for (int i = 0; i < VIEWS; ++i) {
+      displays[i] = new BoardDisplay(model, cellSize, false);
+    }
+    long buildNanos = (System.nanoTime() - start) / VIEWS;
+    long heapPerView = (usedHeap() - heapBefore) / VIEWS;
+    BoardDisplay display = displays[0];
+    for (int i = 1; i < VIEWS; ++i) {
+      displays[i].dispose();
+      displays[i] = null;
+    }
+    JComponent view = display.getView();
+    layOut(view);
+    int components = count(view);
+    BufferedImage image = new BufferedImage(
+        view.getWidth(), view.getHeight(), BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = image.createGraphics();
+
+    int[] heights = new int[columns];
+    int played = 0;
+    for (int target : counts) {
+      while (played < target) {
+        show(display, heights, played++);
+      }
+      start = System.nanoTime();
+      for (int i = 0; i < REPAINTS; ++i) {
+        graphics.setClip(null);
+        view.paint(graphics);
+      }
+      long fullNanos = (System.nanoTime() - start) / REPAINTS;
+
+      // One more checker per repaint, then take them all back.
+      int single = Math.min(REPAINTS, columns * rows - played);
+      long moveNanos = 0;
+      for (int i = 0; i < single; ++i) {
+        int col = (played + i) % columns;
+        start = System.nanoTime();
+        show(display, heights, played + i);
+        graphics.setClip(columnBounds(display, col, rows));
+        view.paint(graphics);
+        moveNanos += System.nanoTime() - start;
+      }
+      for (int i = single - 1; i >= 0; --i) {
+        int col = (played + i) % columns;
+        display.checkerRemoved(col, --heights[col]);
+      }
+      if (print) {
+        System.out.printf("%-7s %5d %6d %10.2f %10.1f %10.1f %8d %9d%n",
+                          columns + "x" + rows, played, VIEWS,
+                          buildNanos / 1e6, fullNanos / 1e3,
+                          single == 0 ? 0.0 : moveNanos / 1e3 / single,
+                          heapPerView / 1024, heapPerView / components);
+      }
+    }
+    graphics.dispose();
+    display.dispose();
+  }
+
+  /* Shows the next move, filling the columns in turn. */
+  private static void show(BoardDisplay display, int[] heights, int move) {
+    int col = move % heights.length;
+    display.boardUpdate(col, heights[col]++,
+                        move % 2 == 0 ? PlayerId.PLAYER1 : PlayerId.PLAYER2);
+    DropAnimator.getInstance().finish(display);
+  }
+
+  /* The area of a column's slots within the view. */
+  private static Rectangle columnBounds(BoardDisplay display, int col,
+                                        int rows) {
+    JComponent view = display.getView();
+    Rectangle bounds = null;
+    for (int row = 0; row < rows; ++row) {
+      Component label = display.getLabel(col, row);
+      Rectangle slot = SwingUtilities.convertRectangle(
+          label.getParent(), label.getBounds(), view);
+      bounds = bounds == null ? slot : bounds.union(slot);
+    }
+    return bounds;
+  }
+
+  /* Lays out a component tree that is in no window. */
+  private static void layOut(Component component) {
+    if (component instanceof Container) {
+      Container container = (Container) component;
+      container.doLayout();
+      for (Component child : container.getComponents()) {
+        layOut(child);
+      }
+    }
+  }
+
+  private static int count(Component component) {
+    int count = 1;
+    if (component instanceof Container) {
+      for (Component child : ((Container) component).getComponents()) {
+        count += count(child);
+      }
+    }
+    return count;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; ++i) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
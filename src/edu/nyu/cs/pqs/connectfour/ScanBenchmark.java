@@ -0,0 +1,96 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.util.Random;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+
+/**
+ * Benchmark of BitboardScanner against ConnectFourModel.checkWin().
+ * 
+ * <p>Usage: <code>ScanBenchmark [columns rows winNum] [positions]</code>
+ * </p>
+ * 
+ * <p>Plays random games on the given geometry (by default 200 columns, 
+ * 10 rows, connect 6) and, at every position, looks for a winning move 
+ * both by calling checkWin() on the top cell of every column, as SimpleAi 
+ * does, and with BitboardScanner.findWinningMove(). Both must find the 
+ * same column; the average time of each is reported.</p>
+ * 
+ * @author Chenyang Tang
+ */
+public class ScanBenchmark {
+  private ScanBenchmark() {}
+  
+  /**
+   * Starting point.
+   * 
+   * @param args See the class documentation.
+   */
+  public static void main(String[] args) {
+    int columns = args.length >= 3 ? Integer.parseInt(args[0]) : 200;
+    int rows = args.length >= 3 ? Integer.parseInt(args[1]) : 10;
+    int winNum = args.length >= 3 ? Integer.parseInt(args[2]) : 6;
+    int positions = args.length == 1 || args.length == 4 
+                    ? Integer.parseInt(args[args.length - 1]) : 20000;
+    // Warm up both paths, then measure.
+    run(columns, rows, winNum, positions / 10, new Random(1), false);
+    run(columns, rows, winNum, positions, new Random(2), true);
+  }
+  
+  private static void run(int columns, int rows, int winNum, int positions,
+                          Random random, boolean print) {
+    long scalarNanos = 0;
+    long bitNanos = 0;
+    long found = 0;
+    int done = 0;
+    while (done < positions) {
+      ScratchBoard board = new ScratchBoard(columns, rows, PlayerId.PLAYER1);
+      BitboardScanner scanner = new BitboardScanner(board);
+      while (done < positions && !board.isFull()) {
+        PlayerId player = board.getToMove();
+        long start = System.nanoTime();
+        int scalar = scalarWinningMove(board, player, winNum);
+        long middle = System.nanoTime();
+        int bit = scanner.findWinningMove(player, winNum);
+        long end = System.nanoTime();
+        scalarNanos += middle - start;
+        bitNanos += end - middle;
+        ++done;
+        if (scalar != bit) {
+          throw new IllegalStateException("Scanners disagree: " + scalar 
+                                          + " vs " + bit + "\n" + board);
+        }
+        if (scalar != -1) {
+          ++found;
+          break; // The game would be over.
+        }
+        int col;
+        do {
+          col = random.nextInt(columns);
+        } while (!board.canPlay(col));
+        int row = board.play(col);
+        scanner.set(col, row, player);
+      }
+    }
+    if (print) {
+      System.out.printf("%dx%d connect %d, %d positions, %d wins found%n",
+                        columns, rows, winNum, positions, found);
+      System.out.printf("checkWin():       %8.0f ns/position%n", 
+                        (double) scalarNanos / positions);
+      System.out.printf("BitboardScanner:  %8.0f ns/position%n", 
+                        (double) bitNanos / positions);
+    }
+  }
+  
+  private static int scalarWinningMove(ScratchBoard board, PlayerId player,
+                                       int winNum) {
+    for (int col = 0; col < board.getColumns(); ++col) {
+      int row = board.getTop(col);
+      if (row != -1 
+          && ConnectFourModel.checkWin(board, col, row, player, winNum)) {
+        return col;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,221 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.Board;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+
+/**
+ * A mutable board for searches to play and take back moves on.
+ * 
+ * <p>Moves are made with play() and taken back in reverse order with 
+ * unplay(). Both are O(1), keep the position keys up to date and never
+ * allocate, so a search can explore the whole tree in place. The side to
+ * move alternates with every move.</p>
+ * 
+ * <p>A scratch board belongs to one thread. Get one from 
+ * BoardSnapshot.scratch() or build an empty one with the constructor.</p>
+ * 
+ * @author Chenyang Tang
+ */
+final class ScratchBoard implements Board {
+  private final int columns;
+  private final int rows;
+  private final byte[] cells;
+  private final int[] heights;
+  // Columns played, in order, for unplay().
+  private final int[] moves;
+  private int moveCount;
+  // Number of checkers on the board.
+  private int filled;
+  private PlayerId toMove;
+  private final PositionKeys keys;
+  private long hash;
+  private long mirrorHash;
+  
+  /**
+   * Construct an empty board.
+   * 
+   * @param columns Number of columns.
+   * @param rows Number of rows.
+   * @param toMove The player to move first.
+   */
+  ScratchBoard(int columns, int rows, PlayerId toMove) {
+    this(columns, rows, new byte[columns * rows], new int[columns], 
+         0L, 0L, toMove);
+  }
+  
+  /* Copies the given arrays. */
+  ScratchBoard(int columns, int rows, byte[] cells, int[] heights, 
+               long hash, long mirrorHash, PlayerId toMove) {
+    this.columns = columns;
+    this.rows = rows;
+    this.cells = cells.clone();
+    this.heights = heights.clone();
+    this.hash = hash;
+    this.mirrorHash = mirrorHash;
+    this.toMove = toMove;
+    keys = PositionKeys.forGeometry(columns, rows);
+    moves = new int[columns * rows];
+    for (int height : heights) {
+      filled += height;
+    }
+  }
+  
+  /**
+   * Get a scratch copy of any board.
+   * 
+   * @param board The board to copy.
+   * @param toMove The player to move in the copy.
+   * @return a new ScratchBoard with the same checkers.
+   */
+  static ScratchBoard copyOf(Board board, PlayerId toMove) {
+    if (board instanceof BoardSnapshot) {
+      return ((BoardSnapshot) board).scratch(toMove);
+    }
+    if (board instanceof ScratchBoard) {
+      return ((ScratchBoard) board).snapshot().scratch(toMove);
+    }
+    int columns = board.getColumns();
+    int rows = board.getRows();
+    PositionKeys keys = PositionKeys.forGeometry(columns, rows);
+    byte[] cells = new byte[columns * rows];
+    int[] heights = new int[columns];
+    long hash = 0L;
+    long mirrorHash = 0L;
+    for (int col = 0; col < columns; ++col) {
+      for (int row = 0; row < rows; ++row) {
+        PlayerId player = board.get(col, row);
+        if (player != null) {
+          cells[col * rows + row] = BoardSnapshot.encode(player);
+          heights[col] = row + 1;
+          hash ^= keys.key(col, row, player);
+          mirrorHash ^= keys.mirrorKey(col, row, player);
+        }
+      }
+    }
+    return new ScratchBoard(columns, rows, cells, heights, 
+                            hash, mirrorHash, toMove);
+  }
+  
+  /**
+   * Drop a checker of the player to move into a column.
+   * 
+   * @param col The column to play. Must not be full.
+   * @return the row the checker landed on.
+   */
+  int play(int col) {
+    int row = heights[col]++;
+    cells[col * rows + row] = BoardSnapshot.encode(toMove);
+    hash ^= keys.key(col, row, toMove);
+    mirrorHash ^= keys.mirrorKey(col, row, toMove);
+    moves[moveCount++] = col;
+    ++filled;
+    toMove = toMove.otherPlayer();
+    return row;
+  }
+  
+  /**
+   * Take back the last move.
+   * 
+   * @return the column of the move taken back.
+   */
+  int unplay() {
+    int col = moves[--moveCount];
+    int row = --heights[col];
+    --filled;
+    toMove = toMove.otherPlayer();
+    cells[col * rows + row] = 0;
+    hash ^= keys.key(col, row, toMove);
+    mirrorHash ^= keys.mirrorKey(col, row, toMove);
+    return col;
+  }
+  
+  /**
+   * Check if a column can be played.
+   * 
+   * @param col The column.
+   * @return true if the column is not full.
+   */
+  boolean canPlay(int col) {
+    return heights[col] < rows;
+  }
+  
+  /**
+   * Check if every slot of the board is taken.
+   * 
+   * @return true if no column can be played.
+   */
+  boolean isFull() {
+    return filled == columns * rows;
+  }
+  
+  /**
+   * Get the player to move.
+   * 
+   * @return the player whose checker play() drops next.
+   */
+  PlayerId getToMove() {
+    return toMove;
+  }
+  
+  /**
+   * Get the number of moves played since this board was created.
+   * 
+   * @return the number of moves that can be taken back.
+   */
+  int getMoveCount() {
+    return moveCount;
+  }
+  
+  /**
+   * Get the canonical key of the position, shared with its mirror image.
+   * 
+   * @return the canonical Zobrist key of the board.
+   */
+  long getKey() {
+    return PositionKeys.canonical(hash, mirrorHash);
+  }
+  
+  /**
+   * Check if the canonical key is the key of the mirrored board.
+   * 
+   * @return true if columns must be mirrored to match cached entries.
+   */
+  boolean isMirrored() {
+    return mirrorHash < hash;
+  }
+  
+  /**
+   * Take an immutable snapshot of this board.
+   * 
+   * @return a snapshot of the current position.
+   */
+  BoardSnapshot snapshot() {
+    return new BoardSnapshot(columns, rows, cells.clone(), heights.clone(), 
+                             hash, mirrorHash);
+  }
+  
+  @Override
+  public PlayerId get(int col, int row) {
+    return BoardSnapshot.decode(cells[col * rows + row]);
+  }
+  
+  @Override
+  public byte cell(int cell) {
+    return cells[cell];
+  }
+  
+  @Override
+  public int getTop(int col) {
+    return heights[col] == rows ? -1 : heights[col];
+  }
+  
+  @Override
+  public int getRows() {
+    return rows;
+  }
+  
+  @Override
+  public int getColumns() {
+    return columns;
+  }
+}
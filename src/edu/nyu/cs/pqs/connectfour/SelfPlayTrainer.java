@@ -0,0 +1,382 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+
+/**
+ * Learns PatternEvaluator weights for one geometry by self-play.
+ * 
+ * <p>Usage: <code>SelfPlayTrainer columns rows winNum [games] [threads]
+ * [output] [seed]</code></p>
+ * 
+ * <p>Starts from the weights in output (by default the geometry's file
+ * in the weights directory, see PatternEvaluator), or from the initial
+ * weights if there are none. Worker threads play games between two
+ * shallow AlphaBetaAi searches using the current weights, with some
+ * random moves for variety, and learn from each game by TD(lambda): the
+ * weights move the predicted chance of the player to move winning, a 
+ * logistic function of the score, towards what the prediction after the
+ * move implies and finally towards the result. The weights are updated
+ * after every batch of games.</p>
+ * 
+ * <p>All random choices come from the seed, random unless given, which is
+ * printed. Each game draws from its own stream, split from the seed in
+ * game order, and the changes of a batch are added up in game order too,
+ * so the same seed learns the same weights with any number of 
+ * threads.</p>
+ * 
+ * <p>Then the new weights play a match against the previous ones, from
+ * random openings with both colours, and the training speed and the 
+ * strength gain in Elo are reported. The new weights are saved to output
+ * only if they scored at least half the points, so retraining never 
+ * makes the AI weaker.</p>
+ * 
+ * @author Chenyang Tang
+ */
+public class SelfPlayTrainer {
+  private static final int DEFAULT_GAMES = 2000;
+  private static final int BATCH_GAMES = 50;
+  private static final int MATCH_GAMES = 200;
+  private static final int DEPTH = 2;
+  private static final double EXPLORATION = 0.05;
+  private static final double ALPHA = 0.0003;
+  private static final double LAMBDA = 0.9;
+  private static final int OPENING_MOVES = 4;
+  
+  private final int columns;
+  private final int rows;
+  private final int winNum;
+  private final int threads;
+  private final long seed;
+  
+  /**
+   * Construct a trainer.
+   * 
+   * @param columns Number of columns.
+   * @param rows Number of rows.
+   * @param winNum Number of checkers in a row for winning.
+   * @param threads Number of worker threads. Must be positive.
+   * @param seed Seed of the random moves.
+   * @throws IllegalArgumentException if the geometry is not valid or
+   *                                  threads is not positive.
+   */
+  SelfPlayTrainer(int columns, int rows, int winNum, int threads, long seed)
+                                          throws IllegalArgumentException {
+    if (columns < 1 || rows < 1 || winNum < 1) {
+      throw new IllegalArgumentException(
+          "Columns, rows and winNum must be positive integers.");
+    }
+    if (threads < 1) {
+      throw new IllegalArgumentException(
+                              "Number of threads must be positive integer.");
+    }
+    this.columns = columns;
+    this.rows = rows;
+    this.winNum = winNum;
+    this.threads = threads;
+    this.seed = seed;
+  }
+  
+  /**
+   * Starting point.
+   * 
+   * @param args See the class documentation.
+   */
+  public static void main(String[] args)
+                                  throws IOException, InterruptedException {
+    if (args.length < 3) {
+      System.err.println("Usage: SelfPlayTrainer columns rows winNum "
+                         + "[games] [threads] [output] [seed]");
+      System.exit(2);
+    }
+    int columns = Integer.parseInt(args[0]);
+    int rows = Integer.parseInt(args[1]);
+    int winNum = Integer.parseInt(args[2]);
+    int games = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_GAMES;
+    int threads = args.length > 4 ? Integer.parseInt(args[4])
+                  : Runtime.getRuntime().availableProcessors();
+    Path output = args.length > 5 ? Paths.get(args[5])
+                  : PatternEvaluator.defaultPath(columns, rows, winNum);
+    long seed = args.length > 6 ? Long.parseLong(args[6])
+                : new SplittableRandom().nextLong();
+    
+    PatternEvaluator previous = Files.isRegularFile(output)
+        ? PatternEvaluator.load(output)
+        : PatternEvaluator.initial(columns, rows, winNum);
+    if (previous.columns != columns || previous.rows != rows
+        || previous.winNum != winNum) {
+      System.err.println(output + " holds weights of another geometry.");
+      System.exit(2);
+    }
+    SelfPlayTrainer trainer =
+        new SelfPlayTrainer(columns, rows, winNum, threads, seed);
+    
+    long start = System.nanoTime();
+    long[] positions = new long[1];
+    PatternEvaluator learned = trainer.train(previous, games, positions);
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf(
+        "trained %d games in %.1f s (seed %d): %.1f games/s, "
+        + "%.0f updates/s%n",
+        games, seconds, seed, games / seconds, positions[0] / seconds);
+    
+    int[] results = trainer.match(learned, previous, MATCH_GAMES);
+    double score = (results[0] + results[2] / 2.0) / MATCH_GAMES;
+    // Half the width of the 95% confidence interval of the score.
+    double margin = 1.96 * Math.sqrt(score * (1 - score) / MATCH_GAMES);
+    System.out.printf(
+        "vs previous weights: %d wins, %d losses, %d draws, score %.3f, "
+        + "%+.0f Elo (95%% interval %+.0f to %+.0f)%n",
+        results[0], results[1], results[2], score, elo(score, MATCH_GAMES),
+        elo(score - margin, MATCH_GAMES), elo(score + margin, MATCH_GAMES));
+    
+    if (score >= 0.5) {
+      learned.save(output);
+      System.out.println("saved " + output);
+    } else {
+      System.out.println("kept previous weights");
+    }
+  }
+  
+  /**
+   * Train weights by self-play.
+   * 
+   * @param start The weights to start from.
+   * @param games Number of games to play.
+   * @param positions positions[0] is set to the number of updates made.
+   * @return the learned weights.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  PatternEvaluator train(PatternEvaluator start, int games, long[] positions)
+                                                throws InterruptedException {
+    float[] weights = start.getWeights();
+    SplittableRandom seeds = new SplittableRandom(seed);
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      int played = 0;
+      while (played < games) {
+        final int batch = Math.min(BATCH_GAMES, games - played);
+        final float[] current = weights.clone();
+        // Split here, in game order, whichever thread plays the game.
+        final SplittableRandom[] streams = new SplittableRandom[batch];
+        for (int game = 0; game < batch; ++game) {
+          streams[game] = seeds.split();
+        }
+        List<Future<double[][]>> results = 
+            new ArrayList<Future<double[][]>>();
+        for (int t = 0; t < threads; ++t) {
+          // Games t, t + threads, ... of the batch.
+          final int first = t;
+          results.add(pool.submit(new Callable<double[][]>() {
+            @Override
+            public double[][] call() {
+              // For each game, weight changes, then the number of updates.
+              double[][] deltas = 
+                  new double[(batch - first + threads - 1) / threads][];
+              AlphaBetaAi ai = new AlphaBetaAi(DEPTH,
+                  new PatternEvaluator(columns, rows, winNum, current));
+              for (int game = first; game < batch; game += threads) {
+                double[] delta = new double[current.length + 1];
+                delta[current.length] = 
+                    trainGame(ai, current, streams[game], delta);
+                deltas[game / threads] = delta;
+              }
+              return deltas;
+            }
+          }));
+        }
+        List<double[][]> deltas = new ArrayList<double[][]>();
+        for (Future<double[][]> result : results) {
+          deltas.add(get(result));
+        }
+        // Floating-point sums depend on their order: keep it fixed.
+        for (int game = 0; game < batch; ++game) {
+          double[] delta = deltas.get(game % threads)[game / threads];
+          for (int i = 0; i < weights.length; ++i) {
+            weights[i] += (float) delta[i];
+          }
+          positions[0] += (long) delta[weights.length];
+        }
+        played += batch;
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    return new PatternEvaluator(columns, rows, winNum, weights);
+  }
+  
+  /* Plays one game, adding the TD(lambda) changes of the weights to 
+   * delta. Returns the number of moves. Values are the predicted chance
+   * of the player to move winning, so the target of a value is one minus
+   * the value after the move, and the trace changes sign every move. */
+  private long trainGame(AlphaBetaAi ai, float[] weights, 
+                         SplittableRandom random, double[] delta) {
+    ScratchBoard board = new ScratchBoard(columns, rows, PlayerId.PLAYER1);
+    float[] features = new float[weights.length];
+    float[] next = new float[weights.length];
+    double[] trace = new double[weights.length];
+    PatternEvaluator.features(board, PlayerId.PLAYER1, winNum, features);
+    double value = value(weights, features);
+    long moves = 0;
+    while (true) {
+      PlayerId player = board.getToMove();
+      int col = random.nextDouble() < EXPLORATION 
+                ? randomMove(board, random)
+                : ai.decideMove(board, player, winNum);
+      boolean won = ConnectFourModel.checkWin(
+          board, col, board.getTop(col), player, winNum);
+      board.play(col);
+      ++moves;
+      boolean over = true;
+      double nextValue = 0;
+      double target;
+      if (won) {
+        target = 1;
+      } else if (board.isFull()) {
+        target = 0.5;
+      } else {
+        PatternEvaluator.features(board, board.getToMove(), winNum, next);
+        nextValue = value(weights, next);
+        target = 1 - nextValue;
+        over = false;
+      }
+      double slope = value * (1 - value);
+      double step = ALPHA * (target - value);
+      for (int i = 0; i < weights.length; ++i) {
+        trace[i] = -LAMBDA * trace[i] + slope * features[i];
+        delta[i] += step * trace[i];
+      }
+      if (over) {
+        return moves;
+      }
+      float[] swap = features;
+      features = next;
+      next = swap;
+      value = nextValue;
+    }
+  }
+  
+  /* Predicted chance of the player to move winning. */
+  private static double value(float[] weights, float[] features) {
+    double sum = 0;
+    for (int i = 0; i < weights.length; ++i) {
+      sum += weights[i] * features[i];
+    }
+    return 1 / (1 + Math.exp(-sum));
+  }
+  
+  private static int randomMove(ScratchBoard board, 
+                                SplittableRandom random) {
+    int col;
+    do {
+      col = random.nextInt(board.getColumns());
+    } while (!board.canPlay(col));
+    return col;
+  }
+  
+  /**
+   * Play a match between two sets of weights.
+   * 
+   * <p>Games come in pairs from the same random opening, each side
+   * playing first once.</p>
+   * 
+   * @param a The first weights.
+   * @param b The second weights.
+   * @param games Number of games, rounded up to even.
+   * @return wins of a, wins of b and draws.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  int[] match(PatternEvaluator a, PatternEvaluator b, int games)
+                                                throws InterruptedException {
+    final AlphaBetaAi aiA = new AlphaBetaAi(DEPTH, a);
+    final AlphaBetaAi aiB = new AlphaBetaAi(DEPTH, b);
+    int[] results = new int[3];
+    // A stream apart from that of the training games.
+    SplittableRandom seeds = new SplittableRandom(seed).split();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<int[]>> pairs = new ArrayList<Future<int[]>>();
+      for (int pair = 0; pair < (games + 1) / 2; ++pair) {
+        final long pairSeed = seeds.nextLong();
+        pairs.add(pool.submit(new Callable<int[]>() {
+          @Override
+          public int[] call() {
+            int[] pairResults = new int[3];
+            // Result for player 1: 1 win, -1 loss, 0 draw.
+            int first = playMatchGame(aiA, aiB, 
+                                      new SplittableRandom(pairSeed));
+            int second = playMatchGame(aiB, aiA, 
+                                       new SplittableRandom(pairSeed));
+            ++pairResults[first == 1 ? 0 : first == -1 ? 1 : 2];
+            ++pairResults[second == -1 ? 0 : second == 1 ? 1 : 2];
+            return pairResults;
+          }
+        }));
+      }
+      for (Future<int[]> pair : pairs) {
+        int[] pairResults = get(pair);
+        for (int i = 0; i < results.length; ++i) {
+          results[i] += pairResults[i];
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    return results;
+  }
+  
+  /* Plays a game after a random opening; 1 if player 1 wins, -1 if
+   * player 2 wins, 0 for a draw. */
+  private int playMatchGame(AlphaBetaAi first, AlphaBetaAi second,
+                            SplittableRandom random) {
+    ScratchBoard board = new ScratchBoard(columns, rows, PlayerId.PLAYER1);
+    while (true) {
+      PlayerId player = board.getToMove();
+      int col = board.getMoveCount() < OPENING_MOVES
+          ? randomMove(board, random)
+          : (player == PlayerId.PLAYER1 ? first : second)
+                .decideMove(board, player, winNum);
+      if (ConnectFourModel.checkWin(
+              board, col, board.getTop(col), player, winNum)) {
+        return player == PlayerId.PLAYER1 ? 1 : -1;
+      }
+      board.play(col);
+      if (board.isFull()) {
+        return 0;
+      }
+    }
+  }
+  
+  /**
+   * Get the Elo difference that a match score indicates.
+   * 
+   * @param score Fraction of points won, draws counting half.
+   * @param games Number of games, which bounds the difference.
+   * @return the Elo difference.
+   */
+  static double elo(double score, int games) {
+    double bound = 0.5 / games;
+    score = Math.max(bound, Math.min(1 - bound, score));
+    return -400 * Math.log10(1 / score - 1);
+  }
+  
+  private static <T> T get(Future<T> future) throws InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+}
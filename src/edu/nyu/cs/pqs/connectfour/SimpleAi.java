@@ -1,15 +1,18 @@
 package edu.nyu.cs.pqs.connectfour;
 
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
 
-import edu.nyu.cs.pqs.connectfour.ConnectFourModel.BoardState;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.Board;
 import edu.nyu.cs.pqs.connectfour.ConnectFourModel.ConnectFourAi;
 import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
 
 /**
  * A very simple AI for the Connect-Four game.
  * 
- * <p>This is a singleton. Use getInstance() method to get the instance.</p>
+ * <p>Use getInstance() to get the shared instance, whose random moves
+ * come from the calling thread's ThreadLocalRandom, or seeded() for an
+ * instance whose random moves replay from a seed.</p>
  * 
  * <p>The AI can only do two things:<br>
  * 1) If there is a move that can result in a win, it will play it.<br>
@@ -17,31 +20,47 @@ import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
  *    it will try to block it.<br>
  * Otherwise it will just throw checkers mindlessly (randomly). </p>
  * 
- * <p>The AI is deliberately slowed by Thread.sleep() to give a better feel, 
- * so it should not be run on the same thread as the GUI to prevent lag. </p>
+ * <p>The AI answers at once. Pacing moves for the eye is left to the 
+ * view. </p>
  * 
  * @author Chenyang Tang
  */
 class SimpleAi implements ConnectFourAi {
-  private static final SimpleAi INSTANCE = new SimpleAi();
+  private static final SimpleAi INSTANCE = new SimpleAi(null);
+  
+  // Source of the random moves, null for ThreadLocalRandom.
+  private final SplittableRandom random;
   
   /**
-   * Get the instance of the AI singleton.
+   * Get the shared instance of the AI.
    * 
-   * @return the instance of the AI singleton.
+   * @return the instance, safe to use from any thread.
    */
   public static ConnectFourAi getInstance() {
     return INSTANCE;
   }
+  
+  /**
+   * Get an AI whose random moves are drawn from a stream.
+   * 
+   * <p>Given the same stream state and positions, it plays the same 
+   * moves. Like the stream, it belongs to one thread; give each worker 
+   * its own stream with SplittableRandom.split().</p>
+   * 
+   * @param random The stream.
+   * @return a new AI.
+   * @throws IllegalArgumentException if random is null.
+   */
+  static ConnectFourAi seeded(SplittableRandom random) 
+                                          throws IllegalArgumentException {
+    if (random == null) {
+      throw new IllegalArgumentException("Random stream cannot be null.");
+    }
+    return new SimpleAi(random);
+  }
 
   @Override
-  public int decideMove(BoardState board, PlayerId player, int winNum) {
-    try {
-      Thread.sleep(150); // Simulate a slow thinking process.
-                         // (Visually more fun.)
-    } catch (InterruptedException ignore) {
-      // Ignored
-    }
+  public int decideMove(Board board, PlayerId player, int winNum) {
     // Check winning move
     for (int col = 0; col < board.getColumns(); ++col) {
       int row = board.getTop(col);
@@ -63,14 +82,17 @@ class SimpleAi implements ConnectFourAi {
     }
     // Randomly pick a move
     int ret;
-    Random rand = new Random();
     while(true) {
-      ret = rand.nextInt(board.getColumns());
+      ret = random == null 
+            ? ThreadLocalRandom.current().nextInt(board.getColumns())
+            : random.nextInt(board.getColumns());
       if (board.getTop(ret) != -1) {
         return ret;
       }
     }
   }
 
-  private SimpleAi() {}
+  private SimpleAi(SplittableRandom random) {
+    this.random = random;
+  }
 }
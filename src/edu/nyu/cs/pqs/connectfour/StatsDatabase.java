@@ -0,0 +1,442 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.Board;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.ConnectFourAi;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerType;
+
+/**
+ * Win, draw and loss statistics of positions, gathered from games.
+ *
+ * <p>For every position reached in a finished game, the database counts
+ * how often the player to move went on to win, draw or lose after
+ * playing each column. Positions are keyed by their canonical key (see
+ * PositionKeys), with the player to move mixed in, so a position and its
+ * mirror image share their counts; columns are stored in canonical
+ * orientation. A database holds one geometry.</p>
+ *
+ * <p>attach() registers a recorder on a game, a ConnectFourListener that
+ * follows its moves and, when the game is won or drawn, adds it to the
+ * database. Counts first go to an in-memory hash table split into
+ * STRIPES stripes, each with its own lock, so games finishing on many
+ * threads at once rarely wait for each other. Every flush interval, and
+ * on flush() and close(), the stripes are emptied into a StatsIndex, a
+ * memory-mapped file that can be queried without loading it.</p>
+ *
+ * <p>get() adds up the index and the counts not yet flushed. A stripe
+ * is merged into the index and emptied under its lock, which get() also
+ * holds, so a query during a flush sees each count exactly once. The
+ * database is thread safe.</p>
+ *
+ * <p>As a tool, plays games between SimpleAi players and adds them to a
+ * database file, or prints the statistics of a position:</p>
+ *
+ * <pre>
+ * java -jar ConnectFour.jar stats play file games [columns rows winNum] [seed]
+ * java -jar ConnectFour.jar stats query file moves [columns rows winNum]
+ * </pre>
+ *
+ * <p>with moves as accepted by BatchAnalyzer, e.g. "3,3,4". Games are
+ * played from a seed, random unless given, and printed so that the same
+ * games can be played again.</p>
+ *
+ * @author Chenyang Tang
+ */
+final class StatsDatabase {
+  /** Number of independently locked parts of the in-memory table. */
+  static final int STRIPES = 64;
+  /** Default time between flushes to the index. */
+  static final long DEFAULT_FLUSH_SECONDS = 30;
+  /** Indexes of the counts of a column in get()'s result. */
+  static final int WINS = 0;
+  static final int DRAWS = 1;
+  static final int LOSSES = 2;
+  // Mixed into the keys of positions with player 2 to move.
+  private static final long PLAYER2_TO_MOVE = 0x5A17E2D0C4B3A291L;
+
+  private final int columns;
+  private final int rows;
+  private final int winNum;
+  private final StatsIndex index;
+  private final Stripe[] stripes = new Stripe[STRIPES];
+  // Games recorded since the last flush.
+  private final AtomicLong games = new AtomicLong();
+  private final ScheduledExecutorService flusher;
+
+  /**
+   * Counts of some of the positions, not yet flushed.
+   *
+   * @author Chenyang Tang
+   */
+  private static final class Stripe {
+    Map<Long, int[]> counts = new HashMap<Long, int[]>();
+  }
+
+  /**
+   * Open a database, creating its file if needed, flushing every
+   * DEFAULT_FLUSH_SECONDS.
+   *
+   * @param path The index file.
+   * @param columns Number of columns.
+   * @param rows Number of rows.
+   * @param winNum Number of checkers in a row for winning.
+   * @throws IOException if the file cannot be opened.
+   */
+  StatsDatabase(Path path, int columns, int rows, int winNum)
+                                                      throws IOException {
+    this(path, columns, rows, winNum, DEFAULT_FLUSH_SECONDS);
+  }
+
+  /**
+   * Open a database, creating its file if needed.
+   *
+   * @param path The index file.
+   * @param columns Number of columns.
+   * @param rows Number of rows.
+   * @param winNum Number of checkers in a row for winning.
+   * @param flushSeconds Time between flushes, 0 to flush only on demand.
+   * @throws IOException if the file cannot be opened.
+   */
+  StatsDatabase(Path path, int columns, int rows, int winNum,
+                long flushSeconds) throws IOException {
+    this.columns = columns;
+    this.rows = rows;
+    this.winNum = winNum;
+    index = new StatsIndex(path, columns, rows, winNum);
+    for (int i = 0; i < STRIPES; ++i) {
+      stripes[i] = new Stripe();
+    }
+    if (flushSeconds <= 0) {
+      flusher = null;
+      return;
+    }
+    flusher = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Statistics flush");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    flusher.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          flush();
+        } catch (IOException e) {
+          System.err.println("Statistics flush failed: " + e.getMessage());
+        }
+      }
+    }, flushSeconds, flushSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Record the games of a model from now on.
+   *
+   * @param game The game. Must have this database's geometry.
+   * @throws IllegalArgumentException if the geometry differs.
+   */
+  void attach(ConnectFourModel game) throws IllegalArgumentException {
+    if (game.COLUMNS != columns || game.ROWS != rows
+        || game.getWinNum() != winNum) {
+      throw new IllegalArgumentException("Game of another geometry.");
+    }
+    game.addListener(new Recorder());
+  }
+
+  /**
+   * Get the statistics of a position.
+   *
+   * @param position The position.
+   * @param player The player to move.
+   * @return for each column col, the number of games the player won,
+   *         drew and lost after playing col, at [3 * col + WINS],
+   *         [3 * col + DRAWS] and [3 * col + LOSSES].
+   */
+  int[] get(Board position, PlayerId player) {
+    ScratchBoard board = ScratchBoard.copyOf(position, player);
+    int[] canonical = new int[3 * columns];
+    long key = key(board);
+    Stripe stripe = stripe(key);
+    synchronized (stripe) {
+      index.get(key, canonical);
+      int[] pending = stripe.counts.get(key);
+      if (pending != null) {
+        for (int i = 0; i < canonical.length; ++i) {
+          canonical[i] += pending[i];
+        }
+      }
+    }
+    if (!board.isMirrored()) {
+      return canonical;
+    }
+    int[] counts = new int[3 * columns];
+    for (int col = 0; col < columns; ++col) {
+      System.arraycopy(canonical, 3 * (columns - 1 - col), counts, 3 * col,
+                       3);
+    }
+    return counts;
+  }
+
+  /**
+   * Get the number of games recorded.
+   *
+   * @return the number of games in the index and not yet flushed.
+   */
+  long getGames() {
+    synchronized (games) {
+      return index.getGames() + games.get();
+    }
+  }
+
+  /**
+   * Get the number of positions in the index.
+   *
+   * @return the number of positions flushed so far.
+   */
+  int getIndexedPositions() {
+    return index.size();
+  }
+
+  /**
+   * Record a finished game.
+   *
+   * @param moves The columns played, in order.
+   * @param count The number of moves.
+   * @param first The player who moved first.
+   * @param winner The winner, or null for a draw.
+   */
+  void record(int[] moves, int count, PlayerId first, PlayerId winner) {
+    ScratchBoard board = new ScratchBoard(columns, rows, first);
+    for (int i = 0; i < count; ++i) {
+      PlayerId player = board.getToMove();
+      int result = winner == null ? DRAWS
+                   : winner == player ? WINS : LOSSES;
+      int col = board.isMirrored() ? columns - 1 - moves[i] : moves[i];
+      long key = key(board);
+      Stripe stripe = stripe(key);
+      synchronized (stripe) {
+        int[] counts = stripe.counts.get(key);
+        if (counts == null) {
+          counts = new int[3 * columns];
+          stripe.counts.put(key, counts);
+        }
+        ++counts[3 * col + result];
+      }
+      board.play(moves[i]);
+    }
+    games.incrementAndGet();
+  }
+
+  /**
+   * Move the counts gathered in memory to the index.
+   *
+   * @throws IOException if the index cannot grow.
+   */
+  void flush() throws IOException {
+    // One stripe at a time, so recording goes on in the others.
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        if (!stripe.counts.isEmpty()) {
+          index.merge(stripe.counts, 0);
+          stripe.counts = new HashMap<Long, int[]>();
+        }
+      }
+    }
+    synchronized (games) {
+      long flushed = games.get();
+      index.merge(new HashMap<Long, int[]>(), flushed);
+      games.addAndGet(-flushed);
+    }
+    index.force();
+  }
+
+  /**
+   * Flush, stop flushing periodically and close the index.
+   *
+   * @throws IOException if flushing or closing fails.
+   */
+  void close() throws IOException {
+    if (flusher != null) {
+      flusher.shutdown();
+    }
+    flush();
+    index.close();
+  }
+
+  /* Key of a position, with the player to move mixed in. */
+  private static long key(ScratchBoard board) {
+    return board.getKey()
+           ^ (board.getToMove() == PlayerId.PLAYER2 ? PLAYER2_TO_MOVE : 0);
+  }
+
+  private Stripe stripe(long key) {
+    return stripes[(int) ((key * 0x9E3779B97F4A7C15L) >>> 58)];
+  }
+
+  /**
+   * Follows the moves of one game and records it when it ends.
+   *
+   * <p>Once a game is recorded, it is not recorded again until the game
+   * is reset, so taking moves back and finishing again does not count
+   * the game twice.</p>
+   *
+   * @author Chenyang Tang
+   */
+  private final class Recorder implements ConnectFourListener {
+    private final int[] moves = new int[columns * rows];
+    private int count = 0;
+    private PlayerId first;
+    private boolean recorded = false;
+
+    @Override
+    public synchronized void boardUpdate(int col, int row, PlayerId player) {
+      if (count == 0) {
+        first = player;
+      }
+      moves[count++] = col;
+    }
+
+    @Override
+    public synchronized void checkerRemoved(int col, int row) {
+      --count;
+    }
+
+    @Override
+    public void lockBoard() {}
+
+    @Override
+    public void unlockBoard() {}
+
+    @Override
+    public synchronized void gameDraw() {
+      finish(null);
+    }
+
+    @Override
+    public synchronized void gameWon(PlayerId player) {
+      finish(player);
+    }
+
+    @Override
+    public synchronized void gameReset() {
+      count = 0;
+      recorded = false;
+    }
+
+    private void finish(PlayerId winner) {
+      if (!recorded) {
+        recorded = true;
+        record(moves, count, first, winner);
+      }
+    }
+  }
+
+  /**
+   * Starting point of the tool.
+   *
+   * @param args See the class documentation.
+   */
+  public static void main(String[] args) throws IOException {
+    boolean seeded = args.length == 4 || args.length == 7;
+    if (args.length < 3 || args.length > 7 || args.length == 5
+        || seeded && !args[0].equals("play")) {
+      System.err.println("Usage: stats play file games "
+                         + "[columns rows winNum] [seed]\n"
+                         + "       stats query file moves "
+                         + "[columns rows winNum]");
+      System.exit(2);
+    }
+    boolean sized = args.length >= 6;
+    int columns = sized ? Integer.parseInt(args[3]) : 7;
+    int rows = sized ? Integer.parseInt(args[4]) : 6;
+    int winNum = sized ? Integer.parseInt(args[5]) : 4;
+    Path path = Paths.get(args[1]);
+    if (args[0].equals("play")) {
+      StatsDatabase database =
+          new StatsDatabase(path, columns, rows, winNum);
+      long target = Long.parseLong(args[2]);
+      long seed = seeded ? Long.parseLong(args[args.length - 1])
+                         : new SplittableRandom().nextLong();
+      long start = System.nanoTime();
+      play(database, target, columns, rows, winNum, seed);
+      database.close();
+      System.out.printf("%d games in %.1f s (seed %d); %d games, "
+                        + "%d positions in the database%n", target,
+                        (System.nanoTime() - start) / 1e9, seed,
+                        database.getGames(), database.getIndexedPositions());
+    } else if (args[0].equals("query")) {
+      StatsDatabase database =
+          new StatsDatabase(path, columns, rows, winNum, 0);
+      ScratchBoard board =
+          BatchAnalyzer.replay(columns, rows, winNum, args[2]);
+      long start = System.nanoTime();
+      int[] counts = database.get(board, board.getToMove());
+      long nanos = System.nanoTime() - start;
+      for (int col = 0; col < columns; ++col) {
+        System.out.printf("column %d: %d won, %d drawn, %d lost%n", col,
+                          counts[3 * col + WINS], counts[3 * col + DRAWS],
+                          counts[3 * col + LOSSES]);
+      }
+      System.out.printf("(%.1f us)%n", nanos / 1e3);
+      database.close();
+    } else {
+      System.err.println("Unknown stats command: " + args[0]);
+      System.exit(2);
+    }
+  }
+
+  /* Plays games between two SimpleAi players on one seeded model. */
+  private static void play(StatsDatabase database, long games, int columns,
+                           int rows, int winNum, long seed) {
+    ConnectFourModel game = new ConnectFourModel.Builder(
+        PlayerType.HUMAN, PlayerType.HUMAN)
+        .setColumns(columns).setRows(rows).setWinNum(winNum)
+        .setSeed(seed).build();
+    final boolean[] over = new boolean[1];
+    game.addListener(new ConnectFourListener() {
+      @Override
+      public void boardUpdate(int col, int row, PlayerId player) {}
+      @Override
+      public void checkerRemoved(int col, int row) {}
+      @Override
+      public void lockBoard() {}
+      @Override
+      public void unlockBoard() {}
+      @Override
+      public void gameDraw() {
+        over[0] = true;
+      }
+      @Override
+      public void gameWon(PlayerId player) {
+        over[0] = true;
+      }
+      @Override
+      public void gameReset() {
+        over[0] = false;
+      }
+    });
+    database.attach(game);
+    for (long i = 0; i < games; ++i) {
+      game.reset();
+      ConnectFourAi ai = SimpleAi.seeded(game.getRandom());
+      while (!over[0]) {
+        game.clicked(ai.decideMove(
+            game.getPosition(), game.getCurrentPlayer(), winNum));
+      }
+    }
+  }
+}
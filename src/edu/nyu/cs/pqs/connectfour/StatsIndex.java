@@ -0,0 +1,270 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * An on-disk hash index of position statistics, memory-mapped.
+ *
+ * <p>The file is one open-addressed hash table with linear probing, so a
+ * lookup touches one or two slots and only the pages it needs are read
+ * from disk: opening a large index costs nothing, and a query takes
+ * microseconds once its page is cached.</p>
+ *
+ * <p>Format, little-endian: a header of HEADER_BYTES bytes (magic "C4PS",
+ * version, columns, rows, winNum, capacity and entry count as 32-bit
+ * integers, then the number of games as a 64-bit integer), then capacity
+ * slots. A slot is the position key (64 bits), a used flag (32 bits) and,
+ * for each column, the number of wins, draws and losses of the player to
+ * move after playing there (32 bits each). The capacity is a power of
+ * two; the table is rewritten twice as large, next to the file and moved
+ * over it, before it is three quarters full.</p>
+ *
+ * <p>The index is thread safe: all access is synchronized.</p>
+ *
+ * @author Chenyang Tang
+ */
+final class StatsIndex {
+  /** Size of the file header. */
+  static final int HEADER_BYTES = 64;
+  private static final int MAGIC = 0x53503443; // "C4PS"
+  private static final int VERSION = 1;
+  private static final int INITIAL_CAPACITY = 1 << 12;
+  private static final int CAPACITY_OFFSET = 20;
+  private static final int COUNT_OFFSET = 24;
+  private static final int GAMES_OFFSET = 28;
+
+  private final Path path;
+  private final int columns;
+  private final int rows;
+  private final int winNum;
+  private final int slotBytes;
+  private FileChannel channel;
+  private MappedByteBuffer buffer;
+  private int capacity;
+  private int count;
+
+  /**
+   * Open an index, creating it if the file does not exist.
+   *
+   * @param path The file.
+   * @param columns Number of columns of the positions.
+   * @param rows Number of rows of the positions.
+   * @param winNum Number of checkers in a row for winning.
+   * @throws IOException if the file cannot be read or written, or is an
+   *                     index of another geometry.
+   */
+  StatsIndex(Path path, int columns, int rows, int winNum)
+                                                      throws IOException {
+    this.path = path;
+    this.columns = columns;
+    this.rows = rows;
+    this.winNum = winNum;
+    slotBytes = 12 + 12 * columns;
+    if (!Files.exists(path) || Files.size(path) == 0) {
+      create(path, INITIAL_CAPACITY).close();
+    }
+    open();
+  }
+
+  /**
+   * Look up a position.
+   *
+   * @param key The position key (see StatsDatabase.key()).
+   * @param counts Receives, for each column, wins, draws and losses at
+   *               [3 * col], [3 * col + 1] and [3 * col + 2]. Added to,
+   *               not overwritten.
+   * @return true if the position is in the index.
+   */
+  synchronized boolean get(long key, int[] counts) {
+    int slot = find(buffer, capacity, key);
+    if (!isUsed(buffer, slot)) {
+      return false;
+    }
+    int base = slotOffset(slot) + 12;
+    for (int i = 0; i < 3 * columns; ++i) {
+      counts[i] += buffer.getInt(base + 4 * i);
+    }
+    return true;
+  }
+
+  /**
+   * Add counts to the index.
+   *
+   * @param entries Counts by position key, laid out as in get().
+   * @param games Number of games the counts come from.
+   * @throws IOException if growing the index fails.
+   */
+  synchronized void merge(Map<Long, int[]> entries, long games)
+                                                      throws IOException {
+    if ((long) (count + entries.size()) * 4 > (long) capacity * 3) {
+      grow(count + entries.size());
+    }
+    for (Map.Entry<Long, int[]> entry : entries.entrySet()) {
+      add(buffer, capacity, entry.getKey(), entry.getValue());
+    }
+    buffer.putLong(GAMES_OFFSET, buffer.getLong(GAMES_OFFSET) + games);
+  }
+
+  /**
+   * Get the number of positions in the index.
+   *
+   * @return the number of entries.
+   */
+  synchronized int size() {
+    return count;
+  }
+
+  /**
+   * Get the number of games counted in the index.
+   *
+   * @return the number of games.
+   */
+  synchronized long getGames() {
+    return buffer.getLong(GAMES_OFFSET);
+  }
+
+  /**
+   * Write all changes to the disk.
+   */
+  synchronized void force() {
+    buffer.force();
+  }
+
+  /**
+   * Write all changes to the disk and close the file.
+   *
+   * @throws IOException if closing fails.
+   */
+  synchronized void close() throws IOException {
+    buffer.force();
+    channel.close();
+  }
+
+  private void open() throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.READ,
+                               StandardOpenOption.WRITE);
+    if (channel.size() < HEADER_BYTES) {
+      channel.close();
+      throw new IOException("Not a statistics index: " + path);
+    }
+    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      channel.close();
+      throw new IOException("Not a statistics index: " + path);
+    }
+    if (buffer.getInt(8) != columns || buffer.getInt(12) != rows
+        || buffer.getInt(16) != winNum) {
+      channel.close();
+      throw new IOException("Statistics index of another geometry: "
+                            + path);
+    }
+    capacity = buffer.getInt(CAPACITY_OFFSET);
+    count = buffer.getInt(COUNT_OFFSET);
+    if (Integer.bitCount(capacity) != 1
+        || channel.size() != HEADER_BYTES + (long) capacity * slotBytes) {
+      channel.close();
+      throw new IOException("Corrupt statistics index: " + path);
+    }
+  }
+
+  /* Creates an empty index file of a capacity and returns it open. */
+  private FileChannel create(Path file, int slots) throws IOException {
+    long size = HEADER_BYTES + (long) slots * slotBytes;
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Statistics index too large to map.");
+    }
+    FileChannel created = FileChannel.open(file,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    MappedByteBuffer header = created.map(
+        FileChannel.MapMode.READ_WRITE, 0, size);
+    header.order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, columns)
+          .putInt(12, rows).putInt(16, winNum)
+          .putInt(CAPACITY_OFFSET, slots).putInt(COUNT_OFFSET, 0)
+          .putLong(GAMES_OFFSET, 0L);
+    header.force();
+    return created;
+  }
+
+  /* Rewrites the table large enough for entries, then swaps it in. */
+  private void grow(int entries) throws IOException {
+    int slots = capacity;
+    while ((long) entries * 4 > (long) slots * 3) {
+      slots *= 2;
+    }
+    Path parent = path.toAbsolutePath().getParent();
+    Path temp = Files.createTempFile(parent, "stats", ".tmp");
+    FileChannel grown = create(temp, slots);
+    MappedByteBuffer target = grown.map(
+        FileChannel.MapMode.READ_WRITE, 0, grown.size());
+    target.order(ByteOrder.LITTLE_ENDIAN);
+    int[] counts = new int[3 * columns];
+    int moved = 0;
+    for (int slot = 0; slot < capacity; ++slot) {
+      if (isUsed(buffer, slot)) {
+        int base = slotOffset(slot);
+        for (int i = 0; i < counts.length; ++i) {
+          counts[i] = buffer.getInt(base + 12 + 4 * i);
+        }
+        add(target, slots, buffer.getLong(base), counts);
+        ++moved;
+      }
+    }
+    target.putInt(COUNT_OFFSET, moved);
+    target.putLong(GAMES_OFFSET, buffer.getLong(GAMES_OFFSET));
+    target.force();
+    grown.close();
+    channel.close();
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    open();
+  }
+
+  /* Adds counts to the slot of a key in a table, claiming the slot if
+   * the key is new. */
+  private void add(MappedByteBuffer table, int slots, long key,
+                   int[] counts) {
+    int slot = find(table, slots, key);
+    int base = slotOffset(slot);
+    if (!isUsed(table, slot)) {
+      table.putLong(base, key);
+      table.putInt(base + 8, 1);
+      int entries = table.getInt(COUNT_OFFSET) + 1;
+      table.putInt(COUNT_OFFSET, entries);
+      if (table == buffer) {
+        count = entries;
+      }
+    }
+    for (int i = 0; i < counts.length; ++i) {
+      int offset = base + 12 + 4 * i;
+      table.putInt(offset, table.getInt(offset) + counts[i]);
+    }
+  }
+
+  /* The slot of a key in a table, or the empty slot where it belongs. */
+  private int find(MappedByteBuffer table, int slots, long key) {
+    long mixed = key * 0x9E3779B97F4A7C15L;
+    int slot = (int) (mixed >>> 32) & (slots - 1);
+    while (isUsed(table, slot) && table.getLong(slotOffset(slot)) != key) {
+      slot = (slot + 1) & (slots - 1);
+    }
+    return slot;
+  }
+
+  private boolean isUsed(MappedByteBuffer table, int slot) {
+    return table.getInt(slotOffset(slot) + 8) != 0;
+  }
+
+  private int slotOffset(int slot) {
+    return HEADER_BYTES + slot * slotBytes;
+  }
+}
@@ -0,0 +1,481 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.ConnectFourAi;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.Difficulty;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.NodeCounter;
+
+/**
+ * Regression runner of an AI over a suite of benchmark positions.
+ *
+ * <p>Usage: <code>SuiteRunner ai [--suite file] [--threads n]
+ * [--out file] [--baseline file]</code></p>
+ *
+ * <p>A suite holds positions with their best columns and game value, one
+ * per line: the number of columns, rows and checkers in a row for
+ * winning, the moves from the empty board as accepted by BatchAnalyzer,
+ * the comma-separated best columns, and the value for the player to move
+ * (win, draw, loss, or ? if only the moves that do not lose are known).
+ * Blank lines and lines starting with # are skipped. The built-in suite,
+ * positions.suite, covers 7x6 connect 4 and larger geometries up to 18x10
+ * connect 10.</p>
+ *
+ * <p>The AI is one of <code>simple</code>, <code>easy</code>,
+ * <code>medium</code>, <code>hard</code> (the computer player of that
+ * difficulty), <code>alphabeta:depth</code> (a full-width search of that
+ * depth), <code>proving</code> (a ProvingAi over the medium player) and
+ * <code>perfect</code> (the PerfectSolver, 7x6 only). Each worker thread
+ * has its own instance. An AI that cannot play a geometry skips it.</p>
+ *
+ * <p>For each position, one result line is written in suite order: the
+ * suite line number, the geometry, the best columns, the column chosen,
+ * "ok", "miss" or "skip", the time to decide in microseconds and the
+ * positions searched (-1 if the AI does not count them). A summary goes
+ * to standard error. With a baseline, a file of results from an earlier
+ * run, the runner also lists every position solved then and missed now,
+ * and whether the positions solved by both runs took over SLOWER times as
+ * long; if so it exits with status 1.</p>
+ *
+ * @author Chenyang Tang
+ */
+public class SuiteRunner {
+  /** The built-in suite. */
+  static final String RESOURCE = "positions.suite";
+  /** Time ratio to the baseline counted as a regression. */
+  static final double SLOWER = 1.25;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  // Depth of the budgeted players: the deepest the transposition table
+  // holds. Their node budget ends the search well before.
+  private static final int BUDGETED_DEPTH = 255;
+
+  private final String aiName;
+  private final int threads;
+
+  /**
+   * A benchmark position.
+   *
+   * @author Chenyang Tang
+   */
+  static final class Position {
+    final int line;
+    final int columns;
+    final int rows;
+    final int winNum;
+    final String moves;
+    final String best;
+    final String value;
+    private final boolean[] isBest;
+
+    Position(int line, int columns, int rows, int winNum, String moves,
+             String best, String value) {
+      this.line = line;
+      this.columns = columns;
+      this.rows = rows;
+      this.winNum = winNum;
+      this.moves = moves;
+      this.best = best;
+      this.value = value;
+      isBest = new boolean[columns];
+      for (String col : best.split(",")) {
+        isBest[Integer.parseInt(col)] = true;
+      }
+    }
+
+    /**
+     * Tell if a column is one of the best moves.
+     *
+     * @param col The column.
+     * @return true if it is.
+     */
+    boolean isBest(int col) {
+      return col >= 0 && col < columns && isBest[col];
+    }
+
+    String geometry() {
+      return columns + "x" + rows + "/" + winNum;
+    }
+  }
+
+  /**
+   * The outcome of one position.
+   *
+   * @author Chenyang Tang
+   */
+  static final class Result {
+    final Position position;
+    /** Column chosen, -1 if skipped. */
+    final int chosen;
+    /** Time to decide in nanoseconds. */
+    final long nanos;
+    /** Positions searched, -1 if not counted. */
+    final long nodes;
+
+    Result(Position position, int chosen, long nanos, long nodes) {
+      this.position = position;
+      this.chosen = chosen;
+      this.nanos = nanos;
+      this.nodes = nodes;
+    }
+
+    boolean isSkipped() {
+      return chosen == -1;
+    }
+
+    boolean isSolved() {
+      return position.isBest(chosen);
+    }
+
+    String status() {
+      return isSkipped() ? "skip" : isSolved() ? "ok" : "miss";
+    }
+  }
+
+  /**
+   * Construct a runner.
+   *
+   * @param aiName The AI, as in the class documentation.
+   * @param threads Number of worker threads. Must be positive.
+   * @throws IllegalArgumentException if the AI is unknown or threads is
+   *                                  not positive.
+   */
+  SuiteRunner(String aiName, int threads) throws IllegalArgumentException {
+    if (threads < 1) {
+      throw new IllegalArgumentException(
+                              "Number of threads must be positive integer.");
+    }
+    newAi(aiName);
+    this.aiName = aiName;
+    this.threads = threads;
+  }
+
+  /**
+   * Starting point.
+   *
+   * @param args See the class documentation.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length % 2 != 1) {
+      usage();
+    }
+    String suite = null;
+    String out = null;
+    String baseline = null;
+    int threads = Runtime.getRuntime().availableProcessors();
+    for (int i = 1; i < args.length; i += 2) {
+      if (args[i].equals("--suite")) {
+        suite = args[i + 1];
+      } else if (args[i].equals("--threads")) {
+        threads = Integer.parseInt(args[i + 1]);
+      } else if (args[i].equals("--out")) {
+        out = args[i + 1];
+      } else if (args[i].equals("--baseline")) {
+        baseline = args[i + 1];
+      } else {
+        usage();
+      }
+    }
+    List<Position> positions = suite == null ? readBuiltIn()
+                                             : read(open(suite));
+    List<Result> results = new SuiteRunner(args[0], threads).run(positions);
+    Writer writer = new BufferedWriter(out == null
+        ? new OutputStreamWriter(System.out, UTF8)
+        : new OutputStreamWriter(new FileOutputStream(out), UTF8));
+    try {
+      write(results, writer);
+    } finally {
+      writer.flush();
+      if (out != null) {
+        writer.close();
+      }
+    }
+    summarize(results);
+    if (baseline != null && !compare(results, open(baseline))) {
+      System.exit(1);
+    }
+  }
+
+  private static void usage() {
+    System.err.println("Usage: suite ai [--suite file] [--threads n] "
+                       + "[--out file] [--baseline file]\n"
+                       + "  ai: simple, easy, medium, hard, alphabeta:depth,"
+                       + " proving or perfect");
+    System.exit(2);
+  }
+
+  /**
+   * Create an AI by name.
+   *
+   * @param name The name, as in the class documentation.
+   * @return a new instance.
+   * @throws IllegalArgumentException if the name is unknown.
+   */
+  static ConnectFourAi newAi(String name) throws IllegalArgumentException {
+    if (name.equals("simple")) {
+      return SimpleAi.getInstance();
+    } else if (name.equals("proving")) {
+      return new ProvingAi(newAi("medium"));
+    } else if (name.equals("perfect")) {
+      return new PerfectSolver();
+    } else if (name.startsWith("alphabeta:")) {
+      return new AlphaBetaAi(Integer.parseInt(name.substring(10)),
+                             PatternEvaluator.trained());
+    }
+    for (Difficulty difficulty : Difficulty.values()) {
+      if (difficulty.name().equalsIgnoreCase(name)) {
+        return new AlphaBetaAi(BUDGETED_DEPTH,
+            PatternEvaluator.trained(), difficulty.nodes);
+      }
+    }
+    throw new IllegalArgumentException("Unknown AI: " + name);
+  }
+
+  /**
+   * Let the AI decide every position.
+   *
+   * @param positions The positions.
+   * @return the results, in the order of the positions.
+   */
+  List<Result> run(List<Position> positions) {
+    final ThreadLocal<ConnectFourAi> ais = new ThreadLocal<ConnectFourAi>() {
+      @Override
+      protected ConnectFourAi initialValue() {
+        return newAi(aiName);
+      }
+    };
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<Future<Result>> futures = new ArrayList<Future<Result>>();
+    try {
+      for (final Position position : positions) {
+        futures.add(pool.submit(new Callable<Result>() {
+          @Override
+          public Result call() {
+            return decide(ais.get(), position);
+          }
+        }));
+      }
+      List<Result> results = new ArrayList<Result>();
+      for (Future<Result> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted.", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Benchmark failed.", e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private static Result decide(ConnectFourAi ai, Position position) {
+    ScratchBoard board = BatchAnalyzer.replay(
+        position.columns, position.rows, position.winNum, position.moves);
+    NodeCounter counter = ai instanceof NodeCounter ? (NodeCounter) ai : null;
+    long nodes = counter == null ? 0 : counter.getNodes();
+    long start = System.nanoTime();
+    int chosen;
+    try {
+      chosen = ai.decideMove(board, board.getToMove(), position.winNum);
+    } catch (IllegalArgumentException e) {
+      // The AI does not play this geometry.
+      return new Result(position, -1, 0, -1);
+    }
+    long nanos = System.nanoTime() - start;
+    return new Result(position, chosen, nanos,
+                      counter == null ? -1 : counter.getNodes() - nodes);
+  }
+
+  /**
+   * Read a suite.
+   *
+   * @param in Reader of the suite. Closed when done.
+   * @return the positions.
+   * @throws IOException if reading fails.
+   * @throws IllegalArgumentException if a line is not a valid position.
+   */
+  static List<Position> read(BufferedReader in)
+                              throws IOException, IllegalArgumentException {
+    List<Position> positions = new ArrayList<Position>();
+    try {
+      String line;
+      int lineNumber = 0;
+      while ((line = in.readLine()) != null) {
+        ++lineNumber;
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        try {
+          positions.add(parse(lineNumber, line));
+        } catch (IllegalArgumentException e) {
+          // Includes NumberFormatException.
+          throw new IllegalArgumentException(
+              "Line " + lineNumber + ": " + e.getMessage(), e);
+        }
+      }
+    } finally {
+      in.close();
+    }
+    return positions;
+  }
+
+  /**
+   * Read the built-in suite.
+   *
+   * @return the positions.
+   * @throws IOException if the suite is missing or cannot be read.
+   */
+  static List<Position> readBuiltIn() throws IOException {
+    InputStream in = SuiteRunner.class.getResourceAsStream(RESOURCE);
+    if (in == null) {
+      throw new IOException("Built-in suite not found: " + RESOURCE);
+    }
+    return read(new BufferedReader(new InputStreamReader(in, UTF8)));
+  }
+
+  private static Position parse(int lineNumber, String line) {
+    String[] fields = line.split("\\s+");
+    if (fields.length != 6) {
+      throw new IllegalArgumentException("Expected 6 fields.");
+    }
+    int columns = Integer.parseInt(fields[0]);
+    int rows = Integer.parseInt(fields[1]);
+    int winNum = Integer.parseInt(fields[2]);
+    if (columns < 1 || rows < 1 || winNum < 1) {
+      throw new IllegalArgumentException(
+                                "Board settings must be positive integers.");
+    }
+    ScratchBoard board = BatchAnalyzer.replay(columns, rows, winNum,
+                                              fields[3]);
+    for (String col : fields[4].split(",")) {
+      int best = Integer.parseInt(col);
+      if (best < 0 || best >= columns || !board.canPlay(best)) {
+        throw new IllegalArgumentException("Illegal best move " + col + ".");
+      }
+    }
+    if (!fields[5].matches("win|draw|loss|\\?")) {
+      throw new IllegalArgumentException("Unknown value " + fields[5] + ".");
+    }
+    return new Position(lineNumber, columns, rows, winNum, fields[3],
+                        fields[4], fields[5]);
+  }
+
+  private static BufferedReader open(String file) throws IOException {
+    return new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), UTF8));
+  }
+
+  /**
+   * Write results, one line per position.
+   *
+   * @param results The results.
+   * @param out Writer of the lines.
+   * @throws IOException if writing fails.
+   */
+  static void write(List<Result> results, Writer out) throws IOException {
+    for (Result result : results) {
+      Position position = result.position;
+      out.write(position.line + " " + position.geometry() + " "
+                + position.best + " " + result.chosen + " "
+                + result.status() + " " + result.nanos / 1000 + " "
+                + result.nodes + "\n");
+    }
+  }
+
+  private static void summarize(List<Result> results) {
+    // Per geometry: positions, solved, skipped, nanoseconds, nodes.
+    Map<String, long[]> totals = new HashMap<String, long[]>();
+    List<String> order = new ArrayList<String>();
+    for (Result result : results) {
+      String geometry = result.position.geometry();
+      long[] total = totals.get(geometry);
+      if (total == null) {
+        total = new long[5];
+        totals.put(geometry, total);
+        order.add(geometry);
+      }
+      ++total[0];
+      total[1] += result.isSolved() ? 1 : 0;
+      total[2] += result.isSkipped() ? 1 : 0;
+      total[3] += result.nanos;
+      total[4] += Math.max(0, result.nodes);
+    }
+    for (String geometry : order) {
+      long[] total = totals.get(geometry);
+      System.err.printf("%-10s %d/%d solved, %d skipped, %.1f ms, "
+                        + "%d nodes%n", geometry, total[1],
+                        total[0] - total[2], total[2], total[3] / 1e6,
+                        total[4]);
+    }
+  }
+
+  /**
+   * Compare results with those of an earlier run, and report regressions
+   * on standard error.
+   *
+   * @param results The results.
+   * @param baseline Reader of the earlier results. Closed when done.
+   * @return true if there is no regression.
+   * @throws IOException if reading fails.
+   */
+  static boolean compare(List<Result> results, BufferedReader baseline)
+                                                        throws IOException {
+    // Time in microseconds by line number, of the positions solved then.
+    Map<Integer, Long> solved = new HashMap<Integer, Long>();
+    try {
+      String line;
+      while ((line = baseline.readLine()) != null) {
+        String[] fields = line.trim().split("\\s+");
+        if (fields.length == 7 && fields[4].equals("ok")) {
+          solved.put(Integer.valueOf(fields[0]), Long.valueOf(fields[5]));
+        }
+      }
+    } finally {
+      baseline.close();
+    }
+    boolean passed = true;
+    long before = 0;
+    long now = 0;
+    for (Result result : results) {
+      Long time = solved.get(result.position.line);
+      if (time == null) {
+        continue;
+      }
+      if (result.isSolved()) {
+        before += time;
+        now += result.nanos / 1000;
+      } else {
+        System.err.println("Regression: line " + result.position.line
+                           + " " + result.status() + ", chose "
+                           + result.chosen);
+        passed = false;
+      }
+    }
+    if (now > before * SLOWER) {
+      System.err.printf("Regression: %.1f ms against %.1f ms%n",
+                        now / 1e3, before / 1e3);
+      passed = false;
+    }
+    return passed;
+  }
+}
@@ -0,0 +1,252 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+
+/**
+ * Delivers model events to a Swing listener on the event dispatch thread.
+ * 
+ * <p>The model calls its listeners on whichever thread made the move, 
+ * often an AI thread. This adapter, registered with the model in place of
+ * the Swing listener, queues every event and drains the queue on the EDT
+ * in a single invokeLater() pass, however many events arrived meanwhile,
+ * so Swing coalesces the resulting repaints into one. Lock and unlock 
+ * events in a row are merged into the last of them, and dropped if they 
+ * would not change the state last delivered.</p>
+ * 
+ * <p>Moves can be paced for the eye: a move is then shown no sooner than
+ * the pace after the previous move arrived, so a quick computer reply is
+ * held back for a moment. Holding back never blocks a thread; a Swing 
+ * timer resumes the drain, and events behind the held move wait with 
+ * it. Replies slower than the pace, and human moves, are not delayed.</p>
+ * 
+ * <p>isLocked() is safe to call from any thread. It reports the board as
+ * locked until the listener has caught up with every queued event, so a 
+ * click is never accepted on a board that does not show the latest 
+ * move.</p>
+ * 
+ * @author Chenyang Tang
+ */
+class SwingListenerAdapter implements ConnectFourListener {
+  private final ConnectFourListener delegate;
+  private final long paceNanos;
+  // Resumes draining once a held move is due.
+  private final Timer paceTimer;
+  // Arrival time of the move last delivered. EDT only.
+  private long lastMoveArrival;
+  private final Queue<Event> queue = new ConcurrentLinkedQueue<Event>();
+  private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+  // Lock state as last reported by the model.
+  private volatile boolean locked = true;
+  // Lock state as last delivered to the delegate. EDT only.
+  private boolean deliveredLocked = true;
+  private final Runnable drain = new Runnable() {
+    @Override
+    public void run() {
+      drain();
+    }
+  };
+  
+  private enum Type {
+    UPDATE, REMOVE, LOCK, UNLOCK, DRAW, WON, RESET
+  }
+  
+  /**
+   * A queued model event.
+   * 
+   * @author Chenyang Tang
+   */
+  private static final class Event {
+    final Type type;
+    final int col;
+    final int row;
+    final PlayerId player;
+    final long arrival = System.nanoTime();
+    
+    Event(Type type, int col, int row, PlayerId player) {
+      this.type = type;
+      this.col = col;
+      this.row = row;
+      this.player = player;
+    }
+  }
+  
+  /**
+   * Construct an adapter that does not pace moves.
+   * 
+   * @param delegate The listener to call on the EDT. Starts out locked.
+   * @throws IllegalArgumentException if delegate is null.
+   */
+  SwingListenerAdapter(ConnectFourListener delegate) 
+                                          throws IllegalArgumentException {
+    this(delegate, 0);
+  }
+  
+  /**
+   * Construct an adapter.
+   * 
+   * @param delegate The listener to call on the EDT. Starts out locked.
+   * @param paceMillis Least time between the arrivals of two moves shown,
+   *                   0 to show moves at once.
+   * @throws IllegalArgumentException if delegate is null or paceMillis 
+   *                                  is negative.
+   */
+  SwingListenerAdapter(ConnectFourListener delegate, int paceMillis) 
+                                          throws IllegalArgumentException {
+    if (delegate == null) {
+      throw new IllegalArgumentException("Listener cannot be null.");
+    }
+    if (paceMillis < 0) {
+      throw new IllegalArgumentException("Pace cannot be negative.");
+    }
+    this.delegate = delegate;
+    paceNanos = TimeUnit.MILLISECONDS.toNanos(paceMillis);
+    lastMoveArrival = System.nanoTime() - paceNanos;
+    paceTimer = new Timer(0, new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent event) {
+        drain();
+      }
+    });
+    paceTimer.setRepeats(false);
+  }
+  
+  /**
+   * Check if the board should ignore clicks.
+   * 
+   * @return true if the model locked the board, or if the listener has
+   *         not yet been shown all events.
+   */
+  boolean isLocked() {
+    return locked || !queue.isEmpty();
+  }
+  
+  @Override
+  public void boardUpdate(int col, int row, PlayerId player) {
+    post(new Event(Type.UPDATE, col, row, player));
+  }
+  
+  @Override
+  public void checkerRemoved(int col, int row) {
+    post(new Event(Type.REMOVE, col, row, null));
+  }
+  
+  @Override
+  public void lockBoard() {
+    locked = true;
+    post(new Event(Type.LOCK, 0, 0, null));
+  }
+  
+  @Override
+  public void unlockBoard() {
+    locked = false;
+    post(new Event(Type.UNLOCK, 0, 0, null));
+  }
+  
+  @Override
+  public void gameDraw() {
+    post(new Event(Type.DRAW, 0, 0, null));
+  }
+  
+  @Override
+  public void gameWon(PlayerId player) {
+    post(new Event(Type.WON, 0, 0, player));
+  }
+  
+  @Override
+  public void gameReset() {
+    post(new Event(Type.RESET, 0, 0, null));
+  }
+  
+  private void post(Event event) {
+    queue.add(event);
+    if (drainScheduled.compareAndSet(false, true)) {
+      SwingUtilities.invokeLater(drain);
+    }
+  }
+  
+  /* Delivers everything queued so far. Runs on the EDT. */
+  private void drain() {
+    drainScheduled.set(false);
+    // Pending lock state change, null if none.
+    Boolean lock = null;
+    Event event;
+    while ((event = queue.peek()) != null) {
+      if (event.type == Type.UPDATE) {
+        long wait = lastMoveArrival + paceNanos - System.nanoTime();
+        if (wait > 0) {
+          deliverLock(lock);
+          paceTimer.setInitialDelay(
+              (int) TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+          paceTimer.restart();
+          return;
+        }
+        lastMoveArrival = event.arrival;
+      }
+      queue.poll();
+      switch (event.type) {
+        case LOCK:
+          lock = Boolean.TRUE;
+          continue;
+        case UNLOCK:
+          lock = Boolean.FALSE;
+          continue;
+        default:
+          break;
+      }
+      deliverLock(lock);
+      lock = null;
+      FlightEvents.ListenerDispatch dispatch = FlightEvents.beginDispatch();
+      String method;
+      switch (event.type) {
+        case UPDATE:
+          delegate.boardUpdate(event.col, event.row, event.player);
+          method = "boardUpdate";
+          break;
+        case REMOVE:
+          delegate.checkerRemoved(event.col, event.row);
+          method = "checkerRemoved";
+          break;
+        case DRAW:
+          delegate.gameDraw();
+          method = "gameDraw";
+          break;
+        case WON:
+          delegate.gameWon(event.player);
+          method = "gameWon";
+          break;
+        case RESET:
+          delegate.gameReset();
+          method = "gameReset";
+          break;
+        default:
+          throw new IllegalStateException("Unknown event.");
+      }
+      FlightEvents.endDispatch(dispatch, delegate, method);
+    }
+    deliverLock(lock);
+  }
+  
+  private void deliverLock(Boolean lock) {
+    if (lock == null || lock.booleanValue() == deliveredLocked) {
+      return;
+    }
+    deliveredLocked = lock.booleanValue();
+    FlightEvents.ListenerDispatch dispatch = FlightEvents.beginDispatch();
+    if (deliveredLocked) {
+      delegate.lockBoard();
+    } else {
+      delegate.unlockBoard();
+    }
+    FlightEvents.endDispatch(dispatch, delegate,
+                             deliveredLocked ? "lockBoard" : "unlockBoard");
+  }
+}
@@ -0,0 +1,111 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size transposition table for game tree searches.
+ * 
+ * <p>Entries are keyed by the canonical position key (see PositionKeys), 
+ * so a position and its mirror image share a single entry. The best move 
+ * is stored in canonical orientation as well: callers must pass it through
+ * PositionKeys.mirrorColumn() on the way in and out whenever their board is
+ * mirrored relative to its canonical form.</p>
+ * 
+ * <p>The table is a direct-mapped array of primitives with an 
+ * always-replace policy, so probing and storing never allocate. 
+ * It is not thread safe; give each search thread its own table.</p>
+ * 
+ * @author Chenyang Tang
+ */
+final class TranspositionTable {
+  /** The stored score is exact. */
+  static final int EXACT = 0;
+  /** The stored score is a lower bound of the real score. */
+  static final int LOWER = 1;
+  /** The stored score is an upper bound of the real score. */
+  static final int UPPER = 2;
+  /** Returned by probe() when the position is not in the table. */
+  static final long MISS = 0L;
+  
+  private final long[] keys;
+  private final long[] entries;
+  private final int mask;
+  
+  /**
+   * Construct an empty table.
+   * 
+   * @param sizeLog2 Log2 of the number of entries. Must be within [1, 30].
+   * @throws IllegalArgumentException if the size is out of range.
+   */
+  TranspositionTable(int sizeLog2) throws IllegalArgumentException {
+    if (sizeLog2 < 1 || sizeLog2 > 30) {
+      throw new IllegalArgumentException("Table size out of range.");
+    }
+    keys = new long[1 << sizeLog2];
+    entries = new long[1 << sizeLog2];
+    mask = (1 << sizeLog2) - 1;
+  }
+  
+  /**
+   * Look up a position.
+   * 
+   * @param canonicalKey The canonical key of the position.
+   * @return the packed entry, or MISS if the position is not stored.
+   *         Use scoreOf(), depthOf(), boundOf() and moveOf() to unpack it.
+   */
+  long probe(long canonicalKey) {
+    int index = index(canonicalKey);
+    if (keys[index] == canonicalKey && entries[index] != MISS) {
+      return entries[index];
+    }
+    return MISS;
+  }
+  
+  /**
+   * Store a search result, replacing whatever was in the slot.
+   * 
+   * @param canonicalKey The canonical key of the position.
+   * @param score The score of the position.
+   * @param depth The remaining depth the score was searched to (0 - 255).
+   * @param bound One of EXACT, LOWER and UPPER.
+   * @param move The best move in canonical orientation, or -1 if unknown.
+   */
+  void store(long canonicalKey, int score, int depth, int bound, int move) {
+    int index = index(canonicalKey);
+    keys[index] = canonicalKey;
+    // Bit 63 is always set so that a stored entry is never MISS.
+    entries[index] = (1L << 63)
+                     | ((long) (move + 1) & 0xFFFFL) << 42
+                     | ((long) bound & 0x3L) << 40
+                     | ((long) depth & 0xFFL) << 32
+                     | (score & 0xFFFFFFFFL);
+  }
+  
+  /**
+   * Remove all entries.
+   */
+  void clear() {
+    Arrays.fill(keys, 0L);
+    Arrays.fill(entries, MISS);
+  }
+  
+  static int scoreOf(long entry) {
+    return (int) entry;
+  }
+  
+  static int depthOf(long entry) {
+    return (int) (entry >>> 32) & 0xFF;
+  }
+  
+  static int boundOf(long entry) {
+    return (int) (entry >>> 40) & 0x3;
+  }
+  
+  static int moveOf(long entry) {
+    return ((int) (entry >>> 42) & 0xFFFF) - 1;
+  }
+  
+  private int index(long key) {
+    return (int) (key ^ (key >>> 32)) & mask;
+  }
+}
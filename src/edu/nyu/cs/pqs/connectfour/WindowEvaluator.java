@@ -0,0 +1,44 @@
+package edu.nyu.cs.pqs.connectfour;
+
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.Board;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
+
+/**
+ * Hand-written evaluation of Connect-Four positions.
+ * 
+ * <p>Looks at every winNum-length window on the board. A window still 
+ * open for a player (holding none of the opponent's checkers) adds the 
+ * square of the number of the player's checkers in it to his score; the
+ * opponent's open windows are subtracted the same way.</p>
+ * 
+ * @author Chenyang Tang
+ */
+class WindowEvaluator implements AlphaBetaAi.Evaluator {
+
+  @Override
+  public int evaluate(Board board, PlayerId player, int winNum) {
+    LineGeometry lines = LineGeometry.forGeometry(
+        board.getColumns(), board.getRows(), winNum);
+    byte mine = BoardSnapshot.encode(player);
+    int score = 0;
+    int index = 0;
+    for (int line = 0; line < lines.lineCount; ++line) {
+      int own = 0;
+      int other = 0;
+      for (int i = 0; i < winNum; ++i) {
+        byte checker = board.cell(lines.lineCells[index++]);
+        if (checker == mine) {
+          ++own;
+        } else if (checker != 0) {
+          ++other;
+        }
+      }
+      if (other == 0) {
+        score += own * own;
+      } else if (own == 0) {
+        score -= other * other;
+      }
+    }
+    return score;
+  }
+}
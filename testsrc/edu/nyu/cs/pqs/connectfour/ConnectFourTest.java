@@ -4,9 +4,32 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 import org.junit.Before;
 import org.junit.Test;
 
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.Board;
+import edu.nyu.cs.pqs.connectfour.ConnectFourModel.ConnectFourAi;
 import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerId;
 import edu.nyu.cs.pqs.connectfour.ConnectFourModel.PlayerType;
 
@@ -172,4 +195,799 @@ public class ConnectFourTest {
     assertEquals(9, SimpleAi.getInstance().decideMove(
         gameTwoHumans.getBoardForTest(), PlayerId.PLAYER1, 10));
   }
+  
+  @Test
+  public void testDraw_noOpenWindow() {
+    // One row of four columns, connect three: after checkers at columns
+    // 0, 1 and 2 alternate, neither window [0..2] nor [1..3] is winnable.
+    ConnectFourModel game = new ConnectFourModel.Builder(
+        PlayerType.HUMAN, PlayerType.HUMAN)
+        .setRows(1).setColumns(4).setWinNum(3).build();
+    final int[] draws = new int[1];
+    game.addListener(new ConnectFourListener() {
+      public void boardUpdate(int col, int row, PlayerId player) {}
+      public void checkerRemoved(int col, int row) {}
+      public void lockBoard() {}
+      public void unlockBoard() {}
+      public void gameDraw() { ++draws[0]; }
+      public void gameWon(PlayerId player) {}
+      public void gameReset() {}
+    });
+    game.clicked(0);
+    game.clicked(1);
+    assertEquals(0, draws[0]);
+    game.clicked(2);
+    assertEquals(1, draws[0]);
+    assertEquals(null, game.getBoardForTest().get(3, 0));
+  }
+  
+  @Test
+  public void testKey_mirrorSymmetry() {
+    ConnectFourModel mirrored = new ConnectFourModel.Builder(
+        PlayerType.HUMAN, PlayerType.HUMAN)
+        .setRows(10).setColumns(18).setFirstPlayer(PlayerId.PLAYER2)
+        .setWinNum(10).build();
+    gameTwoHumans.clicked(0);
+    gameTwoHumans.clicked(3);
+    mirrored.clicked(17);
+    mirrored.clicked(14);
+    assertEquals(gameTwoHumans.getBoardForTest().getKey(),
+                 mirrored.getBoardForTest().getKey());
+    assertTrue(gameTwoHumans.getBoardForTest().isMirrored()
+               != mirrored.getBoardForTest().isMirrored());
+    mirrored.clicked(14);
+    assertFalse(gameTwoHumans.getBoardForTest().getKey()
+                == mirrored.getBoardForTest().getKey());
+  }
+  
+  /* Multi-threaded like testComputerAutomaticPlay. The human moves while
+   * the computer is still pondering, so the reply is either taken from the
+   * pondered results or computed afresh; either way it must be played. */
+  @Test
+  public void testPondering_computerReplies() {
+    ConnectFourModel game = new ConnectFourModel.Builder(
+        PlayerType.HUMAN, PlayerType.COMPUTER).setPondering(true).build();
+    game.start();
+    try {
+      Thread.sleep(400);
+      game.clicked(3);
+      Thread.sleep(1000);
+    } catch (InterruptedException e) {
+      e.printStackTrace();
+    }
+    int checkers = 0;
+    for (int col = 0; col < game.getBoardForTest().getColumns(); ++col) {
+      checkers += game.getBoardForTest().getTop(col);
+    }
+    // getTop() of an untouched column is 0, so this counts the checkers.
+    assertEquals(2, checkers);
+  }
+  
+  @Test
+  public void testSnapshot_unaffectedByLaterMoves() {
+    gameTwoHumans.clicked(4);
+    BoardSnapshot snapshot = gameTwoHumans.getBoardForTest().snapshot();
+    gameTwoHumans.clicked(4);
+    gameTwoHumans.reset();
+    assertEquals(PlayerId.PLAYER2, snapshot.get(4, 0));
+    assertEquals(1, snapshot.getTop(4));
+    assertEquals(0, gameTwoHumans.getBoardForTest().getTop(4));
+  }
+  
+  @Test
+  public void testScratch_playAndUnplay() {
+    gameTwoHumans.clicked(4);
+    ConnectFourModel.BoardState board = gameTwoHumans.getBoardForTest();
+    ScratchBoard scratch = board.snapshot().scratch(PlayerId.PLAYER1);
+    assertEquals(board.getKey(), scratch.getKey());
+    assertEquals(1, scratch.play(4));
+    assertEquals(0, scratch.play(5));
+    assertEquals(PlayerId.PLAYER1, scratch.get(4, 1));
+    assertEquals(PlayerId.PLAYER2, scratch.get(5, 0));
+    assertEquals(5, scratch.unplay());
+    assertEquals(4, scratch.unplay());
+    assertEquals(board.getKey(), scratch.getKey());
+    assertEquals(null, scratch.get(4, 1));
+    assertEquals(null, board.get(5, 0));
+  }
+  
+  @Test
+  public void testAlphaBeta_scoresWinningColumn() {
+    for (int i = 0; i < 9; ++i) {
+      gameTwoHumans.clicked(i);
+      gameTwoHumans.clicked(i);
+    }
+    int[] scores = new AlphaBetaAi(2).scoreColumns(
+        gameTwoHumans.getBoardForTest(), PlayerId.PLAYER2, 10);
+    assertEquals(AlphaBetaAi.WIN - 1, scores[9]);
+    assertEquals(9, AlphaBetaAi.bestColumn(scores));
+  }
+  
+  @Test
+  public void testPerft_smallBoards() throws InterruptedException {
+    Perft.Counts counts = Perft.count(
+        new ScratchBoard(7, 6, PlayerId.PLAYER1), 4, 5, 2);
+    assertEquals(16807, counts.nodes);
+    assertEquals(0, counts.wins);
+    counts = Perft.count(new ScratchBoard(3, 3, PlayerId.PLAYER1), 3, 9, 2);
+    assertEquals(622, counts.nodes);
+    assertEquals(1002, counts.wins);
+    assertEquals(308, counts.draws);
+  }
+  
+  @Test
+  public void testScanner_findsWinningMove() {
+    for (int i = 0; i < 9; ++i) {
+      gameTwoHumans.clicked(i);
+      gameTwoHumans.clicked(i);
+    }
+    BitboardScanner scanner = 
+        new BitboardScanner(gameTwoHumans.getBoardForTest());
+    // Player 1's line is on row 1, where column 9 cannot be played yet.
+    assertEquals(-1, scanner.findWinningMove(PlayerId.PLAYER1, 10));
+    assertEquals(9, scanner.findWinningMove(PlayerId.PLAYER2, 10));
+    assertEquals(-1, scanner.findWinningMove(PlayerId.PLAYER2, 11));
+    assertFalse(scanner.hasWin(PlayerId.PLAYER1, 10));
+    assertTrue(scanner.hasWin(PlayerId.PLAYER1, 9));
+    int[] found = new int[2];
+    assertEquals(1, scanner.findWinningMoves(PlayerId.PLAYER2, 10, found));
+    assertEquals(9, found[0]);
+    assertEquals(0, scanner.findWinningMoves(PlayerId.PLAYER1, 10, found));
+  }
+  
+  @Test
+  public void testSwingAdapter_mergesLockEvents() throws Exception {
+    final StringBuilder seen = new StringBuilder();
+    SwingListenerAdapter adapter = new SwingListenerAdapter(
+        new ConnectFourListener() {
+          @Override
+          public void boardUpdate(int col, int row, PlayerId player) {
+            seen.append("update ");
+          }
+          @Override
+          public void checkerRemoved(int col, int row) {
+            seen.append("remove ");
+          }
+          @Override
+          public void lockBoard() {
+            seen.append("lock ");
+          }
+          @Override
+          public void unlockBoard() {
+            seen.append("unlock ");
+          }
+          @Override
+          public void gameDraw() {}
+          @Override
+          public void gameWon(PlayerId player) {}
+          @Override
+          public void gameReset() {}
+        });
+    // Hold the EDT so every event is queued before the drain.
+    final CountDownLatch release = new CountDownLatch(1);
+    SwingUtilities.invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    adapter.unlockBoard();
+    adapter.lockBoard();
+    adapter.boardUpdate(0, 0, PlayerId.PLAYER1);
+    adapter.unlockBoard();
+    adapter.lockBoard();
+    adapter.unlockBoard();
+    assertTrue(adapter.isLocked());
+    release.countDown();
+    SwingUtilities.invokeAndWait(new Runnable() {
+      @Override
+      public void run() {}
+    });
+    assertEquals("update unlock ", seen.toString());
+    assertFalse(adapter.isLocked());
+  }
+  
+  @Test
+  public void testPatternEvaluator_saveAndLoad() throws Exception {
+    PatternEvaluator initial = PatternEvaluator.initial(18, 10, 10);
+    Path file = Files.createTempFile("weights", ".bin");
+    try {
+      initial.save(file);
+      PatternEvaluator loaded = PatternEvaluator.load(file);
+      assertEquals(18, loaded.columns);
+      assertEquals(10, loaded.rows);
+      assertEquals(10, loaded.winNum);
+      assertTrue(Arrays.equals(initial.getWeights(), loaded.getWeights()));
+    } finally {
+      Files.delete(file);
+    }
+    gameTwoHumans.clicked(3);
+    Board board = gameTwoHumans.getBoardForTest();
+    // Player 2 moved first.
+    assertTrue(initial.evaluate(board, PlayerId.PLAYER2, 10) > 0);
+    assertEquals(-initial.evaluate(board, PlayerId.PLAYER2, 10), 
+                 initial.evaluate(board, PlayerId.PLAYER1, 10));
+  }
+  
+  @Test
+  public void testAsyncAi_answersByDeadline() throws Exception {
+    final List<Integer> depths = new ArrayList<Integer>();
+    long start = System.nanoTime();
+    // Far too deep to finish: the answer must come from earlier depths.
+    int move = new AlphaBetaAi(40).decideMoveAsync(
+        gameTwoHumans.getBoardForTest(), PlayerId.PLAYER2, 10,
+        start + TimeUnit.MILLISECONDS.toNanos(100), 
+        new ConnectFourModel.SearchProgress() {
+          @Override
+          public void progress(int move, int depth, int score) {
+            synchronized (depths) {
+              depths.add(depth);
+            }
+          }
+        }).get(1, TimeUnit.SECONDS);
+    assertTrue(move >= 0 && move < 18);
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+    synchronized (depths) {
+      assertFalse(depths.isEmpty());
+      assertEquals(1, (int) depths.get(0));
+      assertTrue(depths.size() < 40);
+    }
+  }
+  
+  @Test
+  public void testComputerPlayer_failingAiFallsBack() throws Exception {
+    ConnectFourModel game = new ConnectFourModel.Builder(
+        PlayerType.COMPUTER, PlayerType.COMPUTER)
+        .setRows(4).setColumns(5).setWinNum(3).build();
+    // One AI throws, the other answers a full column, then fails later.
+    game.setAiForTest(PlayerId.PLAYER1, new AlphaBetaAi(2) {
+      @Override
+      public CompletableFuture<Integer> decideMoveAsync(Board board,
+          PlayerId player, int winNum, long deadline, 
+          ConnectFourModel.SearchProgress progress) {
+        throw new IllegalStateException("Broken AI.");
+      }
+    });
+    game.setAiForTest(PlayerId.PLAYER2, new AlphaBetaAi(2) {
+      @Override
+      public CompletableFuture<Integer> decideMoveAsync(Board board,
+          PlayerId player, int winNum, long deadline, 
+          ConnectFourModel.SearchProgress progress) {
+        CompletableFuture<Integer> move = new CompletableFuture<Integer>();
+        if (board.getTop(0) == -1) {
+          move.complete(0);
+        } else {
+          move.completeExceptionally(new IllegalStateException("Broken."));
+        }
+        return move;
+      }
+    });
+    final CountDownLatch over = new CountDownLatch(1);
+    game.addListener(new ConnectFourListener() {
+      public void boardUpdate(int col, int row, PlayerId player) {}
+      public void checkerRemoved(int col, int row) {}
+      public void lockBoard() {}
+      public void unlockBoard() {}
+      public void gameDraw() { over.countDown(); }
+      public void gameWon(PlayerId player) { over.countDown(); }
+      public void gameReset() {}
+    });
+    game.start();
+    // The game is played to its end with fallback moves.
+    assertTrue(over.await(10, TimeUnit.SECONDS));
+  }
+  
+  @Test
+  public void testAlphaBeta_nodeBudget() {
+    ScratchBoard board = new ScratchBoard(7, 6, PlayerId.PLAYER1);
+    for (int col : new int[] {0, 6, 0, 6, 0}) {
+      board.play(col);
+    }
+    AlphaBetaAi easy = new AlphaBetaAi(42, new WindowEvaluator(), 
+        ConnectFourModel.Difficulty.EASY.nodes);
+    assertEquals(0, easy.decideMove(board, PlayerId.PLAYER2, 4));
+    // Too small a budget for any search still gives a legal move.
+    AlphaBetaAi starved = new AlphaBetaAi(42, new WindowEvaluator(), 1);
+    assertTrue(board.canPlay(starved.decideMove(board, PlayerId.PLAYER2, 4)));
+  }
+  
+  @Test
+  public void testScheduler_interleavesOwners() throws Exception {
+    final CountDownLatch longDone = new CountDownLatch(1);
+    final CountDownLatch shortDone = new CountDownLatch(1);
+    final boolean[] shortFirst = new boolean[1];
+    AiScheduler.getInstance().submit(new Object(), new AiScheduler.Step() {
+      private int left = 200;
+      
+      @Override
+      public boolean step() {
+        long end = System.nanoTime() + 1000000;
+        while (System.nanoTime() < end) {
+          // Busy for a millisecond.
+        }
+        if (--left > 0) {
+          return true;
+        }
+        shortFirst[0] = shortDone.getCount() == 0;
+        longDone.countDown();
+        return false;
+      }
+    });
+    Thread.sleep(20);
+    AiScheduler.getInstance().submit(new Object(), new AiScheduler.Step() {
+      @Override
+      public boolean step() {
+        shortDone.countDown();
+        return false;
+      }
+    });
+    assertTrue(longDone.await(10, TimeUnit.SECONDS));
+    assertTrue(shortFirst[0]);
+  }
+  
+  @Test
+  public void testFlightEvents_recordsMoves() throws Exception {
+    Path file = Files.createTempFile("connectfour", ".jfr");
+    Recording recording = new Recording();
+    try {
+      recording.enable("connectfour.Move");
+      recording.start();
+      gameTwoHumans.clicked(3);
+      // One in a row wins at once.
+      new ConnectFourModel.Builder(PlayerType.HUMAN, PlayerType.HUMAN)
+          .setWinNum(1).build().clicked(2);
+      recording.stop();
+      recording.dump(file);
+      List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+      assertEquals(2, events.size());
+      assertEquals(3, events.get(0).getInt("column"));
+      assertEquals(0, events.get(0).getInt("row"));
+      assertEquals("", events.get(0).getString("result"));
+      assertEquals("win", events.get(1).getString("result"));
+    } finally {
+      recording.close();
+      Files.delete(file);
+    }
+  }
+  
+  @Test
+  public void testPerfectSolver_lateGame() {
+    String moves = "2252576253462244111563365343671351441";
+    PerfectSolver solver = new PerfectSolver(null);
+    int none = PerfectSolver.NO_MOVE;
+    assertEquals(Arrays.toString(new int[] {none, none, none, none, none, 
+                                            -1, -2}),
+                 Arrays.toString(solver.solve(moves)));
+    // The same position on a model's board.
+    ConnectFourModel game = new ConnectFourModel.Builder(
+        PlayerType.HUMAN, PlayerType.HUMAN).build();
+    for (char move : moves.toCharArray()) {
+      game.clicked(move - '1');
+    }
+    assertEquals(Arrays.toString(solver.solve(moves)),
+                 Arrays.toString(solver.scoreColumns(
+                     game.getBoardForTest(), PlayerId.PLAYER2, 4)));
+    assertEquals(5, solver.decideMove(
+        game.getBoardForTest(), PlayerId.PLAYER2, 4));
+  }
+  
+  @Test
+  public void testPerfectSolver_winsAtOnce() {
+    PerfectSolver solver = new PerfectSolver(null);
+    // Three in column 1 for the first player, who wins with the 4th.
+    int[] scores = solver.solve("121212");
+    assertEquals(18, scores[0]);
+    for (int col = 1; col < 7; ++col) {
+      assertTrue(scores[col] < 18);
+    }
+  }
+  
+  @Test
+  public void testProofNumberSearch_openThreeOnLargeBoard() {
+    // Four in a row on the bottom of a 15 * 10 board, five to win: 
+    // making it an open four wins.
+    ScratchBoard board = new ScratchBoard(15, 10, PlayerId.PLAYER1);
+    for (int col = 6; col < 9; ++col) {
+      board.play(col);
+      board.play(col);
+    }
+    ProofNumberSearch search = new ProofNumberSearch(12);
+    ProofNumberSearch.Result result = 
+        search.prove(board, PlayerId.PLAYER1, 5, 10000, 150);
+    assertEquals(ProofNumberSearch.Outcome.PROVEN, result.outcome);
+    assertTrue(result.move == 5 || result.move == 9);
+    assertTrue(result.proofSize > 0);
+    // The defender cannot win it back.
+    board.play(result.move);
+    assertEquals(ProofNumberSearch.Outcome.DISPROVEN, 
+                 search.prove(board, PlayerId.PLAYER2, 5, 10000, 1).outcome);
+  }
+  
+  @Test
+  public void testProofNumberSearch_wideBoardUsesScanner() {
+    // The same open three, on a board wide enough for the scanner.
+    ScratchBoard board = new ScratchBoard(
+        ProofNumberSearch.SCAN_COLUMNS + 6, 6, PlayerId.PLAYER1);
+    for (int col = 40; col < 43; ++col) {
+      board.play(col);
+      board.play(col);
+    }
+    ProofNumberSearch search = new ProofNumberSearch(12);
+    ProofNumberSearch.Result result = 
+        search.prove(board, PlayerId.PLAYER1, 5, 10000, 150);
+    assertEquals(ProofNumberSearch.Outcome.PROVEN, result.outcome);
+    assertTrue(result.move == 39 || result.move == 43);
+    assertTrue(result.proofSize > 0);
+    board.play(result.move);
+    // Two threats: the defender cannot stop both.
+    assertEquals(ProofNumberSearch.Outcome.DISPROVEN, 
+                 search.prove(board, PlayerId.PLAYER2, 5, 10000, 1).outcome);
+  }
+  
+  @Test
+  public void testProvingAi_fallsBack() {
+    ScratchBoard board = new ScratchBoard(7, 6, PlayerId.PLAYER1);
+    ProvingAi ai = new ProvingAi(new ConnectFourAi() {
+      @Override
+      public int decideMove(Board board, PlayerId player, int winNum) {
+        return 6;
+      }
+    }, new ProofNumberSearch(12), 100);
+    assertEquals(6, ai.decideMove(board, PlayerId.PLAYER1, 4));
+    assertEquals(ProofNumberSearch.Outcome.UNKNOWN, 
+                 ai.getLastResult().outcome);
+    board.play(2);
+    board.play(2);
+    board.play(3);
+    board.play(3);
+    int move = ai.decideMove(board, PlayerId.PLAYER1, 4);
+    assertTrue(move == 1 || move == 4);
+    assertEquals(ProofNumberSearch.Outcome.PROVEN, 
+                 ai.getLastResult().outcome);
+  }
+  
+  @Test
+  public void testUndoRedo() {
+    final List<String> removed = new ArrayList<String>();
+    gameTwoHumans.addListener(new ConnectFourListener() {
+      public void boardUpdate(int col, int row, PlayerId player) {}
+      public void checkerRemoved(int col, int row) { 
+        removed.add(col + "," + row); 
+      }
+      public void lockBoard() {}
+      public void unlockBoard() {}
+      public void gameDraw() {}
+      public void gameWon(PlayerId player) {}
+      public void gameReset() {}
+    });
+    assertFalse(gameTwoHumans.undo());
+    gameTwoHumans.clicked(0);
+    gameTwoHumans.clicked(0);
+    gameTwoHumans.clicked(1);
+    Board board = gameTwoHumans.getBoardForTest();
+    assertTrue(gameTwoHumans.undo());
+    assertTrue(gameTwoHumans.undo());
+    assertEquals(Arrays.asList("1,0", "0,1"), removed);
+    assertEquals(null, board.get(0, 1));
+    assertEquals(null, board.get(1, 0));
+    assertTrue(gameTwoHumans.redo());
+    assertEquals(PlayerId.PLAYER1, board.get(0, 1));
+    // Playing the next redo move keeps it; any other forgets it.
+    gameTwoHumans.clicked(1);
+    assertEquals(PlayerId.PLAYER2, board.get(1, 0));
+    gameTwoHumans.undo();
+    gameTwoHumans.clicked(2);
+    assertFalse(gameTwoHumans.redo());
+    assertEquals(PlayerId.PLAYER2, board.get(2, 0));
+  }
+  
+  @Test
+  public void testHintAnalyzer() throws InterruptedException {
+    ScratchBoard board = new ScratchBoard(7, 6, PlayerId.PLAYER1);
+    board.play(2);
+    board.play(2);
+    board.play(3);
+    board.play(3);
+    board.play(4);
+    board.play(4);
+    HintAnalyzer analyzer = new HintAnalyzer();
+    analyzer.analyze(board, PlayerId.PLAYER1, 4);
+    HintAnalyzer.Hints hints = null;
+    for (int i = 0; i < 500 && hints == null; ++i) {
+      Thread.sleep(10);
+      hints = analyzer.getHints();
+    }
+    assertTrue(hints != null);
+    assertTrue(hints.scores[1] >= hints.decisive);
+    assertTrue(hints.scores[5] >= hints.decisive);
+    // Winning at once beats winning later.
+    assertTrue(hints.scores[0] < hints.scores[1]);
+    analyzer.stop();
+    assertEquals(null, analyzer.getHints());
+    analyzer.shutdown();
+  }
+  
+  @Test
+  public void testStatsDatabase() throws Exception {
+    Path file = Files.createTempFile("stats", ".db");
+    Files.delete(file);
+    try {
+      StatsDatabase stats = new StatsDatabase(file, 7, 6, 4, 0);
+      ConnectFourModel game = new ConnectFourModel.Builder(
+          PlayerType.HUMAN, PlayerType.HUMAN).build();
+      stats.attach(game);
+      // Player 1 wins up column 0.
+      for (int col : new int[] {0, 1, 0, 1, 0, 1, 0}) {
+        game.clicked(col);
+      }
+      ScratchBoard empty = new ScratchBoard(7, 6, PlayerId.PLAYER1);
+      assertEquals(1, stats.get(empty, PlayerId.PLAYER1)
+                           [3 * 0 + StatsDatabase.WINS]);
+      stats.flush();
+      // The mirrored game, won by player 2.
+      game.reset();
+      for (int col : new int[] {6, 5, 6, 5, 6, 5, 3, 5}) {
+        game.clicked(col);
+      }
+      stats.close();
+      
+      stats = new StatsDatabase(file, 7, 6, 4, 0);
+      assertEquals(2, stats.getGames());
+      int[] counts = stats.get(empty, PlayerId.PLAYER1);
+      assertEquals(1, counts[3 * 0 + StatsDatabase.WINS]);
+      assertEquals(1, counts[3 * 6 + StatsDatabase.LOSSES]);
+      ScratchBoard board = new ScratchBoard(7, 6, PlayerId.PLAYER1);
+      board.play(0);
+      // Player 2 answered column 0 with column 1 and lost, and column 6 
+      // with column 5 and won: the same move, mirrored.
+      counts = stats.get(board, PlayerId.PLAYER2);
+      assertEquals(1, counts[3 * 1 + StatsDatabase.WINS]);
+      assertEquals(1, counts[3 * 1 + StatsDatabase.LOSSES]);
+      stats.close();
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+  
+  @Test
+  public void testStatsDatabase_consistentDuringFlush() throws Exception {
+    Path file = Files.createTempFile("stats", ".db");
+    Files.delete(file);
+    try {
+      final StatsDatabase stats = new StatsDatabase(file, 7, 6, 4, 0);
+      final int[] moves = {0, 1, 0, 1, 0, 1, 0};
+      final int games = 2000;
+      Thread recorder = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < games; ++i) {
+            stats.record(moves, moves.length, PlayerId.PLAYER1, 
+                         PlayerId.PLAYER1);
+          }
+        }
+      };
+      Thread flusher = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 200; ++i) {
+              stats.flush();
+            }
+          } catch (IOException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      };
+      recorder.start();
+      flusher.start();
+      // Counts only grow, however the queries and flushes interleave.
+      ScratchBoard empty = new ScratchBoard(7, 6, PlayerId.PLAYER1);
+      int lastWins = 0;
+      long lastGames = 0;
+      while (recorder.isAlive() || flusher.isAlive()) {
+        int wins = stats.get(empty, PlayerId.PLAYER1)[StatsDatabase.WINS];
+        long recorded = stats.getGames();
+        assertTrue(wins >= lastWins);
+        assertTrue(recorded >= lastGames);
+        lastWins = wins;
+        lastGames = recorded;
+      }
+      recorder.join();
+      flusher.join();
+      assertEquals(games, stats.get(empty, PlayerId.PLAYER1)
+                              [StatsDatabase.WINS]);
+      assertEquals(games, stats.getGames());
+      stats.close();
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+  
+  @Test
+  public void testSuiteRunner() throws Exception {
+    // Every built-in position replays, and its best columns are legal.
+    assertTrue(SuiteRunner.readBuiltIn().size() >= 40);
+    List<SuiteRunner.Position> positions = SuiteRunner.read(
+        new BufferedReader(new StringReader(
+            "# Open eight in a row, then nine blocked at one end.\n"
+            + "18 10 10 2,2,3,3,4,4,5,5,6,6,7,7,8,8,9,9 1,10 win\n"
+            + "\n"
+            + "18 10 10 2,2,3,3,4,4,5,5,6,6,7,7,8,8,9,9,1,10 0 win\n")));
+    assertEquals(2, positions.size());
+    assertEquals(4, positions.get(1).line);
+    List<SuiteRunner.Result> results =
+        new SuiteRunner("alphabeta:4", 2).run(positions);
+    assertEquals("ok", results.get(0).status());
+    assertEquals("ok", results.get(1).status());
+    assertTrue(results.get(0).nodes > 0);
+    // The perfect solver plays 7x6 only.
+    assertEquals("skip", new SuiteRunner("perfect", 1).run(positions)
+                             .get(0).status());
+    // A position solved by the baseline and missed now is a regression.
+    StringWriter baseline = new StringWriter();
+    SuiteRunner.write(results, baseline);
+    assertTrue(SuiteRunner.compare(results, new BufferedReader(
+        new StringReader(baseline.toString()))));
+    List<SuiteRunner.Result> worse = new ArrayList<SuiteRunner.Result>();
+    worse.add(new SuiteRunner.Result(positions.get(0), 17, 0, -1));
+    assertEquals("miss", worse.get(0).status());
+    assertFalse(SuiteRunner.compare(worse, new BufferedReader(
+        new StringReader(baseline.toString()))));
+  }
+  
+  @Test
+  public void testSeededGamesReplay() {
+    List<List<Integer>> first = playSeeded(42L);
+    assertEquals(first, playSeeded(42L));
+    assertFalse(first.equals(playSeeded(43L)));
+  }
+  
+  /* Plays three games between seeded SimpleAi players; returns the 
+   * moves of each. */
+  private List<List<Integer>> playSeeded(long seed) {
+    ConnectFourModel game = new ConnectFourModel.Builder(
+        PlayerType.HUMAN, PlayerType.HUMAN).setSeed(seed).build();
+    final boolean[] over = new boolean[1];
+    game.addListener(new ConnectFourListener() {
+      public void boardUpdate(int col, int row, PlayerId player) {}
+      public void checkerRemoved(int col, int row) {}
+      public void lockBoard() {}
+      public void unlockBoard() {}
+      public void gameDraw() { over[0] = true; }
+      public void gameWon(PlayerId player) { over[0] = true; }
+      public void gameReset() { over[0] = false; }
+    });
+    List<List<Integer>> games = new ArrayList<List<Integer>>();
+    for (int i = 0; i < 3; ++i) {
+      game.reset();
+      ConnectFourAi ai = SimpleAi.seeded(game.getRandom());
+      List<Integer> moves = new ArrayList<Integer>();
+      while (!over[0]) {
+        int col = ai.decideMove(game.getPosition(), 
+                                game.getCurrentPlayer(), 4);
+        moves.add(col);
+        game.clicked(col);
+      }
+      games.add(moves);
+    }
+    return games;
+  }
+  
+  @Test
+  public void testSelfPlayTrainerSameSeedAnyThreads() throws Exception {
+    PatternEvaluator start = PatternEvaluator.initial(5, 4, 3);
+    float[] one = new SelfPlayTrainer(5, 4, 3, 1, 7L)
+        .train(start, 60, new long[1]).getWeights();
+    float[] three = new SelfPlayTrainer(5, 4, 3, 3, 7L)
+        .train(start, 60, new long[1]).getWeights();
+    assertTrue(Arrays.equals(one, three));
+    assertFalse(Arrays.equals(one, start.getWeights()));
+  }
+  
+  @Test
+  public void testGameCheckpoint() throws Exception {
+    Path file = Files.createTempFile("game", ".ckpt");
+    try {
+      for (int col : new int[] {0, 1, 0}) {
+        gameTwoHumans.clicked(col);
+      }
+      GameCheckpoint checkpoint = new GameCheckpoint(gameTwoHumans, file);
+      assertEquals(GameCheckpoint.HEADER_BYTES + 3 * 4, Files.size(file));
+      gameTwoHumans.clicked(1);
+      gameTwoHumans.clicked(0);
+      assertEquals(8, checkpoint.checkpoint());
+      assertEquals(0, checkpoint.checkpoint());
+      // Taking back two moves and playing another: one record each.
+      gameTwoHumans.undo();
+      gameTwoHumans.undo();
+      gameTwoHumans.clicked(6);
+      assertEquals(8, checkpoint.checkpoint());
+      checkpoint.close();
+      // A record cut short by a crash is ignored.
+      Files.write(file, new byte[] {6, 0}, StandardOpenOption.APPEND);
+      
+      final List<Integer> updates = new ArrayList<Integer>();
+      List<ConnectFourListener> listeners = 
+          new ArrayList<ConnectFourListener>();
+      listeners.add(new ConnectFourListener() {
+        public void boardUpdate(int col, int row, PlayerId player) {
+          updates.add(col);
+        }
+        public void checkerRemoved(int col, int row) {}
+        public void lockBoard() {}
+        public void unlockBoard() {}
+        public void gameDraw() {}
+        public void gameWon(PlayerId player) {}
+        public void gameReset() {}
+      });
+      ConnectFourModel restored = GameCheckpoint.restore(file, listeners);
+      assertEquals(Arrays.asList(0, 1, 0, 6), updates);
+      // Player 2 moved first.
+      assertEquals(PlayerId.PLAYER2, restored.getCurrentPlayer());
+      assertEquals(gameTwoHumans.getPosition().getKey(), 
+                   restored.getPosition().getKey());
+      // The restored game plays on.
+      restored.clicked(0);
+      assertEquals(PlayerId.PLAYER1, restored.getCurrentPlayer());
+      assertEquals(PlayerId.PLAYER2, restored.getBoardForTest().get(0, 2));
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+  
+  @Test
+  public void testIconCache_sharedBetweenDisplays() throws Exception {
+    SwingUtilities.invokeAndWait(new Runnable() {
+      @Override
+      public void run() {
+        BoardDisplay first = new BoardDisplay(gameTwoHumans, 20, false);
+        BoardDisplay second = new BoardDisplay(gameComputerFirst, 20, false);
+        first.boardUpdate(0, 0, PlayerId.PLAYER1);
+        second.boardUpdate(5, 0, PlayerId.PLAYER1);
+        DropAnimator.getInstance().finish(first);
+        DropAnimator.getInstance().finish(second);
+        // Same instances for the checkers and the empty slots.
+        assertTrue(first.getLabel(0, 0).getIcon() 
+                   == second.getLabel(5, 0).getIcon());
+        assertTrue(first.getLabel(1, 0).getIcon() 
+                   == second.getLabel(1, 0).getIcon());
+        assertTrue(first.getLabel(0, 0).getIcon() 
+                   == IconCache.get("/checkers/b.png", "black checker", 20));
+        assertFalse(IconCache.get("/checkers/b.png", "black checker", 20)
+                    == IconCache.get("/checkers/b.png", "black checker", 30));
+        first.dispose();
+        second.dispose();
+      }
+    });
+  }
+  
+  @Test
+  public void testBoardDisplayOffscreen() throws Exception {
+    final BufferedImage[] image = new BufferedImage[1];
+    SwingUtilities.invokeAndWait(new Runnable() {
+      @Override
+      public void run() {
+        BoardDisplay display = new BoardDisplay(gameTwoHumans, 20, false);
+        display.boardUpdate(3, 0, PlayerId.PLAYER2);
+        DropAnimator.getInstance().finish(display);
+        assertTrue(display.getLabel(3, 0).getIcon() 
+                   != display.getLabel(3, 1).getIcon());
+        JPanel view = display.getView();
+        assertTrue(view.getWidth() > 18 * 20);
+        image[0] = new BufferedImage(view.getWidth(), view.getHeight(),
+                                     BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image[0].createGraphics();
+        view.paint(graphics);
+        graphics.dispose();
+        display.dispose();
+      }
+    });
+    // Something was drawn.
+    assertTrue(image[0].getRGB(image[0].getWidth() / 2, 
+                               image[0].getHeight() / 2) != 0);
+  }
 }